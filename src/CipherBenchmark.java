@@ -0,0 +1,132 @@
+import Utilities.CipherKit;
+import Utilities.EnhancedArchiverAPI;
+import Utilities.KeyCache;
+import Utilities.KeyDerivation;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares encrypting and decrypting segments with a new Cipher and copied arrays for every segment (as archives
+ * were written before) against the reusable cipher of the worker context writing between buffers, then the time to
+ * open an archive with each key derivation, with and without the key cache
+ * Usage: java CipherBenchmark [data size in MB] [iterations]
+ */
+public class CipherBenchmark {
+    private static final int[] SEGMENT_SIZES = {4 * 1024, 64 * 1024, 1024 * 1024};
+    private static final String[] KEY_DERIVATIONS = {"pbkdf2-sha1:65536", "pbkdf2-sha256:65536", "pbkdf2-sha256:210000"};
+
+    public static void main(String[] args) throws Exception {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println("Cipher Benchmark");
+        System.out.println("================");
+        System.out.println("Data: " + sizeMB + " MB, iterations: " + iterations + " (best of, after one warm-up)");
+
+        byte[] data = new byte[sizeMB * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        CipherKit kit = new CipherKit(CipherKit.generateNonce(EnhancedArchiverAPI.NONCE_LENGTH), "benchmark", true);
+
+        System.out.printf("%n  %8s  %-9s  %12s  %12s  %14s%n", "segment", "path", "encrypt MB/s", "decrypt MB/s",
+            "allocated/MB");
+        for (int segmentSize : SEGMENT_SIZES) {
+            for (boolean reuse : new boolean[] {false, true}) {
+                double encrypt = 0, decrypt = 0;
+                long allocated = 0;
+                for (int i = 0; i <= iterations; i++) {
+                    long allocatedBefore = allocatedBytes();
+                    long start = System.nanoTime();
+                    byte[][] segments = reuse ? encryptReused(kit, data, segmentSize) : encryptPerSegment(kit, data, segmentSize);
+                    long encrypted = System.nanoTime();
+                    byte[] decrypted = reuse ? decryptReused(kit, segments, data.length) : decryptPerSegment(kit, segments);
+                    long end = System.nanoTime();
+                    if (!Arrays.equals(data, decrypted)) {
+                        throw new IllegalStateException("Decrypted data differs");
+                    }
+                    if (i > 0) {
+                        encrypt = Math.max(encrypt, sizeMB / ((encrypted - start) / 1e9));
+                        decrypt = Math.max(decrypt, sizeMB / ((end - encrypted) / 1e9));
+                        allocated = allocatedBytes() - allocatedBefore;
+                    }
+                }
+                System.out.printf("  %8s  %-9s  %12.1f  %12.1f  %14s%n", segmentSize / 1024 + " KB",
+                    reuse ? "reused" : "per call", encrypt, decrypt, allocated / sizeMB / 1024 + " KB");
+            }
+        }
+
+        System.out.printf("%n  %-22s  %12s  %12s%n", "key derivation", "derive ms", "cached ms");
+        KeyCache cache = new KeyCache(KeyCache.SHARED_MAX_KEYS, KeyCache.SHARED_TIME_TO_LIVE_MILLIS);
+        for (String name : KEY_DERIVATIONS) {
+            KeyDerivation derivation = KeyDerivation.forName(name);
+            double derive = Double.MAX_VALUE, cached = Double.MAX_VALUE;
+            for (int i = 0; i <= iterations; i++) {
+                byte[] salt = CipherKit.generateNonce(EnhancedArchiverAPI.NONCE_LENGTH);
+                long start = System.nanoTime();
+                cache.get(derivation, "benchmark", salt);
+                long derived = System.nanoTime();
+                cache.get(derivation, "benchmark", salt);
+                long end = System.nanoTime();
+                if (i > 0) {
+                    derive = Math.min(derive, (derived - start) / 1e6);
+                    cached = Math.min(cached, (end - derived) / 1e6);
+                }
+            }
+            System.out.printf("  %-22s  %12.1f  %12.3f%n", name, derive, cached);
+        }
+        cache.clear();
+    }
+
+    /**
+     * Encrypts with a new Cipher and a copy of the data for every segment
+     */
+    private static byte[][] encryptPerSegment(CipherKit kit, byte[] data, int segmentSize) throws Exception {
+        byte[][] segments = new byte[(data.length + segmentSize - 1) / segmentSize][];
+        for (int i = 0; i < segments.length; i++) {
+            byte[] segment = Arrays.copyOfRange(data, i * segmentSize, Math.min(data.length, (i + 1) * segmentSize));
+            segments[i] = kit.exec(segment, CipherKit.CipherMode.ENCRYPT);
+        }
+        return segments;
+    }
+
+    private static byte[] decryptPerSegment(CipherKit kit, byte[][] segments) throws Exception {
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        for (byte[] segment : segments) {
+            decrypted.write(kit.exec(segment, CipherKit.CipherMode.DECRYPT));
+        }
+        return decrypted.toByteArray();
+    }
+
+    /**
+     * Encrypts straight from the data with the reusable cipher of the current thread
+     */
+    private static byte[][] encryptReused(CipherKit kit, byte[] data, int segmentSize) throws Exception {
+        byte[][] segments = new byte[(data.length + segmentSize - 1) / segmentSize][];
+        for (int i = 0; i < segments.length; i++) {
+            int offset = i * segmentSize;
+            segments[i] = kit.encryptSegment(data, offset, Math.min(segmentSize, data.length - offset));
+        }
+        return segments;
+    }
+
+    private static byte[] decryptReused(CipherKit kit, byte[][] segments, int length) throws Exception {
+        ByteBuffer decrypted = ByteBuffer.allocate(length);
+        for (byte[] segment : segments) {
+            kit.decryptSegment(ByteBuffer.wrap(segment), decrypted);
+        }
+        return decrypted.array();
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread so far (0 if the JVM does not tell)
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads instanceof com.sun.management.ThreadMXBean
+            ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId())
+            : 0;
+    }
+}
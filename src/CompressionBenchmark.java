@@ -0,0 +1,120 @@
+import Models.Codec;
+import Utilities.ArchiverAPI;
+import Utilities.Codecs.CodecRegistry;
+import Utilities.EnhancedArchiverAPI;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures archive creation and extraction throughput of the enhanced archiver for 1 to N compression threads
+ * Usage: java CompressionBenchmark [data size in MB] [max threads] [iterations] [codec, e.g. lz4 or deflate:1]
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        Codec codec = args.length > 3 ? CodecRegistry.forName(args[3]) : CodecRegistry.DEFLATE;
+
+        System.out.println("Compression Thread Benchmark");
+        System.out.println("============================");
+        System.out.println("Data: " + sizeMB + " MB in 4 files, threads: 1-" + maxThreads + ", iterations: " + iterations
+            + ", codec: " + codec);
+
+        Path workDir = Files.createTempDirectory("archivit_bench");
+        Path sourceDir = workDir.resolve("source");
+        try {
+            generateFiles(sourceDir, 4, sizeMB * 1024L * 1024 / 4);
+
+            List<Integer> threadCounts = new ArrayList<>();
+            for (int threads = 1; threads < maxThreads; threads *= 2) {
+                threadCounts.add(threads);
+            }
+            threadCounts.add(maxThreads);
+
+            double baseCreate = 0, baseExtract = 0;
+            System.out.printf("%n  %7s  %14s  %8s  %14s  %8s%n", "threads", "create MB/s", "speedup", "extract MB/s", "speedup");
+            for (int threads : threadCounts) {
+                double create = 0, extract = 0;
+                for (int i = 0; i < iterations; i++) {
+                    String archivePath = workDir.resolve("bench_" + threads + "_" + i).toString();
+                    EnhancedArchiverAPI api = new EnhancedArchiverAPI(EnhancedArchiverAPI.ReaderEngine.STREAM, threads);
+
+                    EnhancedArchiverAPI.CreateArchiveConfig config =
+                        new EnhancedArchiverAPI.CreateArchiveConfig(sourceDir.toString(), archivePath, null, true, true);
+                    config.setThreads(threads);
+                    config.setCodec(codec);
+
+                    long start = System.nanoTime();
+                    ArchiverAPI.OperationResult result = api.createArchive(config, null);
+                    create = Math.max(create, sizeMB / ((System.nanoTime() - start) / 1e9));
+                    if (!result.success) {
+                        throw new IllegalStateException(result.message, result.error);
+                    }
+
+                    start = System.nanoTime();
+                    for (EnhancedArchiverAPI.EnhancedFileInfo file : api.listArchiveContents(archivePath)) {
+                        result = api.extractEntry(archivePath, file.path, OutputStream.nullOutputStream(), null);
+                        if (!result.success) {
+                            throw new IllegalStateException(result.message, result.error);
+                        }
+                    }
+                    extract = Math.max(extract, sizeMB / ((System.nanoTime() - start) / 1e9));
+
+                    Files.delete(Path.of(archivePath + ".archivit"));
+                }
+
+                if (threads == 1) {
+                    baseCreate = create;
+                    baseExtract = extract;
+                }
+                System.out.printf("  %7d  %14.1f  %7.2fx  %14.1f  %7.2fx%n", threads, create, create / baseCreate,
+                    extract, extract / baseExtract);
+            }
+        } finally {
+            deleteRecursively(workDir.toFile());
+        }
+    }
+
+    private static void generateFiles(Path dir, int fileCount, long fileSize) throws Exception {
+        Files.createDirectories(dir);
+        Random random = new Random(42);
+        String[] words = {"archive", "block", "deflate", "thread", "volume", "entry", "chunk", "index", "header", "data"};
+        for (int i = 0; i < fileCount; i++) {
+            // Text-like data, which compresses about as well as logs or source code
+            StringBuilder builder = new StringBuilder();
+            try (OutputStream out = Files.newOutputStream(dir.resolve("file" + i + ".log"))) {
+                long written = 0;
+                while (written < fileSize) {
+                    builder.setLength(0);
+                    for (int j = 0; j < 16; j++) {
+                        builder.append(words[random.nextInt(words.length)]).append(' ').append(random.nextInt(100000)).append(' ');
+                    }
+                    byte[] line = builder.append('\n').toString().getBytes();
+                    int length = (int) Math.min(line.length, fileSize - written);
+                    out.write(line, 0, length);
+                    written += length;
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        file.delete();
+    }
+}
@@ -1,5 +1,13 @@
 package Configs;
 
 public class Constants {
+    /**
+     * Default size of the chunks file data is read, encrypted and written in, and the largest chunk size
+     */
     public static final int DICTIONARY_MAX_SIZE = 31457280;
+
+    /**
+     * Smallest chunk size
+     */
+    public static final int MIN_CHUNK_SIZE = 4096;
 }
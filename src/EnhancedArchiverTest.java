@@ -1,5 +1,11 @@
 import Utilities.EnhancedArchiverAPI;
 import Utilities.ArchiverAPI;
+import Utilities.CipherKit;
+import Utilities.Codecs.CodecRegistry;
+import Utilities.CompressibilityEstimator;
+import Utilities.DictionaryTrainer;
+import Utilities.KeyCache;
+import Utilities.KeyDerivation;
 import java.util.List;
 
 /**
@@ -92,6 +98,16 @@ public class EnhancedArchiverTest {
         
         if (passwordResult.success) {
             System.out.println("✓ " + passwordResult.message);
+            
+            // Encrypted archives are listed through the central directory without a password
+            try {
+                List<EnhancedArchiverAPI.EnhancedFileInfo> files =
+                    enhancedAPI.listArchiveContents("enhanced_encrypted_test.archivit");
+                System.out.println("✓ Encrypted archive lists " + files.size() + " files");
+            } catch (Exception e) {
+                System.err.println("✗ Failed to list encrypted archive: " + e.getMessage());
+                allTestsPassed = false;
+            }
         } else {
             System.err.println("✗ " + passwordResult.message);
             if (passwordResult.error != null) {
@@ -127,6 +143,1195 @@ public class EnhancedArchiverTest {
             System.err.println("  Error comparing sizes: " + e.getMessage());
         }
         
+        // Test 5: Extract a single entry from the encrypted archive
+        System.out.println("\n5. Testing single entry extraction...");
+        java.io.ByteArrayOutputStream entryData = new java.io.ByteArrayOutputStream();
+        ArchiverAPI.OperationResult entryResult = enhancedAPI.extractEntry(
+            "enhanced_encrypted_test.archivit", "subdir/nested.txt", entryData, "testpass123");
+        
+        try {
+            byte[] original = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("test_data/sample_dir/subdir/nested.txt"));
+            if (entryResult.success && java.util.Arrays.equals(original, entryData.toByteArray())) {
+                System.out.println("✓ " + entryResult.message);
+            } else {
+                System.err.println("✗ Single entry extraction failed: " + entryResult.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to compare extracted entry: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 6: List and extract through the memory-mapped reader engine
+        System.out.println("\n6. Testing memory-mapped reader engine...");
+        try {
+            EnhancedArchiverAPI mappedAPI = new EnhancedArchiverAPI(EnhancedArchiverAPI.ReaderEngine.MAPPED);
+            List<EnhancedArchiverAPI.EnhancedFileInfo> mappedFiles =
+                mappedAPI.listArchiveContents("enhanced_archive_test.archivit");
+            List<EnhancedArchiverAPI.EnhancedFileInfo> streamedFiles =
+                enhancedAPI.listArchiveContents("enhanced_archive_test.archivit");
+            
+            java.io.ByteArrayOutputStream mappedEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult mappedExtract = mappedAPI.extractEntry(
+                "enhanced_archive_test.archivit", "test.txt", mappedEntry, null);
+            java.io.ByteArrayOutputStream mappedEncryptedEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult mappedEncryptedExtract = mappedAPI.extractEntry(
+                "enhanced_encrypted_test.archivit", "subdir/nested.txt", mappedEncryptedEntry, "testpass123");
+            
+            byte[] text = java.nio.file.Files.readAllBytes(java.nio.file.Path.of("test_data/sample_dir/test.txt"));
+            byte[] nested = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("test_data/sample_dir/subdir/nested.txt"));
+            if (mappedExtract.success && mappedEncryptedExtract.success
+                && mappedFiles.toString().equals(streamedFiles.toString())
+                && java.util.Arrays.equals(text, mappedEntry.toByteArray())
+                && java.util.Arrays.equals(nested, mappedEncryptedEntry.toByteArray())) {
+                System.out.println("✓ Listed " + mappedFiles.size() + " entries and extracted two through mapped windows");
+            } else {
+                System.err.println("✗ Mapped reader engine failed: " + mappedExtract.message + " / "
+                    + mappedEncryptedExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify mapped reader engine: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 7: Update archives from an unchanged source, and from a source with a changed and an added file
+        System.out.println("\n7. Testing archive update...");
+        try {
+            int entriesBefore = enhancedAPI.listArchiveContents("enhanced_encrypted_test.archivit").size();
+            ArchiverAPI.OperationResult unchangedResult = enhancedAPI.updateArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_encrypted_test",
+                    "testpass123"
+                ), null);
+            int entriesAfter = enhancedAPI.listArchiveContents("enhanced_encrypted_test.archivit").size();
+            
+            java.nio.file.Path updateSource = java.nio.file.Path.of("enhanced_update_source");
+            java.nio.file.Files.createDirectories(updateSource);
+            java.nio.file.Files.writeString(updateSource.resolve("kept.txt"), "Kept as it is\n");
+            java.nio.file.Files.writeString(updateSource.resolve("changed.txt"), "Before the update\n");
+            ArchiverAPI.OperationResult updateCreate = enhancedAPI.createArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_update_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_update_test",
+                    "testpass123", true, true
+                ), null);
+            
+            java.nio.file.Files.writeString(updateSource.resolve("changed.txt"), "After the update, one line longer\n");
+            java.nio.file.Files.writeString(updateSource.resolve("added.txt"), "Added by the update\n");
+            ArchiverAPI.OperationResult updateResult = enhancedAPI.updateArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_update_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_update_test",
+                    "testpass123"
+                ), null);
+            
+            java.io.ByteArrayOutputStream changedEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult changedExtract = enhancedAPI.extractEntry(
+                "enhanced_update_test.archivit", "changed.txt", changedEntry, "testpass123");
+            java.io.ByteArrayOutputStream addedEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult addedExtract = enhancedAPI.extractEntry(
+                "enhanced_update_test.archivit", "added.txt", addedEntry, "testpass123");
+            int updatedEntries = enhancedAPI.listArchiveContents("enhanced_update_test.archivit").size();
+            
+            if (unchangedResult.success && entriesBefore == entriesAfter
+                && updateCreate.success && updateResult.success && updatedEntries == 3
+                && changedExtract.success && changedEntry.toString().equals("After the update, one line longer\n")
+                && addedExtract.success && addedEntry.toString().equals("Added by the update\n")) {
+                System.out.println("✓ " + unchangedResult.message + ", " + updateResult.message);
+            } else {
+                System.err.println("✗ Archive update failed: " + unchangedResult.message + " / " + updateResult.message
+                    + " / " + changedExtract.message + " / " + addedExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to update archive: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 8: Create an increment of the compressed archive and restore the chain
+        System.out.println("\n8. Testing incremental archive and restore...");
+        ArchiverAPI.OperationResult incrementResult = enhancedAPI.createArchive(
+            new EnhancedArchiverAPI.CreateArchiveConfig(
+                "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                "/home/runner/work/java_archiver/java_archiver/enhanced_incremental_test",
+                null, true, true,
+                List.of("/home/runner/work/java_archiver/java_archiver/enhanced_archive_test"),
+                true // compare by SHA-256
+            ), null);
+        ArchiverAPI.OperationResult restoreResult = enhancedAPI.restoreArchive(
+            List.of("enhanced_archive_test", "enhanced_incremental_test"), "enhanced_restore_test", null, null);
+        
+        try {
+            byte[] original = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("test_data/sample_dir/subdir/nested.txt"));
+            byte[] restored = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("enhanced_restore_test/subdir/nested.txt"));
+            int incrementEntries = enhancedAPI.listArchiveContents("enhanced_incremental_test.archivit").size();
+            
+            if (incrementResult.success && restoreResult.success && incrementEntries == 0
+                    && java.util.Arrays.equals(original, restored)) {
+                System.out.println("✓ " + restoreResult.message);
+            } else {
+                System.err.println("✗ Incremental archive failed: " + incrementResult.message + " / " + restoreResult.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify restored chain: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 9: Record a changed file and a deleted file in an increment and restore the chain
+        System.out.println("\n9. Testing increment with changed and deleted files...");
+        try {
+            java.nio.file.Path incrementSource = java.nio.file.Path.of("enhanced_increment_source");
+            java.nio.file.Files.createDirectories(incrementSource);
+            java.nio.file.Files.writeString(incrementSource.resolve("kept.txt"), "Kept as it is\n");
+            java.nio.file.Files.writeString(incrementSource.resolve("changed.txt"), "Before the increment\n");
+            java.nio.file.Files.writeString(incrementSource.resolve("deleted.txt"), "Deleted before the increment\n");
+            ArchiverAPI.OperationResult baseResult = enhancedAPI.createArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_increment_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_increment_base",
+                    null, true, true
+                ), null);
+            
+            java.nio.file.Files.writeString(incrementSource.resolve("changed.txt"), "After the increment\n");
+            java.nio.file.Files.delete(incrementSource.resolve("deleted.txt"));
+            ArchiverAPI.OperationResult changedResult = enhancedAPI.createArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_increment_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_changed_increment_test",
+                    null, true, true,
+                    List.of("/home/runner/work/java_archiver/java_archiver/enhanced_increment_base"),
+                    true
+                ), null);
+            ArchiverAPI.OperationResult changedRestore = enhancedAPI.restoreArchive(
+                List.of("enhanced_increment_base", "enhanced_changed_increment_test"), "enhanced_changed_restore", null, null);
+            
+            List<EnhancedArchiverAPI.EnhancedFileInfo> incrementFiles =
+                enhancedAPI.listArchiveContents("enhanced_changed_increment_test.archivit");
+            long deletionMarkers = incrementFiles.stream().filter(file -> file.isDeleted).count();
+            java.nio.file.Path restoredDir = java.nio.file.Path.of("enhanced_changed_restore");
+            
+            if (baseResult.success && changedResult.success && changedRestore.success
+                && incrementFiles.size() == 2 && deletionMarkers == 1
+                && java.nio.file.Files.readString(restoredDir.resolve("kept.txt")).equals("Kept as it is\n")
+                && java.nio.file.Files.readString(restoredDir.resolve("changed.txt")).equals("After the increment\n")
+                && !java.nio.file.Files.exists(restoredDir.resolve("deleted.txt"))) {
+                System.out.println("✓ " + changedRestore.message);
+            } else {
+                System.err.println("✗ Increment with changes failed: " + changedResult.message + " / " + changedRestore.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify increment with changes: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 10: Store the chunks two files share once, although one is shifted by a prefix
+        System.out.println("\n10. Testing chunk deduplication...");
+        try {
+            byte[] shared = new byte[256 * 1024];
+            new java.util.Random(6).nextBytes(shared);
+            byte[] shifted = new byte[shared.length + 100];
+            System.arraycopy(shared, 0, shifted, 100, shared.length);
+            java.nio.file.Path dedupSource = java.nio.file.Path.of("enhanced_dedup_source");
+            java.nio.file.Files.createDirectories(dedupSource);
+            java.nio.file.Files.write(dedupSource.resolve("first.bin"), shared);
+            java.nio.file.Files.write(dedupSource.resolve("second.bin"), shifted);
+            
+            EnhancedArchiverAPI.CreateArchiveConfig dedupConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_dedup_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_dedup_test",
+                    null, true, true
+                );
+            dedupConfig.setDedupChunkSize(8192);
+            
+            Utilities.DedupStatistics[] dedupStatistics = new Utilities.DedupStatistics[1];
+            ArchiverAPI.OperationResult dedupResult = enhancedAPI.createArchive(dedupConfig,
+                new ArchiverAPI.ProgressCallback() {
+                    @Override
+                    public void onProgress(String operation, String fileName, long processed, long total) {}
+                    
+                    @Override
+                    public void onComplete(String operation, long totalFiles, long totalBytes) {}
+                    
+                    @Override
+                    public void onComplete(String operation, long totalFiles, long totalBytes,
+                                           Utilities.DedupStatistics statistics) {
+                        System.out.println("  Deduplication: " + statistics);
+                        dedupStatistics[0] = statistics;
+                    }
+                    
+                    @Override
+                    public void onError(String operation, String fileName, Exception error) {
+                        System.err.println("  Error: " + fileName + " - " + error.getMessage());
+                    }
+                });
+            
+            java.io.ByteArrayOutputStream dedupEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult dedupExtract = enhancedAPI.extractEntry(
+                "enhanced_dedup_test.archivit", "second.bin", dedupEntry, null);
+            
+            // Only the chunks around the prefix differ, so well over a third of the data is stored once
+            if (dedupResult.success && dedupExtract.success && java.util.Arrays.equals(shifted, dedupEntry.toByteArray())
+                && dedupStatistics[0] != null && dedupStatistics[0].uniqueChunkCount < dedupStatistics[0].chunkCount
+                && dedupStatistics[0].uniqueBytes < dedupStatistics[0].logicalBytes * 2 / 3) {
+                System.out.println("✓ " + dedupResult.message);
+            } else {
+                System.err.println("✗ Chunk deduplication failed: " + dedupResult.message + " / " + dedupExtract.message
+                    + " / " + dedupStatistics[0]);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify chunk deduplication: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 11: Store an identical file and a hard link as references, and restore the link as a link
+        System.out.println("\n11. Testing file deduplication and hard links...");
+        try {
+            java.nio.file.Path linkSource = java.nio.file.Path.of("enhanced_link_source");
+            java.nio.file.Files.createDirectories(linkSource);
+            java.nio.file.Files.writeString(linkSource.resolve("original.txt"), "Stored once, linked once\n".repeat(20));
+            java.nio.file.Files.createLink(linkSource.resolve("link.txt"), linkSource.resolve("original.txt"));
+            java.nio.file.Files.writeString(linkSource.resolve("data.txt"), "Stored once, copied once\n".repeat(20));
+            java.nio.file.Files.copy(linkSource.resolve("data.txt"), linkSource.resolve("copy.txt"));
+            
+            EnhancedArchiverAPI.CreateArchiveConfig linkConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_link_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_link_test",
+                    null, true, true
+                );
+            linkConfig.setDedupFiles(true);
+            
+            Utilities.DedupStatistics[] linkStatistics = new Utilities.DedupStatistics[1];
+            ArchiverAPI.OperationResult linkResult = enhancedAPI.createArchive(linkConfig,
+                new ArchiverAPI.ProgressCallback() {
+                    @Override
+                    public void onProgress(String operation, String fileName, long processed, long total) {}
+                    
+                    @Override
+                    public void onComplete(String operation, long totalFiles, long totalBytes) {}
+                    
+                    @Override
+                    public void onComplete(String operation, long totalFiles, long totalBytes,
+                                           Utilities.DedupStatistics statistics) {
+                        linkStatistics[0] = statistics;
+                    }
+                    
+                    @Override
+                    public void onError(String operation, String fileName, Exception error) {
+                        System.err.println("  Error: " + fileName + " - " + error.getMessage());
+                    }
+                });
+            ArchiverAPI.OperationResult linkRestore = enhancedAPI.restoreArchive(
+                List.of("enhanced_link_test"), "enhanced_link_restore", null, true, null);
+            
+            java.nio.file.Path restoredDir = java.nio.file.Path.of("enhanced_link_restore");
+            byte[] original = java.nio.file.Files.readAllBytes(linkSource.resolve("data.txt"));
+            if (linkResult.success && linkRestore.success && linkStatistics[0] != null
+                && linkStatistics[0].duplicateFiles == 1 && linkStatistics[0].hardLinks == 1
+                && java.util.Arrays.equals(original, java.nio.file.Files.readAllBytes(restoredDir.resolve("copy.txt")))
+                && java.nio.file.Files.isSameFile(restoredDir.resolve("original.txt"), restoredDir.resolve("link.txt"))) {
+                System.out.println("✓ " + linkStatistics[0].duplicateFiles + " identical file and "
+                    + linkStatistics[0].hardLinks + " hard link stored as references");
+            } else {
+                System.err.println("✗ File deduplication failed: " + linkResult.message + " / " + linkRestore.message
+                    + " / " + linkStatistics[0]);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify file deduplication: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 12: Create an archive split into small volumes and extract an entry spanning several of them
+        System.out.println("\n12. Testing split archive...");
+        EnhancedArchiverAPI.CreateArchiveConfig splitConfig =
+            new EnhancedArchiverAPI.CreateArchiveConfig(
+                "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                "/home/runner/work/java_archiver/java_archiver/enhanced_split_test",
+                null, false, true
+            );
+        splitConfig.setVolumeSize(64);
+        
+        ArchiverAPI.OperationResult splitResult = enhancedAPI.createArchive(splitConfig, null);
+        
+        java.io.ByteArrayOutputStream splitEntry = new java.io.ByteArrayOutputStream();
+        ArchiverAPI.OperationResult splitExtract = enhancedAPI.extractEntry(
+            "enhanced_split_test.archivit", "test.txt", splitEntry, null);
+        
+        try {
+            byte[] original = java.nio.file.Files.readAllBytes(java.nio.file.Path.of("test_data/sample_dir/test.txt"));
+            if (splitResult.success && splitExtract.success && java.util.Arrays.equals(original, splitEntry.toByteArray())
+                    && new java.io.File("enhanced_split_test.archivit.001").length() == 64
+                    && new java.io.File("enhanced_split_test.archivit.003").exists()) {
+                System.out.println("✓ " + splitResult.message);
+            } else {
+                System.err.println("✗ Split archive failed: " + splitResult.message + " / " + splitExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify split archive: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 13: Compress many small similar files together in solid blocks
+        System.out.println("\n13. Testing solid archive...");
+        try {
+            java.nio.file.Path solidSource = java.nio.file.Path.of("enhanced_solid_source");
+            java.nio.file.Files.createDirectories(solidSource);
+            for (int i = 0; i < 40; i++) {
+                java.nio.file.Files.writeString(solidSource.resolve("user" + i + ".json"), String.format(
+                    "{\"id\": %d, \"name\": \"user%d\", \"email\": \"user%d@example.com\", \"active\": %b}\n",
+                    i, i, i, i % 2 == 0));
+            }
+            
+            EnhancedArchiverAPI.CreateArchiveConfig solidConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_solid_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_solid_test",
+                    null, true, true
+                );
+            solidConfig.setSolidBlockSize(EnhancedArchiverAPI.MIN_SOLID_BLOCK_SIZE);
+            ArchiverAPI.OperationResult solidResult = enhancedAPI.createArchive(solidConfig, null);
+            ArchiverAPI.OperationResult separateResult = enhancedAPI.createArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_solid_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_separate_test",
+                    null, true, true
+                ), null);
+            
+            java.io.ByteArrayOutputStream solidEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult solidExtract = enhancedAPI.extractEntry(
+                "enhanced_solid_test.archivit", "user17.json", solidEntry, null);
+            long solidSize = new java.io.File("enhanced_solid_test.archivit").length();
+            long separateSize = new java.io.File("enhanced_separate_test.archivit").length();
+            
+            if (solidResult.success && separateResult.success && solidExtract.success && solidSize < separateSize
+                && java.util.Arrays.equals(java.nio.file.Files.readAllBytes(solidSource.resolve("user17.json")),
+                    solidEntry.toByteArray())) {
+                System.out.println("✓ Solid archive takes " + ArchiverAPI.formatSize(solidSize) + ", "
+                    + ArchiverAPI.formatSize(separateSize) + " with files compressed one by one");
+            } else {
+                System.err.println("✗ Solid archive failed: " + solidResult.message + " / " + solidExtract.message
+                    + " / " + solidSize + " of " + separateSize + " bytes");
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify solid archive: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 14: Read a range of an entry stored as several blocks
+        System.out.println("\n14. Testing range read...");
+        EnhancedArchiverAPI.CreateArchiveConfig blockConfig =
+            new EnhancedArchiverAPI.CreateArchiveConfig(
+                "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                "/home/runner/work/java_archiver/java_archiver/enhanced_block_test",
+                null, true, true
+            );
+        blockConfig.setCompressionBlockSize(8);
+        
+        ArchiverAPI.OperationResult blockResult = enhancedAPI.createArchive(blockConfig, null);
+        
+        java.io.ByteArrayOutputStream range = new java.io.ByteArrayOutputStream();
+        ArchiverAPI.OperationResult rangeResult = enhancedAPI.readRange(
+            "enhanced_block_test.archivit", "subdir/nested.txt", 5, 10, range, null);
+        
+        // A length past the end of the entry reads up to its end
+        java.io.ByteArrayOutputStream tail = new java.io.ByteArrayOutputStream();
+        ArchiverAPI.OperationResult tailResult = enhancedAPI.readRange(
+            "enhanced_block_test.archivit", "subdir/nested.txt", 5, Long.MAX_VALUE, tail, null);
+        
+        try {
+            byte[] original = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("test_data/sample_dir/subdir/nested.txt"));
+            byte[] expected = java.util.Arrays.copyOfRange(original, 5, Math.min(original.length, 15));
+            byte[] expectedTail = java.util.Arrays.copyOfRange(original, 5, original.length);
+            if (blockResult.success && rangeResult.success && java.util.Arrays.equals(expected, range.toByteArray())
+                && tailResult.success && java.util.Arrays.equals(expectedTail, tail.toByteArray())) {
+                System.out.println("✓ " + rangeResult.message + ", " + tailResult.message);
+            } else {
+                System.err.println("✗ Range read failed: " + blockResult.message + " / " + rangeResult.message
+                    + " / " + tailResult.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify range read: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 15: Create an archive with compact metadata, which lists the same entries in fewer bytes
+        System.out.println("\n15. Testing compact metadata...");
+        EnhancedArchiverAPI.CreateArchiveConfig compactConfig =
+            new EnhancedArchiverAPI.CreateArchiveConfig(
+                "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                "/home/runner/work/java_archiver/java_archiver/enhanced_compact_test",
+                null, true, true
+            );
+        compactConfig.setCompactMetadata(true);
+        
+        ArchiverAPI.OperationResult compactResult = enhancedAPI.createArchive(compactConfig, null);
+        
+        try {
+            List<EnhancedArchiverAPI.EnhancedFileInfo> compactFiles =
+                enhancedAPI.listArchiveContents("enhanced_compact_test.archivit");
+            List<EnhancedArchiverAPI.EnhancedFileInfo> regularFiles =
+                enhancedAPI.listArchiveContents("enhanced_archive_test.archivit");
+            long compactSize = new java.io.File("enhanced_compact_test.archivit").length();
+            long regularSize = new java.io.File("enhanced_archive_test.archivit").length();
+            
+            if (compactResult.success && compactFiles.toString().equals(regularFiles.toString())
+                && compactSize < regularSize) {
+                System.out.println("✓ Compact archive takes " + compactSize + " bytes, " + regularSize + " with full records");
+            } else {
+                System.err.println("✗ Compact metadata failed: " + compactResult.message + " / " + compactSize
+                    + " of " + regularSize + " bytes");
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify compact metadata: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 16: Compress on several threads, the archive must not depend on the thread count
+        System.out.println("\n16. Testing multi-threaded compression...");
+        try {
+            // Compressible text spanning many compression blocks
+            String[] words = {"archive", "segment", "block", "entry", "nonce", "thread", "codec", "volume"};
+            java.util.Random random = new java.util.Random(23);
+            java.nio.file.Path threadsDir = java.nio.file.Path.of("enhanced_threads_source");
+            java.nio.file.Files.createDirectories(threadsDir);
+            for (int file = 0; file < 3; file++) {
+                StringBuilder text = new StringBuilder();
+                while (text.length() < 1024 * 1024) {
+                    text.append(words[random.nextInt(words.length)]).append(random.nextInt(1000))
+                        .append(random.nextInt(8) == 0 ? '\n' : ' ');
+                }
+                java.nio.file.Files.writeString(threadsDir.resolve("text" + file + ".txt"), text);
+            }
+            
+            boolean identical = true;
+            boolean created = true;
+            for (boolean dedup : new boolean[] {false, true}) {
+                byte[][] archives = new byte[2][];
+                int[] threadCounts = {1, 4};
+                for (int i = 0; i < threadCounts.length; i++) {
+                    String archiveName = "enhanced_threads_test_" + (dedup ? "dedup_" : "") + threadCounts[i];
+                    EnhancedArchiverAPI.CreateArchiveConfig threadsConfig =
+                        new EnhancedArchiverAPI.CreateArchiveConfig(
+                            "/home/runner/work/java_archiver/java_archiver/enhanced_threads_source",
+                            "/home/runner/work/java_archiver/java_archiver/" + archiveName,
+                            null, true, true
+                        );
+                    threadsConfig.setThreads(threadCounts[i]);
+                    threadsConfig.setCompressionBlockSize(64 * 1024);
+                    if (dedup) {
+                        threadsConfig.setDedupChunkSize(64 * 1024);
+                    }
+                    ArchiverAPI.OperationResult threadsResult = enhancedAPI.createArchive(threadsConfig, null);
+                    if (!threadsResult.success) {
+                        System.err.println("  " + threadsResult.message);
+                    }
+                    created &= threadsResult.success;
+                    archives[i] = java.nio.file.Files.readAllBytes(java.nio.file.Path.of(archiveName + ".archivit"));
+                }
+                identical &= java.util.Arrays.equals(archives[0], archives[1]);
+            }
+            
+            java.io.ByteArrayOutputStream threadsEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult threadsExtract = enhancedAPI.extractEntry(
+                "enhanced_threads_test_4.archivit", "text1.txt", threadsEntry, null);
+            byte[] original = java.nio.file.Files.readAllBytes(threadsDir.resolve("text1.txt"));
+            if (created && identical && threadsExtract.success
+                && java.util.Arrays.equals(original, threadsEntry.toByteArray())) {
+                System.out.println("✓ Archives created on 1 and 4 threads are byte-identical");
+            } else {
+                System.err.println("✗ Multi-threaded compression failed: created " + created + ", identical " + identical
+                    + " / " + threadsExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify multi-threaded compression: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 17: Compress with the LZ4 codec, directly and through an archive
+        System.out.println("\n17. Testing LZ4 codec...");
+        try {
+            byte[] text = "2024-01-01 12:00:00 INFO request handled in 12 ms\n".repeat(500).getBytes();
+            byte[] compressed = CodecRegistry.LZ4.compress(text);
+            byte[] decompressed = CodecRegistry.LZ4.decompress(java.nio.ByteBuffer.wrap(compressed), text.length);
+            
+            EnhancedArchiverAPI.CreateArchiveConfig codecConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_codec_test",
+                    null, true, true
+                );
+            codecConfig.setCodec(CodecRegistry.LZ4);
+            ArchiverAPI.OperationResult codecResult = enhancedAPI.createArchive(codecConfig, null);
+            
+            java.io.ByteArrayOutputStream codecEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult codecExtract = enhancedAPI.extractEntry(
+                "enhanced_codec_test.archivit", "test.txt", codecEntry, null);
+            byte[] original = java.nio.file.Files.readAllBytes(java.nio.file.Path.of("test_data/sample_dir/test.txt"));
+            
+            if (compressed.length < text.length / 10 && java.util.Arrays.equals(text, decompressed)
+                && codecResult.success && codecExtract.success
+                && java.util.Arrays.equals(original, codecEntry.toByteArray())) {
+                System.out.println("✓ LZ4 compressed " + text.length + " bytes of text to " + compressed.length + ", "
+                    + codecResult.message);
+            } else {
+                System.err.println("✗ LZ4 codec failed: " + codecResult.message + " / " + codecExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify LZ4 codec: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 18: Estimate compressibility of text, gzip and random data
+        System.out.println("\n18. Testing compressibility estimation...");
+        try {
+            byte[] text = "2024-01-01 12:00:00 INFO request handled in 12 ms\n".repeat(2000).getBytes();
+            java.io.ByteArrayOutputStream gzipped = new java.io.ByteArrayOutputStream();
+            try (java.util.zip.GZIPOutputStream gzip = new java.util.zip.GZIPOutputStream(gzipped)) {
+                gzip.write(text);
+            }
+            byte[] random = new byte[1 << 16];
+            new java.util.Random(14).nextBytes(random);
+            
+            CompressibilityEstimator.Decision textDecision = CompressibilityEstimator.estimate(text, true);
+            CompressibilityEstimator.Decision gzipDecision = CompressibilityEstimator.estimate(gzipped.toByteArray(), true);
+            CompressibilityEstimator.Decision randomDecision = CompressibilityEstimator.estimate(random, true);
+            if (textDecision == CompressibilityEstimator.Decision.COMPRESS
+                && gzipDecision == CompressibilityEstimator.Decision.COMPRESSED_FORMAT
+                && randomDecision == CompressibilityEstimator.Decision.HIGH_ENTROPY) {
+                System.out.println("✓ Text compressed, gzip and random data stored as they are");
+            } else {
+                System.err.println("✗ Unexpected decisions: " + textDecision + " / " + gzipDecision + " / " + randomDecision);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to estimate compressibility: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 19: Move the compression level up with time to spare and down when compression is the bottleneck
+        System.out.println("\n19. Testing adaptive compression level...");
+        try {
+            Utilities.CompressionStatistics idleStatistics = new Utilities.CompressionStatistics("deflate");
+            Utilities.AdaptiveCompression relaxed = new Utilities.AdaptiveCompression(
+                CodecRegistry.DEFLATE, 1, 0, 0, 1, idleStatistics);
+            relaxed.next(1 << 20);
+            Thread.sleep(Utilities.AdaptiveCompression.INTERVAL_NANOS / 1_000_000 + 10);
+            Models.Codec raised = relaxed.next(1 << 20);
+            
+            Utilities.CompressionStatistics busyStatistics = new Utilities.CompressionStatistics("deflate");
+            Utilities.AdaptiveCompression pressed = new Utilities.AdaptiveCompression(
+                CodecRegistry.DEFLATE, Long.MAX_VALUE, 0, 0, 1, busyStatistics);
+            pressed.next(1 << 20);
+            Thread.sleep(Utilities.AdaptiveCompression.INTERVAL_NANOS / 1_000_000 + 10);
+            busyStatistics.record(CompressibilityEstimator.Decision.COMPRESS, CodecRegistry.DEFLATE, 1 << 20, 1 << 10,
+                Utilities.AdaptiveCompression.INTERVAL_NANOS * 2);
+            Models.Codec lowered = pressed.next(1 << 20);
+            
+            EnhancedArchiverAPI.CreateArchiveConfig adaptiveConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_adaptive_test",
+                    null, true, true
+                );
+            adaptiveConfig.setTargetThroughput(1L << 30);
+            adaptiveConfig.setDeadlineSeconds(60);
+            ArchiverAPI.OperationResult adaptiveResult = enhancedAPI.createArchive(adaptiveConfig, null);
+            java.io.ByteArrayOutputStream adaptiveEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult adaptiveExtract = enhancedAPI.extractEntry(
+                "enhanced_adaptive_test.archivit", "test.txt", adaptiveEntry, null);
+            byte[] original = java.nio.file.Files.readAllBytes(java.nio.file.Path.of("test_data/sample_dir/test.txt"));
+            
+            if (raised.getLevel() == CodecRegistry.DEFLATE.getLevel() + 1
+                && lowered.getLevel() == CodecRegistry.DEFLATE.getLevel() - 1
+                && adaptiveResult.success && adaptiveExtract.success
+                && java.util.Arrays.equals(original, adaptiveEntry.toByteArray())) {
+                System.out.println("✓ Level raised to " + raised + " when idle, lowered to " + lowered + " when busy");
+            } else {
+                System.err.println("✗ Adaptive compression failed: " + raised + " / " + lowered + " / "
+                    + adaptiveResult.message + " / " + adaptiveExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify adaptive compression: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 20: Prime DEFLATE with a preset dictionary trained on similar small files
+        System.out.println("\n20. Testing preset dictionary...");
+        try {
+            java.util.List<byte[]> samples = new java.util.ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                samples.add(String.format("{\"id\": %d, \"name\": \"user%d\", \"email\": \"user%d@example.com\", "
+                    + "\"active\": %b, \"roles\": [\"reader\", \"writer\"]}", i, i, i, i % 2 == 0).getBytes());
+            }
+            byte[] dictionary = DictionaryTrainer.train(samples, DictionaryTrainer.MIN_SIZE);
+            byte[] sample = samples.get(7);
+            Utilities.Codecs.DeflateCodec primed = new Utilities.Codecs.DeflateCodec(6, dictionary);
+            byte[] withDictionary = primed.compress(sample);
+            byte[] withoutDictionary = new Utilities.Codecs.DeflateCodec(6).compress(sample);
+            
+            EnhancedArchiverAPI.CreateArchiveConfig dictionaryConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_dictionary_test",
+                    "testpass123", true, true
+                );
+            dictionaryConfig.setDictionarySize(4096);
+            ArchiverAPI.OperationResult dictionaryResult = enhancedAPI.createArchive(dictionaryConfig, null);
+            
+            java.io.ByteArrayOutputStream dictionaryEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult dictionaryExtract = enhancedAPI.extractEntry(
+                "enhanced_dictionary_test.archivit", "subdir/nested.txt", dictionaryEntry, "testpass123");
+            byte[] original = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("test_data/sample_dir/subdir/nested.txt"));
+            
+            if (dictionary != null && withDictionary.length < withoutDictionary.length
+                && java.util.Arrays.equals(sample, primed.decompress(java.nio.ByteBuffer.wrap(withDictionary), sample.length))
+                && dictionaryResult.success && dictionaryExtract.success
+                && java.util.Arrays.equals(original, dictionaryEntry.toByteArray())) {
+                System.out.println("✓ Sample compressed to " + withDictionary.length + " bytes with a " + dictionary.length
+                    + "-byte dictionary, " + withoutDictionary.length + " bytes without");
+            } else {
+                System.err.println("✗ Preset dictionary failed: " + dictionaryResult.message + " / " + dictionaryExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify preset dictionary: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 21: Encrypt every segment with its own nonce
+        System.out.println("\n21. Testing segment nonces...");
+        try {
+            byte[] nonce = CipherKit.generateNonce(EnhancedArchiverAPI.NONCE_LENGTH);
+            CipherKit segmentKit = new CipherKit(nonce, "testpass123", true);
+            byte[] segmentData = "Identical segments must not share a nonce".getBytes();
+            byte[] first = segmentKit.encryptSegment(segmentData, 0, segmentData.length);
+            byte[] second = segmentKit.encryptSegment(segmentData, 0, segmentData.length);
+            
+            if (!java.util.Arrays.equals(first, second)
+                && java.util.Arrays.equals(segmentData, segmentKit.decryptSegment(first))
+                && java.util.Arrays.equals(segmentData, segmentKit.decryptSegment(second))) {
+                System.out.println("✓ Identical segments encrypted with different nonces");
+            } else {
+                System.err.println("✗ Identical segments encrypted with the same nonce");
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify segment nonces: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 22: Encrypt and decrypt segments between buffers, with and without segment nonces
+        System.out.println("\n22. Testing buffer segment encryption...");
+        try {
+            byte[] segmentData = new byte[10_000];
+            new java.util.Random(24).nextBytes(segmentData);
+            boolean roundTrips = true;
+            boolean tamperDetected = true;
+            for (boolean hasSegmentNonces : new boolean[] {false, true}) {
+                CipherKit bufferKit = new CipherKit(
+                    CipherKit.generateNonce(EnhancedArchiverAPI.NONCE_LENGTH), "testpass123", hasSegmentNonces);
+                
+                // Direct buffers, with data and output that do not start at position 0
+                java.nio.ByteBuffer data = java.nio.ByteBuffer.allocateDirect(segmentData.length + 7);
+                data.position(7);
+                data.put(segmentData).position(7);
+                java.nio.ByteBuffer segment = java.nio.ByteBuffer.allocateDirect(bufferKit.segmentLength(segmentData.length) + 3);
+                segment.position(3);
+                bufferKit.encryptSegment(data, segment);
+                segment.flip().position(3);
+                
+                byte[] encrypted = new byte[segment.remaining()];
+                segment.duplicate().get(encrypted);
+                java.nio.ByteBuffer decrypted = java.nio.ByteBuffer.allocate(bufferKit.dataLength(encrypted.length) + 5);
+                decrypted.position(5);
+                bufferKit.decryptSegment(segment, decrypted);
+                byte[] decryptedData = java.util.Arrays.copyOfRange(decrypted.array(), 5, decrypted.position());
+                
+                roundTrips &= !data.hasRemaining() && !segment.hasRemaining()
+                    && encrypted.length == bufferKit.segmentLength(segmentData.length)
+                    && java.util.Arrays.equals(segmentData, decryptedData)
+                    && java.util.Arrays.equals(segmentData, bufferKit.decryptSegment(encrypted));
+                
+                encrypted[encrypted.length / 2] ^= 1;
+                try {
+                    bufferKit.decryptSegment(java.nio.ByteBuffer.wrap(encrypted),
+                        java.nio.ByteBuffer.allocate(bufferKit.dataLength(encrypted.length)));
+                    tamperDetected = false;
+                } catch (javax.crypto.AEADBadTagException e) {
+                    // Expected
+                }
+            }
+            
+            if (roundTrips && tamperDetected) {
+                System.out.println("✓ Segments round-tripped between direct and heap buffers, tampering detected");
+            } else {
+                System.err.println("✗ Buffer segment encryption failed: round trips " + roundTrips
+                    + ", tampering detected " + tamperDetected);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify buffer segment encryption: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 23: Encrypt in small segments recorded in the header, with buffers from the shared pool
+        System.out.println("\n23. Testing segment size and buffer pool...");
+        try {
+            EnhancedArchiverAPI.CreateArchiveConfig segmentConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_segment_test",
+                    "testpass123", false, true
+                );
+            segmentConfig.setSegmentSize(1024);
+            ArchiverAPI.OperationResult invalidResult = enhancedAPI.createArchive(segmentConfig, null);
+            segmentConfig.setSegmentSize(Configs.Constants.MIN_CHUNK_SIZE);
+            ArchiverAPI.OperationResult segmentResult = enhancedAPI.createArchive(segmentConfig, null);
+            
+            java.io.ByteArrayOutputStream segmentEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult segmentExtract = enhancedAPI.extractEntry(
+                "enhanced_segment_test.archivit", "subdir/nested.txt", segmentEntry, "testpass123");
+            byte[] original = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("test_data/sample_dir/subdir/nested.txt"));
+            
+            Utilities.BufferPool pool = new Utilities.BufferPool(64 * 1024);
+            byte[] buffer = pool.acquire(10);
+            pool.release(buffer);
+            
+            if (!invalidResult.success && segmentResult.success && segmentExtract.success
+                && java.util.Arrays.equals(original, segmentEntry.toByteArray())
+                && buffer.length == Utilities.BufferPool.MIN_SIZE && pool.acquire(4000) == buffer) {
+                System.out.println("✓ Archive encrypted in " + Configs.Constants.MIN_CHUNK_SIZE + "-byte segments, pooled buffer reused");
+            } else {
+                System.err.println("✗ Segment size or buffer pool failed: " + segmentResult.message + " / " + segmentExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify segment size: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 24: Record a PBKDF2-HMAC-SHA256 key derivation and derive each key once
+        System.out.println("\n24. Testing key derivation and key cache...");
+        try {
+            EnhancedArchiverAPI.CreateArchiveConfig kdfConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_kdf_test",
+                    "testpass123", true, true
+                );
+            kdfConfig.setKeyDerivation(KeyDerivation.forName("pbkdf2-sha256:100000"));
+            
+            // Creating the archive derives its key, extracting and reading a range take it from the cache
+            long misses = KeyCache.SHARED.getMisses();
+            ArchiverAPI.OperationResult kdfResult = enhancedAPI.createArchive(kdfConfig, null);
+            java.io.ByteArrayOutputStream kdfEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult kdfExtract = enhancedAPI.extractEntry(
+                "enhanced_kdf_test.archivit", "subdir/nested.txt", kdfEntry, "testpass123");
+            ArchiverAPI.OperationResult kdfRange = enhancedAPI.readRange(
+                "enhanced_kdf_test.archivit", "subdir/nested.txt", 0, 4, new java.io.ByteArrayOutputStream(), "testpass123");
+            byte[] original = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("test_data/sample_dir/subdir/nested.txt"));
+            
+            KeyCache cache = new KeyCache(1, 60_000);
+            byte[] salt = CipherKit.generateNonce(EnhancedArchiverAPI.NONCE_LENGTH);
+            javax.crypto.SecretKey first = cache.get(KeyDerivation.PBKDF2_SHA1, "testpass123", salt);
+            javax.crypto.SecretKey second = cache.get(KeyDerivation.PBKDF2_SHA1, "testpass123", salt);
+            cache.get(KeyDerivation.PBKDF2_SHA1, "otherpass123", salt);
+            
+            if (kdfResult.success && kdfExtract.success && kdfRange.success
+                && java.util.Arrays.equals(original, kdfEntry.toByteArray())
+                && KeyCache.SHARED.getMisses() == misses + 1
+                && java.util.Arrays.equals(first.getEncoded(), second.getEncoded())
+                && cache.getHits() == 1 && cache.getMisses() == 2 && cache.size() == 1) {
+                System.out.println("✓ Archive read twice with pbkdf2-sha256:100000 and a single key derivation");
+            } else {
+                System.err.println("✗ Key derivation or key cache failed: " + kdfResult.message + " / " + kdfExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify key derivation: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 25: Keep all entry metadata in the encrypted directory
+        System.out.println("\n25. Testing encrypted metadata...");
+        try {
+            EnhancedArchiverAPI.CreateArchiveConfig metadataConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_metadata_test",
+                    "testpass123", true, true
+                );
+            metadataConfig.setEncryptMetadata(true);
+            ArchiverAPI.OperationResult metadataResult = enhancedAPI.createArchive(metadataConfig, null);
+            
+            List<EnhancedArchiverAPI.EnhancedFileInfo> metadataFiles =
+                enhancedAPI.listArchiveContents("enhanced_metadata_test.archivit", "testpass123");
+            boolean requiresPassword = false;
+            try {
+                enhancedAPI.listArchiveContents("enhanced_metadata_test.archivit");
+            } catch (IllegalArgumentException e) {
+                requiresPassword = true;
+            }
+            byte[] archiveBytes = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("enhanced_metadata_test.archivit"));
+            boolean leaksNames = new String(archiveBytes, java.nio.charset.StandardCharsets.ISO_8859_1).contains("nested.txt");
+            
+            java.io.ByteArrayOutputStream metadataEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult metadataExtract = enhancedAPI.extractEntry(
+                "enhanced_metadata_test.archivit", "subdir/nested.txt", metadataEntry, "testpass123");
+            byte[] original = java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("test_data/sample_dir/subdir/nested.txt"));
+            
+            if (metadataResult.success && !metadataFiles.isEmpty() && requiresPassword && !leaksNames
+                && metadataExtract.success && java.util.Arrays.equals(original, metadataEntry.toByteArray())) {
+                System.out.println("✓ Listed " + metadataFiles.size() + " entries from the encrypted directory, no file name in plaintext");
+            } else {
+                System.err.println("✗ Encrypted metadata failed: " + metadataResult.message + " / " + metadataExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify encrypted metadata: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 26: Read a range of an encrypted entry laid out for random reads
+        System.out.println("\n26. Testing seekable encrypted range read...");
+        try {
+            byte[] large = new byte[3 * EnhancedArchiverAPI.SEEKABLE_BLOCK_SIZE + 1000];
+            new java.util.Random(21).nextBytes(large);
+            java.nio.file.Path seekableDir = java.nio.file.Path.of("enhanced_seekable_source");
+            java.nio.file.Files.createDirectories(seekableDir);
+            java.nio.file.Files.write(seekableDir.resolve("large.bin"), large);
+            
+            EnhancedArchiverAPI.CreateArchiveConfig seekableConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_seekable_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_seekable_test",
+                    "testpass123", true, true
+                );
+            seekableConfig.setSeekable(true);
+            ArchiverAPI.OperationResult seekableResult = enhancedAPI.createArchive(seekableConfig, null);
+            
+            // The range spans the boundary between the second and third blocks
+            int rangeOffset = 2 * EnhancedArchiverAPI.SEEKABLE_BLOCK_SIZE - 100;
+            java.io.ByteArrayOutputStream seekableRange = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult seekableRead = enhancedAPI.readRange(
+                "enhanced_seekable_test.archivit", "large.bin", rangeOffset, 200, seekableRange, "testpass123");
+            
+            if (seekableResult.success && seekableRead.success && java.util.Arrays.equals(
+                    java.util.Arrays.copyOfRange(large, rangeOffset, rangeOffset + 200), seekableRange.toByteArray())) {
+                System.out.println("✓ Read 200 bytes across two encrypted blocks");
+            } else {
+                System.err.println("✗ Seekable range read failed: " + seekableResult.message + " / " + seekableRead.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify seekable range read: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 27: Reject a directory whose footer claims more bytes than the archive holds
+        System.out.println("\n27. Testing out-of-range directory length...");
+        try {
+            java.nio.file.Path corrupted = java.nio.file.Path.of("enhanced_footer_test.archivit");
+            java.nio.file.Files.copy(java.nio.file.Path.of("enhanced_archive_test.archivit"), corrupted);
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(corrupted,
+                    java.nio.file.StandardOpenOption.WRITE)) {
+                // The directory length follows the directory offset in the footer
+                long lengthPosition = channel.size() - Utilities.ArchiveDirectory.FOOTER_SIZE + Long.BYTES;
+                channel.write(java.nio.ByteBuffer.allocate(Long.BYTES).putLong(0, 3L << 30), lengthPosition);
+            }
+            
+            String error = null;
+            try {
+                enhancedAPI.listArchiveContents("enhanced_footer_test.archivit");
+            } catch (java.io.IOException e) {
+                error = e.getMessage();
+            }
+            
+            if (error != null && error.contains("out of range")) {
+                System.out.println("✓ Rejected: " + error);
+            } else {
+                System.err.println("✗ Out-of-range directory length was not rejected: " + error);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify directory length validation: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 28: Compare compressed entries with the source by the digest of their original data
+        System.out.println("\n28. Testing increment by content digest...");
+        try {
+            java.nio.file.Path digestSource = java.nio.file.Path.of("enhanced_digest_source");
+            java.nio.file.Files.createDirectories(digestSource);
+            String text = "Compressed entries are compared by the digest of their original data\n".repeat(200);
+            java.nio.file.Files.writeString(digestSource.resolve("touched.txt"), text);
+            java.nio.file.Files.writeString(digestSource.resolve("edited.txt"), text);
+            
+            EnhancedArchiverAPI.CreateArchiveConfig digestConfig =
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_digest_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_digest_base",
+                    null, true, true
+                );
+            digestConfig.setCodec(CodecRegistry.forName("deflate:9"));
+            ArchiverAPI.OperationResult digestBase = enhancedAPI.createArchive(digestConfig, null);
+            
+            // A newer modification time alone, and an edit of the same size
+            java.io.File touched = digestSource.resolve("touched.txt").toFile();
+            touched.setLastModified(touched.lastModified() + 60_000);
+            java.nio.file.Files.writeString(digestSource.resolve("edited.txt"), text.replaceFirst("original", "ORIGINAL"));
+            
+            ArchiverAPI.OperationResult digestIncrement = enhancedAPI.createArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_digest_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_digest_increment",
+                    null, true, true,
+                    List.of("/home/runner/work/java_archiver/java_archiver/enhanced_digest_base"),
+                    true
+                ), null);
+            
+            List<EnhancedArchiverAPI.EnhancedFileInfo> changedFiles =
+                enhancedAPI.listArchiveContents("enhanced_digest_increment.archivit");
+            boolean baseCompressed = enhancedAPI.listArchiveContents("enhanced_digest_base.archivit").stream()
+                .allMatch(file -> file.isCompressed);
+            
+            if (digestBase.success && digestIncrement.success && baseCompressed && changedFiles.size() == 1
+                && changedFiles.get(0).name.equals("edited.txt")) {
+                System.out.println("✓ Only the edited file was stored again");
+            } else {
+                System.err.println("✗ Increment by content digest failed: " + digestIncrement.message + " / " + changedFiles);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify increment by content digest: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 29: Update an archive by appending, so that its previous state stays readable from its first bytes
+        System.out.println("\n29. Testing update by appending...");
+        try {
+            java.nio.file.Path appendSource = java.nio.file.Path.of("enhanced_append_source");
+            java.nio.file.Files.createDirectories(appendSource);
+            java.nio.file.Files.writeString(appendSource.resolve("first.txt"), "Archived before the update\n");
+            ArchiverAPI.OperationResult appendCreate = enhancedAPI.createArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_append_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_append_test",
+                    null, true, true
+                ), null);
+            byte[] before = java.nio.file.Files.readAllBytes(java.nio.file.Path.of("enhanced_append_test.archivit"));
+            
+            java.nio.file.Files.writeString(appendSource.resolve("second.txt"), "Added by the update\n");
+            ArchiverAPI.OperationResult appendUpdate = enhancedAPI.updateArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_append_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_append_test",
+                    null
+                ), null);
+            byte[] after = java.nio.file.Files.readAllBytes(java.nio.file.Path.of("enhanced_append_test.archivit"));
+            
+            // Truncating to the previous size gives back the archive as it was before the update
+            java.nio.file.Files.write(java.nio.file.Path.of("enhanced_append_previous.archivit"),
+                java.util.Arrays.copyOf(after, before.length));
+            int previousEntries = enhancedAPI.listArchiveContents("enhanced_append_previous.archivit").size();
+            int updatedEntries = enhancedAPI.listArchiveContents("enhanced_append_test.archivit").size();
+            
+            if (appendCreate.success && appendUpdate.success && after.length > before.length
+                && java.util.Arrays.equals(before, 0, before.length, after, 0, before.length)
+                && previousEntries == 1 && updatedEntries == 2) {
+                System.out.println("✓ Update appended " + (after.length - before.length) + " bytes, previous "
+                    + before.length + " bytes untouched");
+            } else {
+                System.err.println("✗ Update by appending failed: " + appendUpdate.message + " (entries "
+                    + previousEntries + " / " + updatedEntries + ")");
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify update by appending: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 30: Reject an invalid deduplication chunk size before anything is written
+        System.out.println("\n30. Testing configuration validation...");
+        ArchiverAPI.OperationResult chunkSizeResult = enhancedAPI.createArchive(
+            new EnhancedArchiverAPI.CreateArchiveConfig(
+                "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                "/home/runner/work/java_archiver/java_archiver/enhanced_invalid_test",
+                null, true, true
+            ).setDedupChunkSize(5000), null);
+        
+        if (!chunkSizeResult.success && chunkSizeResult.message.contains("power of two")
+            && !new java.io.File("enhanced_invalid_test.archivit").exists()) {
+            System.out.println("✓ Rejected: " + chunkSizeResult.message);
+        } else {
+            System.err.println("✗ Invalid chunk size not rejected: " + chunkSizeResult.message);
+            allTestsPassed = false;
+        }
+        
+        // Test 31: Round-trip integrity metadata of entries over 2 GB and a streamed entry split into blocks
+        System.out.println("\n31. Testing streamed entries and large integrity metadata...");
+        try {
+            // Sizes over 2 GB take the long form of the integrity metadata, in the directory as in the entry header
+            Utilities.DataIntegrity.IntegrityMetadata large = new Utilities.DataIntegrity.IntegrityMetadata(
+                "00".repeat(32), 0x12345678L, true, 3L << 30, (1L << 31) + 5);
+            Utilities.DataIntegrity.IntegrityMetadata small = new Utilities.DataIntegrity.IntegrityMetadata(
+                "00".repeat(32), 0x12345678L, true, 1000, 500);
+            Utilities.ArchiveDirectory largeDirectory = new Utilities.ArchiveDirectory();
+            largeDirectory.records.add(new Utilities.ArchiveDirectory.Record(
+                new Utilities.SerializableFile("test_data/sample_dir/test.txt", "test.txt"), 0, 0, (1L << 31) + 5,
+                Utilities.Codecs.DeflateCodec.ID, large));
+            java.nio.file.Path directoryFile = java.nio.file.Path.of("enhanced_large_directory.bin");
+            try (java.io.OutputStream out = java.nio.file.Files.newOutputStream(directoryFile)) {
+                Utilities.BufferedStream.Output directoryStream = new Utilities.BufferedStream.Output(out);
+                largeDirectory.write(directoryStream);
+                directoryStream.flush();
+            }
+            Utilities.DataIntegrity.IntegrityMetadata readBack;
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(directoryFile)) {
+                readBack = Utilities.ArchiveDirectory.read(channel, false, true, null).records.get(0).integrity;
+            }
+            
+            // A file of several blocks is streamed through the writer one block at a time
+            java.nio.file.Path streamSource = java.nio.file.Path.of("enhanced_stream_source");
+            java.nio.file.Files.createDirectories(streamSource);
+            byte[] streamed = new byte[300_000];
+            new java.util.Random(11).nextBytes(streamed);
+            java.util.Arrays.fill(streamed, 100_000, 200_000, (byte) 'x');
+            java.nio.file.Files.write(streamSource.resolve("streamed.bin"), streamed);
+            ArchiverAPI.OperationResult streamResult = enhancedAPI.createArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_stream_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_stream_test",
+                    "testpass123", true, true
+                ).setCompressionBlockSize(64 * 1024), null);
+            java.io.ByteArrayOutputStream streamedEntry = new java.io.ByteArrayOutputStream();
+            ArchiverAPI.OperationResult streamExtract = enhancedAPI.extractEntry(
+                "enhanced_stream_test.archivit", "streamed.bin", streamedEntry, "testpass123");
+            EnhancedArchiverAPI.EnhancedFileInfo streamedInfo = enhancedAPI.listArchiveContents(
+                "enhanced_stream_test.archivit", "testpass123").get(0);
+            
+            if (large.toByteArray().length > small.toByteArray().length
+                && Utilities.DataIntegrity.IntegrityMetadata.fromByteArray(large.toByteArray()).originalSize == 3L << 30
+                && readBack.originalSize == 3L << 30 && readBack.compressedSize == (1L << 31) + 5
+                && streamResult.success && streamExtract.success
+                && java.util.Arrays.equals(streamed, streamedEntry.toByteArray())
+                && streamedInfo.integrity != null && streamedInfo.integrity.originalSize == streamed.length) {
+                System.out.println("✓ Integrity metadata of " + readBack.originalSize + " bytes read back, "
+                    + streamed.length + "-byte entry streamed in blocks and extracted");
+            } else {
+                System.err.println("✗ Streamed entry round trip failed: " + streamResult.message + " / "
+                    + streamExtract.message);
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify streamed entries: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 32: Store each directory path of a compact directory once, in the directory table
+        System.out.println("\n32. Testing directory table...");
+        try {
+            String sharedDirectory = "a_directory_shared_by_every_entry";
+            java.nio.file.Path tableSource = java.nio.file.Path.of("enhanced_table_source");
+            java.util.Set<String> expectedPaths = new java.util.HashSet<>();
+            for (String directory : new String[] {sharedDirectory, sharedDirectory + "/nested_level"}) {
+                java.nio.file.Files.createDirectories(tableSource.resolve(directory));
+                for (int i = 0; i < 10; i++) {
+                    java.nio.file.Files.writeString(tableSource.resolve(directory).resolve("file" + i + ".txt"), "Entry " + i + "\n");
+                    expectedPaths.add(directory + "/file" + i + ".txt");
+                }
+            }
+            
+            ArchiverAPI.OperationResult tableResult = enhancedAPI.createArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_table_source",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_table_test",
+                    null, false, true
+                ).setCompactMetadata(true), null);
+            
+            String archiveText = new String(java.nio.file.Files.readAllBytes(
+                java.nio.file.Path.of("enhanced_table_test.archivit")), java.nio.charset.StandardCharsets.ISO_8859_1);
+            int occurrences = archiveText.split(sharedDirectory, -1).length - 1;
+            java.util.Set<String> listedPaths = new java.util.HashSet<>();
+            for (EnhancedArchiverAPI.EnhancedFileInfo file : enhancedAPI.listArchiveContents("enhanced_table_test.archivit")) {
+                listedPaths.add(file.path);
+            }
+            
+            if (tableResult.success && occurrences == 1 && listedPaths.equals(expectedPaths)) {
+                System.out.println("✓ " + expectedPaths.size() + " entries listed, shared directory stored once");
+            } else {
+                System.err.println("✗ Directory table failed: " + tableResult.message + " (directory stored "
+                    + occurrences + " times, listed " + listedPaths + ")");
+                allTestsPassed = false;
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Failed to verify directory table: " + e.getMessage());
+            allTestsPassed = false;
+        }
+        
+        // Test 33: Tell bzip2 and mp3 signatures apart from text starting with the same letters
+        System.out.println("\n33. Testing format signatures...");
+        byte[] bzipText = "BZh, short for bzip2 header, starts every bzip2 file\n".repeat(20).getBytes();
+        byte[] id3Text = "ID3,name,description\n1,first,the first row of the table\n".repeat(20).getBytes();
+        byte[] bzipHeader = java.util.Arrays.copyOf(
+            new byte[] {'B', 'Z', 'h', '9', 0x31, 0x41, 0x59, 0x26, 0x53, 0x59}, 200);
+        byte[] id3Header = java.util.Arrays.copyOf(new byte[] {'I', 'D', '3', 4, 0, 0}, 200);
+        
+        if (!CompressibilityEstimator.isCompressedFormat(bzipText) && !CompressibilityEstimator.isCompressedFormat(id3Text)
+            && CompressibilityEstimator.isCompressedFormat(bzipHeader) && CompressibilityEstimator.isCompressedFormat(id3Header)) {
+            System.out.println("✓ bzip2 and ID3 headers detected, text starting with BZh and ID3 compressed");
+        } else {
+            System.err.println("✗ Format signatures matched the wrong data");
+            allTestsPassed = false;
+        }
+        
+        // Test 34: End the codecs of the worker threads when their pool is closed
+        System.out.println("\n34. Testing worker context release...");
+        int contextsBefore = Utilities.WorkerContext.getLiveContexts();
+        boolean workersCreated = true;
+        for (int i = 0; i < 3; i++) {
+            ArchiverAPI.OperationResult workersResult = enhancedAPI.createArchive(
+                new EnhancedArchiverAPI.CreateArchiveConfig(
+                    "/home/runner/work/java_archiver/java_archiver/test_data/sample_dir",
+                    "/home/runner/work/java_archiver/java_archiver/enhanced_workers_test",
+                    null, true, true
+                ).setThreads(4).setCompressionBlockSize(8), null);
+            workersCreated &= workersResult.success
+                && new java.io.File("enhanced_workers_test.archivit").delete();
+        }
+        int contextsAfter = Utilities.WorkerContext.getLiveContexts();
+        
+        if (workersCreated && contextsAfter == contextsBefore) {
+            System.out.println("✓ 3 archives created on 4 threads, " + contextsAfter + " worker contexts left as before");
+        } else {
+            System.err.println("✗ Worker contexts leaked: " + contextsBefore + " before, " + contextsAfter + " after");
+            allTestsPassed = false;
+        }
+        
         // Summary
         System.out.println("\n" + "=".repeat(60));
         if (allTestsPassed) {
@@ -140,12 +1345,69 @@ public class EnhancedArchiverTest {
         System.out.println("\nCleaning up test files...");
         cleanup("enhanced_archive_test.archivit");
         cleanup("enhanced_encrypted_test.archivit");
+        cleanup("enhanced_update_test.archivit");
+        cleanup("enhanced_update_source");
+        cleanup("enhanced_incremental_test.archivit");
+        cleanup("enhanced_restore_test");
+        cleanup("enhanced_increment_base.archivit");
+        cleanup("enhanced_changed_increment_test.archivit");
+        cleanup("enhanced_increment_source");
+        cleanup("enhanced_changed_restore");
+        cleanup("enhanced_dedup_test.archivit");
+        cleanup("enhanced_dedup_source");
+        cleanup("enhanced_link_test.archivit");
+        cleanup("enhanced_link_source");
+        cleanup("enhanced_link_restore");
+        for (int volume = 1; new java.io.File(String.format("enhanced_split_test.archivit.%03d", volume)).exists(); volume++) {
+            cleanup(String.format("enhanced_split_test.archivit.%03d", volume));
+        }
+        cleanup("enhanced_solid_test.archivit");
+        cleanup("enhanced_separate_test.archivit");
+        cleanup("enhanced_solid_source");
+        cleanup("enhanced_block_test.archivit");
+        cleanup("enhanced_compact_test.archivit");
+        cleanup("enhanced_threads_test_1.archivit");
+        cleanup("enhanced_threads_test_4.archivit");
+        cleanup("enhanced_threads_test_dedup_1.archivit");
+        cleanup("enhanced_threads_test_dedup_4.archivit");
+        cleanup("enhanced_threads_source");
+        cleanup("enhanced_codec_test.archivit");
+        cleanup("enhanced_adaptive_test.archivit");
+        cleanup("enhanced_dictionary_test.archivit");
+        cleanup("enhanced_segment_test.archivit");
+        cleanup("enhanced_kdf_test.archivit");
+        cleanup("enhanced_metadata_test.archivit");
+        cleanup("enhanced_seekable_test.archivit");
+        cleanup("enhanced_seekable_source");
+        cleanup("enhanced_footer_test.archivit");
+        cleanup("enhanced_digest_base.archivit");
+        cleanup("enhanced_digest_increment.archivit");
+        cleanup("enhanced_digest_source");
+        cleanup("enhanced_append_test.archivit");
+        cleanup("enhanced_append_previous.archivit");
+        cleanup("enhanced_append_source");
+        cleanup("enhanced_invalid_test.archivit");
+        cleanup("enhanced_large_directory.bin");
+        cleanup("enhanced_stream_test.archivit");
+        cleanup("enhanced_stream_source");
+        cleanup("enhanced_table_test.archivit");
+        cleanup("enhanced_table_source");
     }
     
     private static void cleanup(String path) {
         java.io.File file = new java.io.File(path);
-        if (file.exists() && file.delete()) {
+        if (file.exists() && deleteRecursively(file)) {
             System.out.println("  Removed: " + path);
         }
     }
+    
+    private static boolean deleteRecursively(java.io.File file) {
+        java.io.File[] children = file.listFiles();
+        if (children != null) {
+            for (java.io.File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        return file.delete();
+    }
 }
\ No newline at end of file
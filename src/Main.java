@@ -2,6 +2,7 @@ import Configs.Constants;
 import Configs.ErrorCodes;
 import Models.Binary;
 import Utilities.Binaries.BinaryString;
+import Utilities.BufferPool;
 import Utilities.BufferedStream;
 import Utilities.CipherKit;
 import Utilities.IO;
@@ -16,7 +17,6 @@ import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 
@@ -146,43 +146,37 @@ public class Main {
                         bso.putBoolean(fileSize > 0);
 
                     final BufferedStream.Input bsi = new BufferedStream.Input(new FileInputStream(file));
-                    final byte[] buffer = new byte[Constants.DICTIONARY_MAX_SIZE];
-                    int bufferReadLength = buffer.length;
+                    // Read in chunks of at most 30 MB, into a pooled buffer no larger than needed for the file
+                    final int chunkSize = (int) Math.min(Math.max(fileSize, Constants.MIN_CHUNK_SIZE), Constants.DICTIONARY_MAX_SIZE);
+                    final byte[] buffer = BufferPool.SHARED.acquire(chunkSize);
+                    int bufferReadLength = chunkSize;
 
                     long fileSizeLeft = fileSize;
-                    while (bsi.available() > 0) {
-                        if (bsi.available() < buffer.length)
-                            bufferReadLength = bsi.available();
+                    try {
+                        while (bsi.available() > 0) {
+                            if (bsi.available() < chunkSize)
+                                bufferReadLength = bsi.available();
 
-                        bsi.readNBytes(buffer, 0, bufferReadLength);
+                            bsi.readNBytes(buffer, 0, bufferReadLength);
 
-                        if (isPasswordProtected2) {
-                            boolean hasNextSegment = (fileSizeLeft - bufferReadLength > 0);
+                            if (isPasswordProtected2) {
+                                boolean hasNextSegment = (fileSizeLeft - bufferReadLength > 0);
 
-                            if (bufferReadLength == buffer.length) {
-                                byte[] encoded = kit2.exec(buffer, CipherKit.CipherMode.ENCRYPT);
+                                // Encrypt the bytes read straight from `buffer`
+                                byte[] encoded = kit2.exec(buffer, 0, bufferReadLength, CipherKit.CipherMode.ENCRYPT);
 
                                 // Write encoded bytes segment
                                 bso.writeSegment(encoded, BufferedStream.JavaStreamSegmentType.LONG);
-                            } else {
-                                byte[] buffer2 = new byte[bufferReadLength];
-                                {
-                                    // Copy `buffer` bytes to `buffer2`
-                                    System.arraycopy(buffer, 0, buffer2, 0, bufferReadLength);
-                                }
 
-                                byte[] encoded = kit2.exec(buffer2, CipherKit.CipherMode.ENCRYPT);
+                                // Add `1` byte to indicate if there is next segment
+                                bso.putBoolean(hasNextSegment);
 
-                                // Write encoded bytes segment
-                                bso.writeSegment(encoded, BufferedStream.JavaStreamSegmentType.LONG);
-                            }
-
-                            // Add `1` byte to indicate if there is next segment
-                            bso.putBoolean(hasNextSegment);
-
-                            fileSizeLeft -= bufferReadLength;
-                        } else
-                            bso.write(bufferReadLength != buffer.length ? Arrays.copyOfRange(buffer, 0, bufferReadLength) : buffer);
+                                fileSizeLeft -= bufferReadLength;
+                            } else
+                                bso.write(buffer, 0, bufferReadLength);
+                        }
+                    } finally {
+                        BufferPool.SHARED.release(buffer);
                     }
                     bsi.close();
                 } catch (Exception e) {
@@ -332,12 +326,16 @@ public class Main {
                             FileOutputStream fos = new FileOutputStream(file);
 
                             long length = embeddedFile.size.data;
-                            while (length > 0) {
-                                fos.write(bsi.readNBytes(length < Constants.DICTIONARY_MAX_SIZE ? (int) length : Constants.DICTIONARY_MAX_SIZE));
+                            byte[] buffer = BufferPool.SHARED.acquire((int) Math.min(length, Constants.DICTIONARY_MAX_SIZE));
+                            try {
+                                while (length > 0) {
+                                    int chunkLength = (int) Math.min(length, Constants.DICTIONARY_MAX_SIZE);
+                                    fos.write(buffer, 0, bsi.readNBytes(buffer, 0, chunkLength));
 
-                                length -= Constants.DICTIONARY_MAX_SIZE;
-                                if (length < 0)
-                                    length = 0;
+                                    length -= chunkLength;
+                                }
+                            } finally {
+                                BufferPool.SHARED.release(buffer);
                             }
 
                             fos.flush();
@@ -1,6 +1,15 @@
+import Configs.Constants;
+import Models.Codec;
 import Utilities.ArchiverAPI;
+import Utilities.Codecs.CodecRegistry;
+import Utilities.CompressionStatistics;
+import Utilities.DedupStatistics;
+import Utilities.EnhancedArchiverAPI;
+import Utilities.KeyDerivation;
 import Utilities.SimpleASCIITable;
 
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 
@@ -11,7 +20,51 @@ import java.util.Scanner;
 public class MainEnhanced {
     final static Scanner sc = new Scanner(System.in);
     final static ArchiverAPI api = new ArchiverAPI();
-
+    static EnhancedArchiverAPI enhancedApi = new EnhancedArchiverAPI();
+    
+    /**
+     * Compression and decompression threads of the enhanced commands (0 for one per available processor)
+     */
+    static int threads = 0;
+    
+    /**
+     * Codec of the archives created by the enhanced commands
+     */
+    static Codec codec = CodecRegistry.DEFLATE;
+    
+    /**
+     * Target throughput in bytes per second and deadline in seconds the enhanced commands adapt the compression level
+     * to (0 keeps the level of the codec)
+     */
+    static long targetThroughput = 0;
+    static long deadlineSeconds = 0;
+    
+    /**
+     * Size in bytes of the preset dictionary trained for new archives (0 for none)
+     */
+    static int dictionarySize = 0;
+    
+    /**
+     * Size in bytes of the segments new archives are encrypted in
+     */
+    static int segmentSize = Constants.DICTIONARY_MAX_SIZE;
+    
+    /**
+     * Key derivation of new encrypted archives
+     */
+    static KeyDerivation keyDerivation = KeyDerivation.PBKDF2_SHA1;
+    
+    /**
+     * Metadata layout of new archives: plain, compact (only in the directory) or encrypted (only in the encrypted
+     * directory)
+     */
+    static String metadata = "plain";
+    
+    /**
+     * Data layout of new archives: default, or seekable (small blocks, for random reads inside large entries)
+     */
+    static String layout = "default";
+    
     public static void main(String[] args) {
         // Check if non-interactive mode is requested
         if (args.length > 0) {
@@ -28,10 +81,59 @@ public class MainEnhanced {
      *   java MainEnhanced create /path/to/source /path/to/archive.archivit password123
      *   java MainEnhanced extract /path/to/archive.archivit /path/to/extract
      *   java MainEnhanced extract /path/to/archive.archivit /path/to/extract password123
-     *   java MainEnhanced list /path/to/archive.archivit
+     *   java MainEnhanced create-enhanced /path/to/source /path/to/archive.archivit [password]
+     *   java MainEnhanced list /path/to/archive.archivit [password]
+     *   java MainEnhanced extract-entry /path/to/archive.archivit dir/file.txt /path/to/output [password]
+     *   java MainEnhanced read-range /path/to/archive.archivit logs/app.log 1048576 4096 [password]
+     *   java MainEnhanced update /path/to/source /path/to/archive.archivit [password]
+     *   java MainEnhanced split /path/to/source /path/to/archive.archivit 4096 [password]
+     *   java MainEnhanced increment /path/to/source /path/to/monday.archivit - /path/to/full.archivit
+     *   java MainEnhanced restore /path/to/restore - /path/to/full.archivit /path/to/monday.archivit
+     *   java MainEnhanced --threads 8 update /path/to/source /path/to/archive.archivit
+     *   java MainEnhanced --codec lz4 create-enhanced /path/to/source /path/to/archive.archivit
+     *   java MainEnhanced --deadline 600 increment /path/to/source /path/to/monday.archivit - /path/to/full.archivit
+     *   java MainEnhanced --dictionary 16384 create-enhanced /path/to/source /path/to/archive.archivit
+     *   java MainEnhanced --segment-size 65536 create-enhanced /path/to/source /path/to/archive.archivit password123
+     *   java MainEnhanced --kdf pbkdf2-sha256:210000 create-enhanced /path/to/source /path/to/archive.archivit password123
+     *   java MainEnhanced --metadata encrypted create-enhanced /path/to/source /path/to/archive.archivit password123
+     *   java MainEnhanced --layout seekable create-enhanced /path/to/source /path/to/archive.archivit password123
      */
     public static void runNonInteractive(String[] args) {
         try {
+            // Global options come before the command
+            while (args.length >= 2 && Arrays.asList("--threads", "--codec", "--throughput", "--deadline", "--dictionary",
+                "--segment-size", "--kdf", "--metadata", "--layout")
+                .contains(args[0])) {
+                if (args[0].equals("--threads")) {
+                    threads = Integer.parseInt(args[1]);
+                    enhancedApi = new EnhancedArchiverAPI(EnhancedArchiverAPI.ReaderEngine.STREAM, threads);
+                } else if (args[0].equals("--codec")) {
+                    codec = CodecRegistry.forName(args[1]);
+                } else if (args[0].equals("--throughput")) {
+                    targetThroughput = Long.parseLong(args[1]) * 1024 * 1024;
+                } else if (args[0].equals("--deadline")) {
+                    deadlineSeconds = Long.parseLong(args[1]);
+                } else if (args[0].equals("--dictionary")) {
+                    dictionarySize = Integer.parseInt(args[1]);
+                } else if (args[0].equals("--segment-size")) {
+                    segmentSize = Integer.parseInt(args[1]);
+                } else if (args[0].equals("--kdf")) {
+                    keyDerivation = KeyDerivation.forName(args[1]);
+                } else if (args[0].equals("--layout")) {
+                    layout = args[1].toLowerCase();
+                    if (!Arrays.asList("default", "seekable").contains(layout)) {
+                        throw new IllegalArgumentException("Unknown layout: " + args[1] + " (expected default or seekable)");
+                    }
+                } else {
+                    metadata = args[1].toLowerCase();
+                    if (!Arrays.asList("plain", "compact", "encrypted").contains(metadata)) {
+                        throw new IllegalArgumentException("Unknown metadata layout: " + args[1]
+                            + " (expected plain, compact or encrypted)");
+                    }
+                }
+                args = Arrays.copyOfRange(args, 2, args.length);
+            }
+            
             if (args.length < 2) {
                 printUsage();
                 System.exit(1);
@@ -108,9 +210,13 @@ public class MainEnhanced {
                     }
                     
                     String listArchivePath = args[1];
+                    String listPassword = args.length > 2 ? args[2] : null;
                     
                     try {
-                        List<ArchiverAPI.ArchiveFileInfo> files = api.listArchiveContents(listArchivePath);
+                        // Enhanced archives may keep their entry metadata in an encrypted directory
+                        List<? extends ArchiverAPI.ArchiveFileInfo> files = enhancedApi.isEnhancedArchive(listArchivePath)
+                            ? enhancedApi.listArchiveContents(listArchivePath, listPassword)
+                            : api.listArchiveContents(listArchivePath);
                         printArchiveContents(files);
                         System.exit(0);
                     } catch (Exception e) {
@@ -120,6 +226,193 @@ public class MainEnhanced {
                     }
                     break;
                     
+                case "extract-entry":
+                    if (args.length < 4) {
+                        System.err.println("Error: extract-entry command requires archive path, entry path and destination path");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    
+                    String entryPassword = args.length > 4 ? args[4] : null;
+                    
+                    ArchiverAPI.OperationResult entryResult = enhancedApi.extractEntry(args[1], args[2],
+                        Path.of(args[3]), entryPassword);
+                    
+                    if (entryResult.success) {
+                        System.out.println("SUCCESS: " + entryResult.message);
+                        System.exit(0);
+                    } else {
+                        System.err.println("ERROR: " + entryResult.message);
+                        if (entryResult.error != null) {
+                            entryResult.error.printStackTrace();
+                        }
+                        System.exit(1);
+                    }
+                    break;
+                    
+                case "read-range":
+                    if (args.length < 5) {
+                        System.err.println("Error: read-range command requires archive path, entry path, offset and length");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    
+                    String rangePassword = args.length > 5 ? args[5] : null;
+                    
+                    // The data goes to stdout, so only errors are reported
+                    ArchiverAPI.OperationResult rangeResult = enhancedApi.readRange(args[1], args[2],
+                        Long.parseLong(args[3]), Long.parseLong(args[4]), System.out, rangePassword);
+                    
+                    if (rangeResult.success) {
+                        System.exit(0);
+                    } else {
+                        System.err.println("ERROR: " + rangeResult.message);
+                        if (rangeResult.error != null) {
+                            rangeResult.error.printStackTrace();
+                        }
+                        System.exit(1);
+                    }
+                    break;
+                    
+                case "update":
+                    if (args.length < 3) {
+                        System.err.println("Error: update command requires source and archive paths");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    
+                    String updatePassword = args.length > 3 ? args[3] : null;
+                    
+                    EnhancedArchiverAPI.CreateArchiveConfig updateConfig =
+                        new EnhancedArchiverAPI.CreateArchiveConfig(args[1], args[2], updatePassword);
+                    updateConfig.setThreads(threads);
+                    updateConfig.setTargetThroughput(targetThroughput);
+                    updateConfig.setDeadlineSeconds(deadlineSeconds);
+                    
+                    ArchiverAPI.OperationResult updateResult = enhancedApi.updateArchive(updateConfig,
+                        new ProgressPrinter("Updating archive"));
+                    
+                    if (updateResult.success) {
+                        System.out.println("SUCCESS: " + updateResult.message);
+                        System.exit(0);
+                    } else {
+                        System.err.println("ERROR: " + updateResult.message);
+                        if (updateResult.error != null) {
+                            updateResult.error.printStackTrace();
+                        }
+                        System.exit(1);
+                    }
+                    break;
+                    
+                case "create-enhanced":
+                    if (args.length < 3) {
+                        System.err.println("Error: create-enhanced command requires source and destination paths");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    
+                    String enhancedPassword = args.length > 3 ? args[3] : null;
+                    EnhancedArchiverAPI.CreateArchiveConfig enhancedConfig =
+                        new EnhancedArchiverAPI.CreateArchiveConfig(args[1], args[2], enhancedPassword, true, true);
+                    applyGlobalOptions(enhancedConfig);
+                    
+                    ArchiverAPI.OperationResult enhancedResult = enhancedApi.createArchive(enhancedConfig,
+                        new ProgressPrinter("Creating archive"));
+                    
+                    if (enhancedResult.success) {
+                        System.out.println("SUCCESS: " + enhancedResult.message);
+                        System.exit(0);
+                    } else {
+                        System.err.println("ERROR: " + enhancedResult.message);
+                        if (enhancedResult.error != null) {
+                            enhancedResult.error.printStackTrace();
+                        }
+                        System.exit(1);
+                    }
+                    break;
+                    
+                case "split":
+                    if (args.length < 4) {
+                        System.err.println("Error: split command requires source path, archive path and volume size in MB");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    
+                    String splitPassword = args.length > 4 ? args[4] : null;
+                    EnhancedArchiverAPI.CreateArchiveConfig splitConfig =
+                        new EnhancedArchiverAPI.CreateArchiveConfig(args[1], args[2], splitPassword, true, true);
+                    splitConfig.setVolumeSize(Long.parseLong(args[3]) * 1024 * 1024);
+                    applyGlobalOptions(splitConfig);
+                    
+                    ArchiverAPI.OperationResult splitResult = enhancedApi.createArchive(splitConfig,
+                        new ProgressPrinter("Creating split archive"));
+                    
+                    if (splitResult.success) {
+                        System.out.println("SUCCESS: " + splitResult.message);
+                        System.exit(0);
+                    } else {
+                        System.err.println("ERROR: " + splitResult.message);
+                        if (splitResult.error != null) {
+                            splitResult.error.printStackTrace();
+                        }
+                        System.exit(1);
+                    }
+                    break;
+                    
+                case "increment":
+                    if (args.length < 5) {
+                        System.err.println("Error: increment command requires source path, archive path, password (or -) and base archives");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    
+                    String incrementPassword = args[3].equals("-") ? null : args[3];
+                    
+                    EnhancedArchiverAPI.CreateArchiveConfig incrementConfig =
+                        new EnhancedArchiverAPI.CreateArchiveConfig(args[1], args[2], incrementPassword, true, true,
+                            Arrays.asList(args).subList(4, args.length), false);
+                    applyGlobalOptions(incrementConfig);
+                    
+                    ArchiverAPI.OperationResult incrementResult = enhancedApi.createArchive(incrementConfig,
+                        new ProgressPrinter("Creating incremental archive"));
+                    
+                    if (incrementResult.success) {
+                        System.out.println("SUCCESS: " + incrementResult.message);
+                        System.exit(0);
+                    } else {
+                        System.err.println("ERROR: " + incrementResult.message);
+                        if (incrementResult.error != null) {
+                            incrementResult.error.printStackTrace();
+                        }
+                        System.exit(1);
+                    }
+                    break;
+                    
+                case "restore":
+                    if (args.length < 4) {
+                        System.err.println("Error: restore command requires destination path, password (or -) and archives");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    
+                    String restorePassword = args[2].equals("-") ? null : args[2];
+                    
+                    ArchiverAPI.OperationResult restoreResult = enhancedApi.restoreArchive(
+                        Arrays.asList(args).subList(3, args.length), args[1], restorePassword,
+                        new ProgressPrinter("Restoring archive"));
+                    
+                    if (restoreResult.success) {
+                        System.out.println("SUCCESS: " + restoreResult.message);
+                        System.exit(0);
+                    } else {
+                        System.err.println("ERROR: " + restoreResult.message);
+                        if (restoreResult.error != null) {
+                            restoreResult.error.printStackTrace();
+                        }
+                        System.exit(1);
+                    }
+                    break;
+                    
                 default:
                     System.err.println("Error: Unknown command '" + command + "'");
                     printUsage();
@@ -133,6 +426,23 @@ public class MainEnhanced {
         }
     }
     
+    /**
+     * Applies the global options given before the command to the configuration of a new enhanced archive
+     * @param config Archive configuration
+     */
+    private static void applyGlobalOptions(EnhancedArchiverAPI.CreateArchiveConfig config) {
+        config.setThreads(threads);
+        config.setCodec(codec);
+        config.setTargetThroughput(targetThroughput);
+        config.setDeadlineSeconds(deadlineSeconds);
+        config.setDictionarySize(dictionarySize);
+        config.setSegmentSize(segmentSize);
+        config.setKeyDerivation(keyDerivation);
+        config.setCompactMetadata(metadata.equals("compact"));
+        config.setEncryptMetadata(metadata.equals("encrypted"));
+        config.setSeekable(layout.equals("seekable"));
+    }
+    
     /**
      * Interactive mode - original menu-driven interface
      */
@@ -140,7 +450,7 @@ public class MainEnhanced {
         System.out.print("Archivit v3 Enhanced\n1] Create Archive\n2] Extract an archive\n3] List archive contents\n> ");
         int option = sc.nextInt();
         sc.nextLine();
-
+        
         try {
             if (option == 1)
                 createArchiveInteractive();
@@ -243,7 +553,7 @@ public class MainEnhanced {
         }
     }
     
-    private static void printArchiveContents(List<ArchiverAPI.ArchiveFileInfo> files) {
+    private static void printArchiveContents(List<? extends ArchiverAPI.ArchiveFileInfo> files) {
         System.out.println("Archive contains " + files.size() + " files:\n");
         
         String[][] dataSet = new String[files.size()][];
@@ -271,16 +581,47 @@ public class MainEnhanced {
         System.out.println("  Interactive mode: java MainEnhanced");
         System.out.println("  Non-interactive mode:");
         System.out.println("    java MainEnhanced create <source_path> <archive_path> [password]");
+        System.out.println("    java MainEnhanced create-enhanced <source_path> <enhanced_archive_path> [password]");
         System.out.println("    java MainEnhanced extract <archive_path> <extract_path> [password]");
-        System.out.println("    java MainEnhanced list <archive_path>");
+        System.out.println("    java MainEnhanced list <archive_path> [password]");
+        System.out.println("    java MainEnhanced extract-entry <enhanced_archive_path> <entry_path> <destination_path> [password]");
+        System.out.println("    java MainEnhanced read-range <enhanced_archive_path> <entry_path> <offset> <length> [password]");
+        System.out.println("    java MainEnhanced update <source_path> <enhanced_archive_path> [password]");
+        System.out.println("    java MainEnhanced split <source_path> <archive_path> <volume_size_mb> [password]");
+        System.out.println("    java MainEnhanced increment <source_path> <archive_path> <password|-> <base_archive> [<increment>...]");
+        System.out.println("    java MainEnhanced restore <destination_path> <password|-> <base_archive> [<increment>...]");
+        System.out.println("  Enhanced commands accept --threads <count> before the command (default: one per processor)");
+        System.out.println("  Options for new archives apply to create-enhanced, split and increment:");
+        System.out.println("  --codec <store|lz4|deflate[:1-9]> compresses new archives with a codec (default: deflate)");
+        System.out.println("  --throughput <MB/s> or --deadline <seconds> move the compression level up or down to keep up");
+        System.out.println("  --dictionary <bytes> trains a preset dictionary (1024-32768) on the small files of new archives");
+        System.out.println("  --segment-size <bytes> encrypts new archives in segments of 4096 bytes up to 30 MB (default)");
+        System.out.println("  --kdf <pbkdf2-sha1|pbkdf2-sha256>[:iterations] derives the key of new archives (default: pbkdf2-sha1:65536)");
+        System.out.println("  --metadata <plain|compact|encrypted> keeps entry metadata of new archives only in the (encrypted) directory");
+        System.out.println("  --layout <default|seekable> splits files of new archives into 64 KB blocks for fast read-range");
         System.out.println();
         System.out.println("Examples:");
         System.out.println("  java MainEnhanced create /home/user/documents my_backup.archivit");
         System.out.println("  java MainEnhanced create /home/user/documents my_backup.archivit secretpass");
+        System.out.println("  java MainEnhanced create-enhanced /home/user/documents my_backup.archivit secretpass");
         System.out.println("  java MainEnhanced extract my_backup.archivit /tmp/restore");
         System.out.println("  java MainEnhanced list my_backup.archivit");
+        System.out.println("  java MainEnhanced extract-entry my_backup.archivit config/app.yml /tmp/app.yml");
+        System.out.println("  java MainEnhanced read-range my_backup.archivit logs/app.log 1048576 4096");
+        System.out.println("  java MainEnhanced update /home/user/documents my_backup.archivit");
+        System.out.println("  java MainEnhanced split /home/user/documents my_backup.archivit 4096");
+        System.out.println("  java MainEnhanced increment /home/user/documents monday.archivit - my_backup.archivit");
+        System.out.println("  java MainEnhanced restore /tmp/restore - my_backup.archivit monday.archivit");
+        System.out.println("  java MainEnhanced --threads 8 split /home/user/documents my_backup.archivit 4096");
+        System.out.println("  java MainEnhanced --codec lz4 create-enhanced /home/user/documents my_backup.archivit");
+        System.out.println("  java MainEnhanced --deadline 600 increment /home/user/documents monday.archivit - my_backup.archivit");
+        System.out.println("  java MainEnhanced --dictionary 16384 create-enhanced /home/user/documents my_backup.archivit");
+        System.out.println("  java MainEnhanced --segment-size 65536 create-enhanced /home/user/documents my_backup.archivit secretpass");
+        System.out.println("  java MainEnhanced --kdf pbkdf2-sha256:210000 create-enhanced /home/user/documents my_backup.archivit secretpass");
+        System.out.println("  java MainEnhanced --metadata encrypted create-enhanced /home/user/documents my_backup.archivit secretpass");
+        System.out.println("  java MainEnhanced --layout seekable create-enhanced /home/user/documents my_backup.archivit secretpass");
     }
-
+    
     /**
      * Pauses the console (awaits user prompt)
      */
@@ -296,6 +637,7 @@ public class MainEnhanced {
      */
     private static class ProgressPrinter implements ArchiverAPI.ProgressCallback {
         private final String operation;
+        private CompressionStatistics compressionStatistics; // set before completion if compression is enabled
         
         public ProgressPrinter(String operation) {
             this.operation = operation;
@@ -317,6 +659,20 @@ public class MainEnhanced {
                 System.out.printf(", %d bytes", totalBytes);
             }
             System.out.println();
+            if (compressionStatistics != null) {
+                System.out.println("Compression: " + compressionStatistics);
+            }
+        }
+        
+        @Override
+        public void onCompressionStatistics(String op, CompressionStatistics statistics) {
+            compressionStatistics = statistics;
+        }
+        
+        @Override
+        public void onComplete(String op, long totalFiles, long totalBytes, DedupStatistics statistics) {
+            onComplete(op, totalFiles, totalBytes);
+            System.out.println("Deduplication: " + statistics);
         }
         
         @Override
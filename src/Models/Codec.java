@@ -0,0 +1,96 @@
+package Models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compression codec of entry data
+ * The codec ID is stored with every compressed entry, chunk and block, so that an archive may mix codecs. The level
+ * only affects compression and is not needed to decompress.
+ */
+public abstract class Codec {
+    /**
+     * Returns the ID stored with the compressed data (0 is reserved for uncompressed data)
+     * @return Codec ID
+     */
+    public abstract int getId();
+
+    /**
+     * Returns the compression level
+     * @return Level (0 if the codec has no levels)
+     */
+    public int getLevel() {
+        return 0;
+    }
+
+    /**
+     * Returns the name of the codec as accepted by the command line (e.g. `deflate:9`)
+     * @return Codec name
+     */
+    public abstract String getName();
+
+    /**
+     * Returns the preset dictionary compression is primed with
+     * @return Dictionary (null for none)
+     */
+    public byte[] getDictionary() {
+        return null;
+    }
+
+    /**
+     * Returns this codec primed with a preset dictionary, which helps small inputs that share content with it
+     * @param dictionary Dictionary
+     * @return Codec using the dictionary, or this codec if it does not support dictionaries
+     */
+    public Codec withDictionary(byte[] dictionary) {
+        return this;
+    }
+
+    /**
+     * Compresses data
+     * @param data Data to compress
+     * @return Compressed data
+     * @throws IOException If compression fails
+     */
+    public abstract byte[] compress(byte[] data) throws IOException;
+
+    /**
+     * Compresses data unless it compresses to more than a length
+     * Codecs able to tell early that the output will be too long stop there instead of compressing all of the data.
+     * @param data Data to compress
+     * @param maxLength Largest compressed length worth keeping
+     * @return Compressed data, or null if it is longer than `maxLength`
+     * @throws IOException If compression fails
+     */
+    public byte[] compress(byte[] data, int maxLength) throws IOException {
+        byte[] compressed = compress(data);
+        return compressed.length <= maxLength ? compressed : null;
+    }
+
+    /**
+     * Compresses the first bytes of an array (e.g. a pooled buffer) unless they compress to more than a length
+     * @param data Array holding the data
+     * @param length Length of the data
+     * @param maxLength Largest compressed length worth keeping
+     * @return Compressed data, or null if it is longer than `maxLength`
+     * @throws IOException If compression fails
+     */
+    public byte[] compress(byte[] data, int length, int maxLength) throws IOException {
+        return compress(length == data.length ? data : Arrays.copyOf(data, length), maxLength);
+    }
+
+    /**
+     * Decompresses the remaining bytes of a buffer (the buffer position is left unchanged)
+     * @param compressedData Compressed data (e.g. a slice of a mapped archive)
+     * @param originalLength Original length of the data
+     * @return Decompressed data
+     * @throws IOException If the data is malformed or does not decompress to `originalLength` bytes
+     */
+    public abstract byte[] decompress(ByteBuffer compressedData, int originalLength) throws IOException;
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
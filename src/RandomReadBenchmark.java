@@ -0,0 +1,121 @@
+import Utilities.ArchiverAPI;
+import Utilities.EnhancedArchiverAPI;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the latency of small random reads inside a large entry of plaintext and encrypted archives, with the
+ * default and seekable layouts
+ * Usage: java RandomReadBenchmark [file size in bytes] [read size in bytes] [reads]
+ */
+public class RandomReadBenchmark {
+    private static final String PASSWORD = "bench-pass";
+
+    public static void main(String[] args) throws Exception {
+        int fileSize = args.length > 0 ? Integer.parseInt(args[0]) : 64 << 20;
+        int readSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int reads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        System.out.println("Random Read Benchmark");
+        System.out.println("=====================");
+        System.out.println("Entry: " + ArchiverAPI.formatSize(fileSize) + ", reads: " + reads + " x "
+            + ArchiverAPI.formatSize(readSize));
+
+        Path workDir = Files.createTempDirectory("archivit_bench");
+        Path sourceDir = workDir.resolve("source");
+        try {
+            generateFile(sourceDir, fileSize);
+
+            System.out.printf("%n  %-9s %-10s %10s %12s %12s%n", "layout", "encryption", "archive", "median", "p99");
+            EnhancedArchiverAPI api = new EnhancedArchiverAPI();
+            for (boolean seekable : new boolean[] {false, true}) {
+                for (String password : new String[] {null, PASSWORD}) {
+                    String archivePath = workDir.resolve((seekable ? "seekable" : "default")
+                        + (password != null ? "_encrypted" : "_plain")).toString();
+                    EnhancedArchiverAPI.CreateArchiveConfig config =
+                        new EnhancedArchiverAPI.CreateArchiveConfig(sourceDir.toString(), archivePath, password);
+                    config.setSeekable(seekable);
+                    ArchiverAPI.OperationResult result = api.createArchive(config, null);
+                    if (!result.success) {
+                        throw new IllegalStateException(result.message, result.error);
+                    }
+
+                    long[] nanos = run(api, archivePath, password, fileSize, readSize, reads);
+                    System.out.printf("  %-9s %-10s %10s %9.3f ms %9.3f ms%n", seekable ? "seekable" : "default",
+                        password != null ? "AES-GCM" : "none",
+                        ArchiverAPI.formatSize(new File(archivePath + ".archivit").length()),
+                        percentile(nanos, 0.50) / 1e6, percentile(nanos, 0.99) / 1e6);
+                }
+            }
+        } finally {
+            deleteRecursively(workDir.toFile());
+        }
+    }
+
+    private static long[] run(EnhancedArchiverAPI api, String archivePath, String password,
+                              int fileSize, int readSize, int reads) {
+        Random random = new Random(7);
+
+        // Warm up the code paths (and the key cache) before measuring
+        for (int i = 0; i < 20; i++) {
+            read(api, archivePath, password, random.nextInt(Math.max(1, fileSize - readSize)), readSize);
+        }
+
+        long[] nanos = new long[reads];
+        for (int i = 0; i < reads; i++) {
+            long offset = random.nextInt(Math.max(1, fileSize - readSize));
+            long start = System.nanoTime();
+            read(api, archivePath, password, offset, readSize);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static void read(EnhancedArchiverAPI api, String archivePath, String password, long offset, int length) {
+        ArchiverAPI.OperationResult result = api.readRange(archivePath, "data.log", offset, length,
+            OutputStream.nullOutputStream(), password);
+        if (!result.success) {
+            throw new IllegalStateException(result.message, result.error);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+
+    private static void generateFile(Path dir, int fileSize) throws Exception {
+        Files.createDirectories(dir);
+        Random random = new Random(42);
+        byte[] data = new byte[fileSize];
+
+        // Log-like lines, so that the entry compresses like real data
+        String[] levels = {"INFO", "WARN", "DEBUG", "ERROR"};
+        int position = 0;
+        while (position < fileSize) {
+            byte[] line = String.format("2024-01-%02d %s request=%08x took %d ms%n", 1 + random.nextInt(28),
+                levels[random.nextInt(levels.length)], random.nextInt(), random.nextInt(1000)).getBytes();
+            int length = Math.min(line.length, fileSize - position);
+            System.arraycopy(line, 0, data, position, length);
+            position += length;
+        }
+        Files.write(dir.resolve("data.log"), data);
+    }
+
+    private static void deleteRecursively(File file) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        file.delete();
+    }
+}
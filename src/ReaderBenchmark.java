@@ -0,0 +1,109 @@
+import Utilities.ArchiverAPI;
+import Utilities.EnhancedArchiverAPI;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the stream and memory-mapped reader engines of the enhanced archiver
+ * Usage: java ReaderBenchmark [file count] [file size in bytes] [iterations]
+ */
+public class ReaderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 262144;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        System.out.println("Reader Engine Benchmark");
+        System.out.println("=======================");
+        System.out.println("Files: " + fileCount + " x " + ArchiverAPI.formatSize(fileSize) + ", iterations: " + iterations);
+
+        Path workDir = Files.createTempDirectory("archivit_bench");
+        Path sourceDir = workDir.resolve("source");
+        try {
+            generateFiles(sourceDir, fileCount, fileSize);
+
+            for (boolean compression : new boolean[] {false, true}) {
+                String archivePath = workDir.resolve(compression ? "compressed" : "stored").toString();
+                ArchiverAPI.OperationResult result = new EnhancedArchiverAPI().createArchive(
+                    new EnhancedArchiverAPI.CreateArchiveConfig(sourceDir.toString(), archivePath, null, compression, true), null);
+                if (!result.success) {
+                    throw new IllegalStateException(result.message, result.error);
+                }
+
+                System.out.println("\n" + (compression ? "Compressed" : "Stored") + " archive ("
+                    + ArchiverAPI.formatSize(new File(archivePath + ".archivit").length()) + ")");
+                for (EnhancedArchiverAPI.ReaderEngine engine : EnhancedArchiverAPI.ReaderEngine.values()) {
+                    run(new EnhancedArchiverAPI(engine), engine, archivePath, iterations);
+                }
+            }
+        } finally {
+            deleteRecursively(workDir.toFile());
+        }
+    }
+
+    private static void run(EnhancedArchiverAPI api, EnhancedArchiverAPI.ReaderEngine engine,
+                            String archivePath, int iterations) throws Exception {
+        List<EnhancedArchiverAPI.EnhancedFileInfo> files = api.listArchiveContents(archivePath);
+
+        // Warm up both code paths once before measuring
+        extractAll(api, archivePath, files);
+
+        long listNanos = 0, extractNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            api.listArchiveContents(archivePath);
+            listNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            extractAll(api, archivePath, files);
+            extractNanos += System.nanoTime() - start;
+        }
+
+        System.out.printf("  %-7s list: %8.2f ms   extract each entry: %8.2f ms%n", engine,
+            listNanos / 1e6 / iterations, extractNanos / 1e6 / iterations);
+    }
+
+    private static void extractAll(EnhancedArchiverAPI api, String archivePath,
+                                   List<EnhancedArchiverAPI.EnhancedFileInfo> files) {
+        for (EnhancedArchiverAPI.EnhancedFileInfo file : files) {
+            ArchiverAPI.OperationResult result = api.extractEntry(archivePath, file.path, OutputStream.nullOutputStream(), null);
+            if (!result.success) {
+                throw new IllegalStateException(result.message, result.error);
+            }
+        }
+    }
+
+    private static void generateFiles(Path dir, int fileCount, int fileSize) throws Exception {
+        Random random = new Random(42);
+        byte[] data = new byte[fileSize];
+        for (int i = 0; i < fileCount; i++) {
+            Path subDir = dir.resolve("dir" + (i % 16));
+            Files.createDirectories(subDir);
+
+            // Half random, half repetitive so that compression has something to do
+            random.nextBytes(data);
+            for (int j = fileSize / 2; j < fileSize; j++) {
+                data[j] = (byte) ('a' + j % 7);
+            }
+            Files.write(subDir.resolve("file" + i + ".txt"), data);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,167 @@
+package Utilities;
+
+import Models.Codec;
+import Utilities.Codecs.CodecRegistry;
+import Utilities.Codecs.DeflateCodec;
+import Utilities.Codecs.LZ4Codec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Moves the compression level up or down, unit by unit, so that writing an archive keeps up with a target throughput
+ * or finishes before a deadline with the best ratio that still fits
+ * The writer asks for the codec of every entry, block, chunk and solid block it hands out for compression. Every
+ * {@link #INTERVAL_NANOS}, the bytes handed out since the last adjustment give the throughput of the writer (reading,
+ * compressing and writing together), and the compression time recorded by {@link CompressionStatistics} tells how busy
+ * the workers were compressing:
+ * <li>Below the target with busy workers, compression is the bottleneck and the level goes down</li>
+ * <li>Below the target with idle workers, reading or writing is the bottleneck, which a lower level would not help</li>
+ * <li>Well above the target, there is time to spare and the level goes up</li>
+ * Each unit stores the ID of its codec, which is all decompression needs, so an archive may mix codecs and levels.
+ * The DEFLATE level itself is not stored: once written, an archive cannot tell which level a unit was compressed at,
+ * only the {@link CompressionStatistics} reported while writing it can.
+ */
+public class AdaptiveCompression {
+    /**
+     * Codecs from the fastest to the one giving the smallest output
+     */
+    public static final List<Codec> LEVELS;
+
+    static {
+        List<Codec> levels = new ArrayList<>();
+        levels.add(CodecRegistry.LZ4);
+        for (int level = DeflateCodec.MIN_LEVEL; level <= DeflateCodec.MAX_LEVEL; level++) {
+            levels.add(level == DeflateCodec.DEFAULT_LEVEL ? CodecRegistry.DEFLATE : new DeflateCodec(level));
+        }
+        LEVELS = Collections.unmodifiableList(levels);
+    }
+
+    /**
+     * Time between two adjustments
+     */
+    public static final long INTERVAL_NANOS = 250_000_000L;
+
+    /**
+     * Throughput relative to the target above which the level goes up
+     */
+    public static final double SLACK = 1.25;
+
+    /**
+     * Share of the worker time spent compressing above which compression is considered the bottleneck
+     */
+    public static final double BUSY = 0.5;
+
+    private final List<Codec> levels; // LEVELS primed with the preset dictionary of the initial codec, if any
+    private final long targetThroughput;
+    private final long deadline; // System.nanoTime() of the deadline, 0 if none
+    private final int threads;
+    private final CompressionStatistics statistics;
+
+    private final long totalBytes;
+    private int level;
+    private long processedBytes;
+
+    /**
+     * Start of the current measurement window
+     */
+    private long windowStart;
+    private long windowBytes;
+    private long windowCompressionNanos;
+
+    /**
+     * @param initial Codec to start with (the closest level if it is not one of {@link #LEVELS}), whose preset
+     *                dictionary every level uses
+     * @param targetThroughput Bytes per second to keep up with (0 if only the deadline matters)
+     * @param deadlineSeconds Seconds from now to finish in (0 if only the target throughput matters)
+     * @param totalBytes Bytes the operation processes in total, which the deadline is spread over
+     * @param threads Number of threads compressing
+     * @param statistics Statistics recording the compression time of every unit
+     */
+    public AdaptiveCompression(Codec initial, long targetThroughput, long deadlineSeconds, long totalBytes, int threads,
+                               CompressionStatistics statistics) {
+        if (targetThroughput < 0 || deadlineSeconds < 0) {
+            throw new IllegalArgumentException("Target throughput and deadline cannot be negative");
+        }
+        if (targetThroughput == 0 && deadlineSeconds == 0) {
+            throw new IllegalArgumentException("Either a target throughput or a deadline is required");
+        }
+
+        this.targetThroughput = targetThroughput;
+        this.windowStart = System.nanoTime();
+        this.deadline = deadlineSeconds > 0 ? windowStart + deadlineSeconds * 1_000_000_000L : 0;
+        this.totalBytes = totalBytes;
+        this.threads = Math.max(threads, 1);
+        this.statistics = statistics;
+        this.level = initialLevel(initial);
+        this.levels = new ArrayList<>(LEVELS);
+        if (initial.getDictionary() != null) {
+            levels.replaceAll(codec -> codec.withDictionary(initial.getDictionary()));
+        }
+    }
+
+    private static int initialLevel(Codec codec) {
+        int index = LEVELS.indexOf(codec);
+        if (index >= 0) {
+            return index;
+        }
+        if (codec.getId() == DeflateCodec.ID) {
+            return LEVELS.indexOf(CodecRegistry.DEFLATE) + codec.getLevel() - DeflateCodec.DEFAULT_LEVEL;
+        }
+        return codec.getId() == LZ4Codec.ID ? 0 : LEVELS.indexOf(CodecRegistry.DEFLATE);
+    }
+
+    /**
+     * Returns the codec of the next unit, adjusting the level if a measurement window is over
+     * @param length Length of the unit
+     * @return Codec
+     */
+    public Codec next(long length) {
+        long now = System.nanoTime();
+        if (now - windowStart >= INTERVAL_NANOS && windowBytes > 0) {
+            adjust(now);
+        }
+
+        windowBytes += length;
+        processedBytes += length;
+        return levels.get(level);
+    }
+
+    /**
+     * Returns the throughput needed from now on: the target throughput, or the remaining bytes over the remaining time
+     * if that is more
+     * @param now Current System.nanoTime()
+     * @return Bytes per second
+     */
+    private double requiredThroughput(long now) {
+        double required = targetThroughput;
+        if (deadline != 0 && totalBytes > processedBytes) {
+            if (now >= deadline) {
+                return Double.POSITIVE_INFINITY;
+            }
+            required = Math.max(required, (totalBytes - processedBytes) / ((deadline - now) / 1e9));
+        }
+        return required;
+    }
+
+    private void adjust(long now) {
+        double elapsed = now - windowStart;
+        double throughput = windowBytes / (elapsed / 1e9);
+        long compressionNanos = statistics.getCompressionNanos();
+        double busy = (compressionNanos - windowCompressionNanos) / (elapsed * threads);
+
+        double required = requiredThroughput(now);
+        if (throughput < required) {
+            if (busy > BUSY && level > 0) {
+                level--;
+            }
+        } else if (throughput > required * SLACK && level < LEVELS.size() - 1) {
+            level++;
+        }
+
+        windowStart = now;
+        windowBytes = 0;
+        windowCompressionNanos = compressionNanos;
+    }
+}
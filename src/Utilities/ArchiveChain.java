@@ -0,0 +1,130 @@
+package Utilities;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Archive chain: a full archive followed by its increments (see {@link EnhancedArchiverAPI#restoreArchive})
+ * Incremental archives only hold the files changed since the archives before them, plus deletion markers, so the state
+ * they capture is the replay of the directories of the whole chain in order.
+ */
+class ArchiveChain {
+    /**
+     * Entry of an archive chain (full archive plus increments), together with the archive it is stored in
+     */
+    static class Entry {
+        final ArchiveSource source;
+        final ArchiveHeader header;
+        final ArchiveDirectory directory;
+        final ArchiveDirectory.Record record;
+
+        Entry(ArchiveSource source, ArchiveHeader header, ArchiveDirectory directory, ArchiveDirectory.Record record) {
+            this.source = source;
+            this.header = header;
+            this.directory = directory;
+            this.record = record;
+        }
+
+        /**
+         * Restores a reference entry as a hard link to the file it shares data with
+         * @param destination Destination file
+         * @param restoredFiles Files restored so far, by record
+         * @param createdDirectories Directories created so far
+         * @return `true` if the link was created, `false` if the entry has to be extracted instead
+         */
+        boolean linkReference(Path destination, Map<ArchiveDirectory.Record, Path> restoredFiles,
+                              Set<Path> createdDirectories) {
+            if (record.target < 0) {
+                return false;
+            }
+
+            // The target may have been replaced since (e.g. by an update), in which case the data differs
+            ArchiveDirectory.Record target = directory.records.get(record.target);
+            Path targetFile = restoredFiles.get(target);
+            if (targetFile == null || target.dataOffset != record.dataOffset
+                    || !Arrays.equals(target.chunks, record.chunks)
+                    || target.block != record.block || target.blockOffset != record.blockOffset) {
+                return false;
+            }
+
+            try {
+                ArchiveSource.createDirectories(destination.getParent(), createdDirectories);
+                Files.deleteIfExists(destination);
+                Files.createLink(destination, targetFile);
+                return true;
+            } catch (IOException | UnsupportedOperationException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reads the directories of an archive chain and replays them in order: later archives replace entries of earlier
+     * ones, deletion markers remove them
+     * @param archivePaths Full archive followed by its increments, in order
+     * @param password Archive password (null for unencrypted archives), needed to read encrypted directories
+     * @param kits Cipher kits by archive header, receiving the kits of encrypted directories
+     * @param readerEngine Reader engine opening the archives
+     * @param threads Number of threads decoding the chunks of an entry
+     * @param rm Resource manager owning the opened archives
+     * @return Live entries by relative path (using the local file separator)
+     * @throws Exception If an archive cannot be read or the chain is malformed
+     */
+    static Map<String, Entry> read(List<String> archivePaths, String password, Map<ArchiveHeader, CipherKit> kits,
+                                   EnhancedArchiverAPI.ReaderEngine readerEngine, int threads,
+                                   ResourceManager rm) throws Exception {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+
+        for (int i = 0; i < archivePaths.size(); i++) {
+            String archivePath = archivePaths.get(i);
+            if (!archivePath.endsWith(".archivit")) {
+                archivePath += ".archivit";
+            }
+
+            if (!ArchiveSource.exists(archivePath)) {
+                throw new FileNotFoundException("Archive not found: " + archivePath);
+            }
+
+            ArchiveSource source = new ArchiveSource(archivePath, readerEngine, threads, rm);
+            ArchiveHeader header = source.readHeader();
+
+            CipherKit kit = null;
+            if (header.hasEncryptedDirectory && password != null) {
+                kit = rm.manage(new CipherKit(header.nonce, password, header.hasSegmentNonces, header.keyDerivation));
+                kits.put(header, kit);
+            }
+
+            ArchiveDirectory directory = header.version >= 3 ? source.readDirectory(header, kit) : null;
+            if (directory == null) {
+                throw new IllegalArgumentException("Archive has no central directory: " + archivePath);
+            }
+            if (i == 0 && header.isIncremental) {
+                throw new IllegalArgumentException("Archive chain must start with a full archive: " + archivePath);
+            }
+            if (i > 0 && !header.isIncremental) {
+                throw new IllegalArgumentException("Not an incremental archive: " + archivePath);
+            }
+
+            for (ArchiveDirectory.Record record : directory.records) {
+                String path = record.file.path.data.replace(header.fileSeparator,
+                    EnhancedArchiverAPI.getFileSeparator());
+                record.file.path.data = path;
+
+                if (record.isDeleted) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, new Entry(source, header, directory, record));
+                }
+            }
+        }
+
+        return entries;
+    }
+}
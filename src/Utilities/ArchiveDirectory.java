@@ -0,0 +1,988 @@
+package Utilities;
+
+import Utilities.Binaries.BinaryString;
+import Utilities.Codecs.DeflateCodec;
+import Utilities.Codecs.StoreCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Central directory of an enhanced archive (format version 3 onwards)
+ * Written after the last entry and located through a fixed-size footer at the very end of the file,
+ * so that listing and entry lookup do not have to walk the entry data
+ * <li>Archives with compact metadata: directory table (see {@link #writeDirectoryTable(BufferedStream.Output, CompactState)})</li>
+ * <li>Records (see {@link Record#write(BufferedStream.Output)}, or {@link Record#writeCompact(BufferedStream.Output, CompactState)}
+ * in archives with compact metadata)</li>
+ * <li>Table flags (1 byte, format version 5 onwards): which of the following tables are present</li>
+ * <li>Chunk table of deduplicated archives: average chunk size (4 bytes) + chunk count (4 bytes) + chunks
+ * (see {@link Chunk#write(BufferedStream.Output)})</li>
+ * <li>Block table of solid archives: block count (4 bytes) + blocks (same layout as chunks); before format version 5,
+ * preceded by an empty chunk table if the archive has no chunks, the tables being told apart by the bytes left</li>
+ * <li>Footer: directory offset (8 bytes) + directory length (8 bytes) + entry count (4 bytes) + directory CRC32 (4 bytes) + signature (8 bytes)</li>
+ * An encrypted directory is stored as a single encrypted segment (see {@link CipherKit#encryptSegment}) holding the
+ * entry count (varint) followed by the directory, and its footer has an entry count of 0, so the archive reveals
+ * neither its file names nor how many there are.
+ */
+public class ArchiveDirectory {
+    public static final BinaryString FOOTER_SIGNATURE = new BinaryString("avdirend");
+    public static final int FOOTER_SIZE = 8 + 8 + 4 + 4 + 8;
+
+    /**
+     * Number of trailing bytes fetched with the footer, so that small directories are read in a single call
+     */
+    private static final int TAIL_READ_SIZE = 65536;
+
+    /**
+     * Largest directory a reader accepts, as the directory is loaded into a single buffer
+     */
+    public static final int MAX_DIRECTORY_LENGTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * Table flags (see {@link #hasTableFlags})
+     */
+    private static final int TABLE_CHUNKS = 0x01;
+    private static final int TABLE_BLOCKS = 0x02;
+    private static final int KNOWN_TABLES = 0x03;
+
+    /**
+     * Record flags
+     */
+    private static final int FLAG_COMPRESSED = 0x01;
+    private static final int FLAG_DELETED = 0x02;
+    private static final int FLAG_CHUNKED = 0x04;
+    private static final int FLAG_REFERENCE = 0x08;
+    private static final int FLAG_HARD_LINK = 0x10;
+    private static final int FLAG_SOLID = 0x20;
+    private static final int FLAG_CODEC = 0x40;
+    private static final int FLAG_DIGEST = 0x80;
+    private static final int KNOWN_FLAGS = 0xFF;
+
+    /**
+     * Compact record flags (the most common ones fit into the first byte of the variable-length flags)
+     */
+    private static final int COMPACT_COMPRESSED = 0x01;
+    private static final int COMPACT_CAN_READ = 0x02;
+    private static final int COMPACT_CAN_WRITE = 0x04;
+    private static final int COMPACT_INTEGRITY = 0x08;
+    private static final int COMPACT_DATA = 0x10;
+    private static final int COMPACT_SOLID = 0x20;
+    private static final int COMPACT_CHUNKED = 0x40;
+    private static final int COMPACT_DELETED = 0x80;
+    private static final int COMPACT_REFERENCE = 0x100;
+    private static final int COMPACT_HARD_LINK = 0x200;
+    private static final int COMPACT_CAN_EXECUTE = 0x400;
+    private static final int COMPACT_INTEGRITY_COMPRESSED = 0x800;
+    private static final int COMPACT_EXPLICIT_NAME = 0x1000;
+    private static final int COMPACT_ENTRY_HEADER = 0x2000;
+    private static final int COMPACT_CODEC = 0x4000;
+    private static final int COMPACT_DIGEST = 0x8000;
+    private static final int COMPACT_KNOWN_FLAGS = 0xFFFF;
+
+    /**
+     * Values carried from one compact record to the next, which later records are delta-encoded against,
+     * and the directory table shared by all of them
+     */
+    static class CompactState {
+        long lastModified;
+        long dataEnd;
+        int lastChunk = -1;
+
+        /**
+         * Directory IDs by directory path (writing) and directory paths by ID (reading)
+         */
+        final Map<String, Integer> directoryIds = new HashMap<>();
+        String[] directories = new String[0];
+
+        /**
+         * Base names read so far by their UTF-8 bytes (reading), so that records of the same name share one string
+         * decoded once
+         */
+        final Map<ByteBuffer, String> names = new HashMap<>();
+
+        /**
+         * Reads a base name, returning the string of an earlier record of the same name if there is one
+         * @param buffer Directory bytes
+         * @param length Encoded length
+         * @return Name
+         * @throws IOException If the name runs past the end of the directory
+         */
+        String readName(ByteBuffer buffer, int length) throws IOException {
+            if (length > buffer.remaining()) {
+                throw new IOException("Malformed archive entry name");
+            }
+            ByteBuffer bytes = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+
+            String name = names.get(bytes);
+            if (name == null) {
+                name = StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+                names.put(bytes, name);
+            }
+            return name;
+        }
+    }
+
+    /**
+     * Stored data chunk of a deduplicated archive, which may be shared by any number of entries,
+     * or solid block holding the concatenated data of several small files
+     */
+    public static class Chunk {
+        public final long offset;
+        public final long storedLength;
+        public final int length;
+        public final int codec;
+        public final boolean isCompressed;
+        public final byte[] sha256;
+
+        /**
+         * @param offset Offset of the (framed) chunk data
+         * @param storedLength Length of the (framed) chunk data
+         * @param length Original length of the chunk
+         * @param codec ID of the codec the chunk data was compressed with ({@link StoreCodec#ID} if uncompressed)
+         * @param sha256 SHA-256 digest of the original chunk data
+         */
+        public Chunk(long offset, long storedLength, int length, int codec, byte[] sha256) {
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.length = length;
+            this.codec = codec;
+            this.isCompressed = codec != StoreCodec.ID;
+            this.sha256 = sha256;
+        }
+
+        /**
+         * Writes the chunk
+         * <li>Offset (8 bytes)</li>
+         * <li>Stored length (8 bytes)</li>
+         * <li>Original length (4 bytes)</li>
+         * <li>Codec ID (1 byte, 0 and 1 matching the compression flag written before codecs could be selected)</li>
+         * <li>SHA-256 digest (32 bytes)</li>
+         * @param bso Output stream
+         */
+        void write(BufferedStream.Output bso) throws IOException {
+            bso.putLong(offset);
+            bso.putLong(storedLength);
+            bso.putInt(length);
+            bso.write(codec);
+            bso.write(sha256);
+        }
+
+        static Chunk read(ByteBuffer buffer) {
+            long offset = buffer.getLong();
+            long storedLength = buffer.getLong();
+            int length = buffer.getInt();
+            int codec = buffer.get() & 0xff;
+            byte[] sha256 = new byte[32];
+            buffer.get(sha256);
+            return new Chunk(offset, storedLength, length, codec, sha256);
+        }
+    }
+
+    /**
+     * Location and integrity information of a single archive entry
+     */
+    public static class Record {
+        public final SerializableFile file;
+        public final long entryOffset;
+        public final long dataOffset;
+        public final long dataLength;
+        public final int codec;
+        public final boolean isCompressed;
+        public final DataIntegrity.IntegrityMetadata integrity;
+
+        /**
+         * SHA-256 digest of the original data of an entry whose integrity metadata covers its compressed data, so that
+         * the entry can be compared with a file without compressing it (null for other entries)
+         */
+        public final byte[] digest;
+
+        /**
+         * `true` if the record marks a file removed since the base archive (incremental archives only, carries no data)
+         */
+        public final boolean isDeleted;
+
+        /**
+         * Indices of the chunks holding the entry data, in order (null unless the entry is deduplicated or split into compression blocks)
+         */
+        public final int[] chunks;
+
+        /**
+         * Index of the record whose data this entry shares (-1 unless the entry is a reference to an identical file)
+         */
+        public final int target;
+
+        /**
+         * `true` if the referenced file was a hard link of the same file in the source
+         */
+        public final boolean isHardLink;
+
+        /**
+         * Index of the solid block holding the entry data and offset of the data inside the block (-1 unless the entry
+         * is stored in a solid block)
+         */
+        public final int block;
+        public final int blockOffset;
+
+        /**
+         * @param file Entry metadata
+         * @param entryOffset Offset of the entry metadata segment
+         * @param dataOffset Offset of the (framed) entry data
+         * @param dataLength Length of the (framed) entry data
+         * @param codec ID of the codec the entry data was compressed with ({@link StoreCodec#ID} if uncompressed)
+         * @param integrity Integrity metadata (null if integrity checks are disabled)
+         */
+        public Record(SerializableFile file, long entryOffset, long dataOffset, long dataLength,
+                      int codec, DataIntegrity.IntegrityMetadata integrity) {
+            this(file, entryOffset, dataOffset, dataLength, codec, integrity, null);
+        }
+
+        /**
+         * @param file Entry metadata
+         * @param entryOffset Offset of the entry metadata segment
+         * @param dataOffset Offset of the (framed) entry data
+         * @param dataLength Length of the (framed) entry data
+         * @param codec ID of the codec the entry data was compressed with ({@link StoreCodec#ID} if uncompressed)
+         * @param integrity Integrity metadata (null if integrity checks are disabled)
+         * @param digest SHA-256 digest of the original data if `integrity` covers the compressed data (otherwise null)
+         */
+        public Record(SerializableFile file, long entryOffset, long dataOffset, long dataLength,
+                      int codec, DataIntegrity.IntegrityMetadata integrity, byte[] digest) {
+            this(file, entryOffset, dataOffset, dataLength, codec, integrity, digest, false, null, -1, false, -1, -1);
+        }
+
+        private Record(SerializableFile file, long entryOffset, long dataOffset, long dataLength,
+                       int codec, DataIntegrity.IntegrityMetadata integrity, byte[] digest, boolean isDeleted, int[] chunks,
+                       int target, boolean isHardLink, int block, int blockOffset) {
+            this.file = file;
+            this.entryOffset = entryOffset;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.codec = codec;
+            this.isCompressed = codec != StoreCodec.ID;
+            this.integrity = integrity;
+            this.digest = digest;
+            this.isDeleted = isDeleted;
+            this.chunks = chunks;
+            this.target = target;
+            this.isHardLink = isHardLink;
+            this.block = block;
+            this.blockOffset = blockOffset;
+        }
+
+        /**
+         * Creates a deletion marker for a file of the base archive
+         * @param file Metadata of the removed file
+         * @return Record without data
+         */
+        public static Record deletion(SerializableFile file) {
+            return new Record(file, -1, -1, 0, StoreCodec.ID, null, null, true, null, -1, false, -1, -1);
+        }
+
+        /**
+         * Creates the record of an entry stored as chunks (deduplicated or split into compression blocks)
+         * @param file Entry metadata
+         * @param dataOffset Offset of the chunks written for this entry
+         * @param dataLength Length of the chunks written for this entry (zero if all of them were already stored)
+         * @param chunks Indices of the chunks holding the entry data
+         * @param integrity Integrity metadata of the original file data (null if integrity checks are disabled)
+         * @return Record
+         */
+        public static Record chunked(SerializableFile file, long dataOffset, long dataLength, int[] chunks,
+                                     DataIntegrity.IntegrityMetadata integrity) {
+            return new Record(file, -1, dataOffset, dataLength, StoreCodec.ID, integrity, null, false, chunks, -1, false, -1,
+                -1);
+        }
+
+        /**
+         * Creates the record of an entry stored in a solid block
+         * @param file Entry metadata (its size is the length of the data inside the block)
+         * @param integrity Integrity metadata of the original file data (null if integrity checks are disabled)
+         * @param block Index of the solid block
+         * @param blockOffset Offset of the entry data inside the (decompressed) block
+         * @return Record
+         */
+        public static Record solid(SerializableFile file, DataIntegrity.IntegrityMetadata integrity, int block,
+                                   int blockOffset) {
+            return new Record(file, -1, -1, 0, StoreCodec.ID, integrity, null, false, null, -1, false, block, blockOffset);
+        }
+
+        /**
+         * Creates a record sharing the data of an identical file
+         * @param file Entry metadata
+         * @param target Record of the identical file
+         * @param targetIndex Index of `target` in the directory
+         * @param isHardLink `true` if the file was a hard link of the target file
+         * @return Record without data of its own
+         */
+        public static Record reference(SerializableFile file, Record target, int targetIndex, boolean isHardLink) {
+            return new Record(file, -1, target.dataOffset, target.dataLength, target.codec, target.integrity, target.digest,
+                false, target.chunks, targetIndex, isHardLink, target.block, target.blockOffset);
+        }
+
+        /**
+         * Writes the record
+         * <li>Metadata length (4 bytes) + Metadata</li>
+         * <li>Entry offset (8 bytes)</li>
+         * <li>Data offset (8 bytes)</li>
+         * <li>Data length (8 bytes)</li>
+         * <li>Flags (1 byte: 0x01 compressed, 0x02 deletion marker, 0x04 deduplicated, 0x08 reference, 0x10 hard link,
+         * 0x20 solid, 0x40 codec other than DEFLATE, 0x80 digest)</li>
+         * <li>Entries compressed with a codec other than DEFLATE: codec ID (1 byte)</li>
+         * <li>Integrity length (2 bytes, zero if absent) + Integrity metadata</li>
+         * <li>Entries with a digest of their original data: SHA-256 digest (32 bytes)</li>
+         * <li>Deduplicated entries: chunk count (4 bytes) + chunk indices (4 bytes each)</li>
+         * <li>References: target record index (4 bytes)</li>
+         * <li>Solid entries: block index (4 bytes) + offset inside the block (4 bytes)</li>
+         * @param bso Output stream
+         */
+        void write(BufferedStream.Output bso) throws IOException {
+            bso.writeSegment(file.toByteArray(), BufferedStream.JavaStreamSegmentType.INTEGER);
+            bso.putLong(entryOffset);
+            bso.putLong(dataOffset);
+            bso.putLong(dataLength);
+            boolean hasCodec = isCompressed && codec != DeflateCodec.ID;
+            bso.write((isCompressed ? FLAG_COMPRESSED : 0) | (isDeleted ? FLAG_DELETED : 0) | (chunks != null ? FLAG_CHUNKED : 0)
+                | (target >= 0 ? FLAG_REFERENCE : 0) | (isHardLink ? FLAG_HARD_LINK : 0) | (block >= 0 ? FLAG_SOLID : 0)
+                | (hasCodec ? FLAG_CODEC : 0) | (digest != null ? FLAG_DIGEST : 0));
+            if (hasCodec) {
+                bso.write(codec);
+            }
+            bso.writeSegment(integrity != null ? integrity.toByteArray() : new byte[0], BufferedStream.JavaStreamSegmentType.SHORT);
+            if (digest != null) {
+                bso.write(digest);
+            }
+            if (chunks != null) {
+                bso.putInt(chunks.length);
+                for (int chunk : chunks) {
+                    bso.putInt(chunk);
+                }
+            }
+            if (target >= 0) {
+                bso.putInt(target);
+            }
+            if (block >= 0) {
+                bso.putInt(block);
+                bso.putInt(blockOffset);
+            }
+        }
+
+        /**
+         * Reads a record from the current position of `buffer`
+         * @param buffer Directory bytes
+         * @return Record
+         * @throws IOException If the record uses features unknown to this reader
+         */
+        static Record read(ByteBuffer buffer) throws IOException {
+            int metadataLength = buffer.getInt();
+            SerializableFile file = new SerializableFile();
+            file.fromByteBuffer(buffer.slice(buffer.position(), metadataLength));
+            buffer.position(buffer.position() + metadataLength);
+
+            long entryOffset = buffer.getLong();
+            long dataOffset = buffer.getLong();
+            long dataLength = buffer.getLong();
+            int flags = buffer.get() & 0xff;
+            if ((flags & ~KNOWN_FLAGS) != 0) {
+                throw new IOException("Unsupported archive entry flags: 0x" + Integer.toHexString(flags));
+            }
+            int codec = (flags & FLAG_COMPRESSED) == 0 ? StoreCodec.ID
+                : (flags & FLAG_CODEC) != 0 ? buffer.get() & 0xff : DeflateCodec.ID;
+
+            DataIntegrity.IntegrityMetadata integrity = null;
+            int integrityLength = buffer.getShort();
+            if (integrityLength > 0) {
+                byte[] integrityData = new byte[integrityLength];
+                buffer.get(integrityData);
+                integrity = DataIntegrity.IntegrityMetadata.fromByteArray(integrityData);
+            }
+            byte[] digest = (flags & FLAG_DIGEST) != 0 ? readDigest(buffer) : null;
+
+            int[] chunks = null;
+            if ((flags & FLAG_CHUNKED) != 0) {
+                chunks = new int[buffer.getInt()];
+                for (int i = 0; i < chunks.length; i++) {
+                    chunks[i] = buffer.getInt();
+                }
+            }
+
+            int target = (flags & FLAG_REFERENCE) != 0 ? buffer.getInt() : -1;
+
+            int block = -1, blockOffset = -1;
+            if ((flags & FLAG_SOLID) != 0) {
+                block = buffer.getInt();
+                blockOffset = buffer.getInt();
+            }
+
+            return new Record(file, entryOffset, dataOffset, dataLength, codec, integrity, digest,
+                (flags & FLAG_DELETED) != 0, chunks, target, (flags & FLAG_HARD_LINK) != 0, block, blockOffset);
+        }
+
+        /**
+         * Writes the record with variable-length integers (see {@link VarInt}), which takes a fraction of the space of
+         * {@link #write(BufferedStream.Output)} for typical files
+         * <li>Flags (permissions, record flags and which of the following fields are present)</li>
+         * <li>Entries compressed with a codec other than DEFLATE: codec ID</li>
+         * <li>Directory ID (see {@link #writeDirectoryTable(BufferedStream.Output, CompactState)}) if the name is the end
+         * of the path, otherwise path length + Path (UTF-8)</li>
+         * <li>Name length + Name (UTF-8)</li>
+         * <li>Last modified, relative to the previous record (zigzag)</li>
+         * <li>Size</li>
+         * <li>Entries with an entry header: entry offset</li>
+         * <li>Entries with data: data offset relative to the end of the data seen so far (zigzag) + data length</li>
+         * <li>Integrity metadata: SHA-256 digest (32 bytes) + CRC32 (4 bytes) + original size + compressed size if compressed</li>
+         * <li>Entries with a digest of their original data: SHA-256 digest (32 bytes)</li>
+         * <li>Deduplicated entries: chunk count + chunk indices, each relative to the one following the previous chunk (zigzag)</li>
+         * <li>References: target record index</li>
+         * <li>Solid entries: block index + offset inside the block</li>
+         * @param bso Output stream
+         * @param state Values of the previous records
+         */
+        void writeCompact(BufferedStream.Output bso, CompactState state) throws IOException {
+            String path = file.path.data;
+            String name = file.name.data;
+            boolean hasExplicitName = !path.endsWith(name);
+            boolean hasData = dataOffset >= 0 || dataLength != 0;
+            boolean hasCodec = isCompressed && codec != DeflateCodec.ID;
+
+            int flags = (isCompressed ? COMPACT_COMPRESSED : 0) | (isDeleted ? COMPACT_DELETED : 0)
+                | (chunks != null ? COMPACT_CHUNKED : 0) | (target >= 0 ? COMPACT_REFERENCE : 0)
+                | (isHardLink ? COMPACT_HARD_LINK : 0) | (block >= 0 ? COMPACT_SOLID : 0)
+                | (file.canRead.data ? COMPACT_CAN_READ : 0) | (file.canWrite.data ? COMPACT_CAN_WRITE : 0)
+                | (file.canExecute.data ? COMPACT_CAN_EXECUTE : 0) | (hasExplicitName ? COMPACT_EXPLICIT_NAME : 0)
+                | (hasData ? COMPACT_DATA : 0) | (entryOffset >= 0 ? COMPACT_ENTRY_HEADER : 0)
+                | (integrity != null ? COMPACT_INTEGRITY : 0)
+                | (integrity != null && integrity.isCompressed ? COMPACT_INTEGRITY_COMPRESSED : 0)
+                | (hasCodec ? COMPACT_CODEC : 0) | (digest != null ? COMPACT_DIGEST : 0);
+            VarInt.write(bso, flags);
+            if (hasCodec) {
+                VarInt.write(bso, codec);
+            }
+
+            if (hasExplicitName) {
+                writeString(bso, path);
+            } else {
+                VarInt.write(bso, state.directoryIds.get(path.substring(0, path.length() - name.length())));
+            }
+            writeString(bso, name);
+
+            VarInt.write(bso, VarInt.encodeZigZag(file.lastModified.data - state.lastModified));
+            state.lastModified = file.lastModified.data;
+            VarInt.write(bso, file.size.data);
+
+            if (entryOffset >= 0) {
+                VarInt.write(bso, entryOffset);
+            }
+            if (hasData) {
+                VarInt.write(bso, VarInt.encodeZigZag(dataOffset - state.dataEnd));
+                VarInt.write(bso, dataLength);
+                state.dataEnd = Math.max(state.dataEnd, dataOffset + dataLength);
+            }
+
+            if (integrity != null) {
+                // Uncompressed data has the same original and compressed size
+                if (!integrity.isCompressed && integrity.compressedSize != integrity.originalSize) {
+                    throw new IOException("Inconsistent integrity metadata: " + path);
+                }
+                bso.write(integrity.toByteArray(), 0, 32 + 4);
+                VarInt.write(bso, integrity.originalSize);
+                if (integrity.isCompressed) {
+                    VarInt.write(bso, integrity.compressedSize);
+                }
+            }
+            if (digest != null) {
+                bso.write(digest);
+            }
+
+            if (chunks != null) {
+                VarInt.write(bso, chunks.length);
+                for (int chunk : chunks) {
+                    VarInt.write(bso, VarInt.encodeZigZag((long) chunk - (state.lastChunk + 1)));
+                    state.lastChunk = chunk;
+                }
+            }
+            if (target >= 0) {
+                VarInt.write(bso, target);
+            }
+            if (block >= 0) {
+                VarInt.write(bso, block);
+                VarInt.write(bso, blockOffset);
+            }
+        }
+
+        /**
+         * Reads a compact record from the current position of `buffer`
+         * @param buffer Directory bytes
+         * @param state Values of the previous records
+         * @return Record
+         * @throws IOException If the record is malformed or uses features unknown to this reader
+         */
+        static Record readCompact(ByteBuffer buffer, CompactState state) throws IOException {
+            int flags = VarInt.readInt(buffer);
+            if ((flags & ~COMPACT_KNOWN_FLAGS) != 0) {
+                throw new IOException("Unsupported archive entry flags: 0x" + Integer.toHexString(flags));
+            }
+            int codec = (flags & COMPACT_COMPRESSED) == 0 ? StoreCodec.ID
+                : (flags & COMPACT_CODEC) != 0 ? VarInt.readInt(buffer) : DeflateCodec.ID;
+
+            SerializableFile file = new SerializableFile();
+            if ((flags & COMPACT_EXPLICIT_NAME) != 0) {
+                file.path.data = readString(buffer, VarInt.readInt(buffer));
+                file.name.data = readString(buffer, VarInt.readInt(buffer));
+            } else {
+                int directoryId = VarInt.readInt(buffer);
+                if (directoryId >= state.directories.length) {
+                    throw new IOException("Malformed archive entry directory: " + directoryId);
+                }
+                // Names and directory paths are shared, only the path itself is built for each record
+                file.name.data = state.readName(buffer, VarInt.readInt(buffer));
+                file.path.data = state.directories[directoryId].concat(file.name.data);
+            }
+            file.canRead.data = (flags & COMPACT_CAN_READ) != 0;
+            file.canWrite.data = (flags & COMPACT_CAN_WRITE) != 0;
+            file.canExecute.data = (flags & COMPACT_CAN_EXECUTE) != 0;
+
+            state.lastModified += VarInt.decodeZigZag(VarInt.read(buffer));
+            file.lastModified.data = state.lastModified;
+            file.size.data = VarInt.read(buffer);
+
+            long entryOffset = (flags & COMPACT_ENTRY_HEADER) != 0 ? VarInt.read(buffer) : -1;
+            long dataOffset = -1, dataLength = 0;
+            if ((flags & COMPACT_DATA) != 0) {
+                dataOffset = state.dataEnd + VarInt.decodeZigZag(VarInt.read(buffer));
+                dataLength = VarInt.read(buffer);
+                state.dataEnd = Math.max(state.dataEnd, dataOffset + dataLength);
+            }
+
+            DataIntegrity.IntegrityMetadata integrity = null;
+            if ((flags & COMPACT_INTEGRITY) != 0) {
+                // Rebuilt through the regular (8-byte size) serialization
+                ByteBuffer integrityData = ByteBuffer.allocate(32 + 4 + 1 + 8 + 8);
+                integrityData.put(buffer.slice(buffer.position(), 32 + 4));
+                buffer.position(buffer.position() + 32 + 4);
+                boolean isIntegrityCompressed = (flags & COMPACT_INTEGRITY_COMPRESSED) != 0;
+                long originalSize = VarInt.read(buffer);
+                integrityData.put((byte) (isIntegrityCompressed ? 1 : 0));
+                integrityData.putLong(originalSize);
+                integrityData.putLong(isIntegrityCompressed ? VarInt.read(buffer) : originalSize);
+                integrity = DataIntegrity.IntegrityMetadata.fromByteArray(integrityData.array());
+            }
+            byte[] digest = (flags & COMPACT_DIGEST) != 0 ? readDigest(buffer) : null;
+
+            int[] chunks = null;
+            if ((flags & COMPACT_CHUNKED) != 0) {
+                chunks = new int[VarInt.readInt(buffer)];
+                for (int i = 0; i < chunks.length; i++) {
+                    chunks[i] = (int) (state.lastChunk + 1 + VarInt.decodeZigZag(VarInt.read(buffer)));
+                    state.lastChunk = chunks[i];
+                }
+            }
+
+            int target = (flags & COMPACT_REFERENCE) != 0 ? VarInt.readInt(buffer) : -1;
+
+            int block = -1, blockOffset = -1;
+            if ((flags & COMPACT_SOLID) != 0) {
+                block = VarInt.readInt(buffer);
+                blockOffset = VarInt.readInt(buffer);
+            }
+
+            return new Record(file, entryOffset, dataOffset, dataLength, codec, integrity, digest,
+                (flags & COMPACT_DELETED) != 0, chunks, target, (flags & COMPACT_HARD_LINK) != 0, block, blockOffset);
+        }
+
+        private static void writeString(BufferedStream.Output bso, String string) throws IOException {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            VarInt.write(bso, bytes.length);
+            bso.write(bytes);
+        }
+
+        private static byte[] readDigest(ByteBuffer buffer) {
+            byte[] digest = new byte[32];
+            buffer.get(digest);
+            return digest;
+        }
+
+        private static String readString(ByteBuffer buffer, int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    public final List<Record> records;
+    public final List<Chunk> chunks;
+    public final List<Chunk> blocks;
+
+    /**
+     * Average size of the content-defined chunks (deduplicated archives only)
+     */
+    public int chunkSize;
+
+    /**
+     * `true` if the records are written with {@link Record#writeCompact(BufferedStream.Output, CompactState)}
+     */
+    public boolean isCompact;
+
+    /**
+     * `true` if the directory is stored encrypted (see {@link #write(BufferedStream.Output, CipherKit)})
+     */
+    public boolean isEncrypted;
+
+    /**
+     * `true` if a byte of table flags tells which optional tables follow the records, otherwise they are told apart by
+     * the bytes left after the records (format versions before 5, kept when such an archive is updated)
+     */
+    public boolean hasTableFlags = true;
+
+    /**
+     * Offset at which the directory starts (i.e. the end of the entry data)
+     */
+    public final long offset;
+
+    public ArchiveDirectory() {
+        this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), -1);
+    }
+
+    private ArchiveDirectory(List<Record> records, List<Chunk> chunks, List<Chunk> blocks, long offset) {
+        this.records = records;
+        this.chunks = chunks;
+        this.blocks = blocks;
+        this.offset = offset;
+    }
+
+    /**
+     * Writes the directory followed by the footer at the current position of `bso`
+     * @param bso Archive output stream
+     */
+    public void write(BufferedStream.Output bso) throws IOException {
+        long directoryOffset = bso.getPosition();
+
+        CRC32 crc = new CRC32();
+        BufferedStream.Output directoryStream = new BufferedStream.Output(new CheckedOutputStream(bso, crc));
+        writeContent(directoryStream);
+        directoryStream.flush();
+        writeFooter(bso, directoryOffset, records.size(), crc);
+    }
+
+    /**
+     * Writes the directory followed by the footer at the current position of `bso`, encrypted as a single segment if
+     * the directory is encrypted
+     * @param bso Archive output stream
+     * @param kit Cipher kit of the archive (only used if the directory is encrypted)
+     */
+    public void write(BufferedStream.Output bso, CipherKit kit) throws IOException, GeneralSecurityException {
+        if (!isEncrypted) {
+            write(bso);
+            return;
+        }
+        long directoryOffset = bso.getPosition();
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        BufferedStream.Output contentStream = new BufferedStream.Output(content);
+        VarInt.write(contentStream, records.size());
+        writeContent(contentStream);
+        contentStream.flush();
+        byte[] segment = kit.encryptSegment(content.toByteArray(), 0, content.size());
+
+        CRC32 crc = new CRC32();
+        crc.update(segment);
+        bso.write(segment);
+        writeFooter(bso, directoryOffset, 0, crc);
+    }
+
+    private void writeContent(BufferedStream.Output directoryStream) throws IOException {
+        CompactState state = new CompactState();
+        if (isCompact) {
+            writeDirectoryTable(directoryStream, state);
+        }
+        for (Record record : records) {
+            if (isCompact) {
+                record.writeCompact(directoryStream, state);
+            } else {
+                record.write(directoryStream);
+            }
+        }
+        // Deduplicated archives record their chunk size even before they have chunks
+        boolean hasChunkTable = hasTableFlags ? chunkSize != 0 || !chunks.isEmpty() : !chunks.isEmpty() || !blocks.isEmpty();
+        if (hasTableFlags) {
+            directoryStream.write(new byte[]{(byte) ((hasChunkTable ? TABLE_CHUNKS : 0) | (blocks.isEmpty() ? 0 : TABLE_BLOCKS))});
+        }
+        if (hasChunkTable) {
+            directoryStream.putInt(chunkSize);
+            directoryStream.putInt(chunks.size());
+            for (Chunk chunk : chunks) {
+                chunk.write(directoryStream);
+            }
+        }
+        if (!blocks.isEmpty()) {
+            directoryStream.putInt(blocks.size());
+            for (Chunk block : blocks) {
+                block.write(directoryStream);
+            }
+        }
+    }
+
+    private static void writeFooter(BufferedStream.Output bso, long directoryOffset, int entryCount, CRC32 crc) throws IOException {
+        long directoryLength = bso.getPosition() - directoryOffset;
+        if (directoryLength > MAX_DIRECTORY_LENGTH) {
+            throw new IOException("Archive directory exceeds " + MAX_DIRECTORY_LENGTH + " bytes");
+        }
+
+        bso.putLong(directoryOffset);
+        bso.putLong(directoryLength);
+        bso.putInt(entryCount);
+        bso.putInt((int) crc.getValue());
+        bso.write(FOOTER_SIGNATURE.toByteArray());
+    }
+
+    /**
+     * Writes the directory table of a compact directory, which holds every directory path (the path of an entry up to its
+     * name, including the trailing separator) once, so that records only refer to it by ID
+     * <li>Directory count</li>
+     * <li>Directories, each as the number of leading bytes shared with the previous directory + length of the rest +
+     * Rest of the path (UTF-8)</li>
+     * @param bso Output stream
+     * @param state State receiving the directory IDs
+     */
+    private void writeDirectoryTable(BufferedStream.Output bso, CompactState state) throws IOException {
+        List<byte[]> directories = new ArrayList<>();
+        for (Record record : records) {
+            String path = record.file.path.data;
+            String name = record.file.name.data;
+            if (path.endsWith(name)) {
+                String directory = path.substring(0, path.length() - name.length());
+                if (!state.directoryIds.containsKey(directory)) {
+                    state.directoryIds.put(directory, directories.size());
+                    directories.add(directory.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        VarInt.write(bso, directories.size());
+        byte[] previous = new byte[0];
+        for (byte[] directory : directories) {
+            int shared = Math.max(0, Arrays.mismatch(previous, directory));
+            VarInt.write(bso, shared);
+            VarInt.write(bso, directory.length - shared);
+            bso.write(directory, shared, directory.length - shared);
+            previous = directory;
+        }
+    }
+
+    /**
+     * Reads the directory table of a compact directory
+     * @param buffer Directory bytes
+     * @param state State receiving the directory paths
+     */
+    private static void readDirectoryTable(ByteBuffer buffer, CompactState state) throws IOException {
+        state.directories = new String[VarInt.readInt(buffer)];
+        byte[] previous = new byte[0];
+        for (int i = 0; i < state.directories.length; i++) {
+            int shared = VarInt.readInt(buffer);
+            int length = VarInt.readInt(buffer);
+            if (shared > previous.length) {
+                throw new IOException("Malformed archive directory table");
+            }
+            byte[] directory = Arrays.copyOf(previous, shared + length);
+            buffer.get(directory, shared, length);
+            state.directories[i] = new String(directory, StandardCharsets.UTF_8);
+            previous = directory;
+        }
+    }
+
+    /**
+     * Footer fields pointing to the directory
+     */
+    private static class Footer {
+        long directoryOffset;
+        long directoryLength;
+        int entryCount;
+        int directoryCRC32;
+
+        /**
+         * Parses the footer found at the current position of `buffer`
+         * @param buffer Footer bytes
+         * @param fileSize Archive size (to validate the directory location)
+         * @return Footer, or null if the bytes are not a footer
+         * @throws IOException If the footer points outside the archive or to a directory too large to read
+         */
+        static Footer read(ByteBuffer buffer, long fileSize) throws IOException {
+            Footer footer = new Footer();
+            footer.directoryOffset = buffer.getLong();
+            footer.directoryLength = buffer.getLong();
+            footer.entryCount = buffer.getInt();
+            footer.directoryCRC32 = buffer.getInt();
+            byte[] signature = new byte[FOOTER_SIGNATURE.getSize()];
+            buffer.get(signature);
+
+            if (!FOOTER_SIGNATURE.data.equals(new String(signature, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            if (footer.directoryOffset < 0 || footer.directoryLength < 0
+                    || footer.directoryLength > fileSize - FOOTER_SIZE
+                    || footer.directoryOffset != fileSize - FOOTER_SIZE - footer.directoryLength) {
+                throw new IOException("Archive directory location is out of range (offset " + footer.directoryOffset
+                    + ", length " + footer.directoryLength + ", archive size " + fileSize + ")");
+            }
+            if (footer.directoryLength > MAX_DIRECTORY_LENGTH) {
+                throw new IOException("Archive directory of " + footer.directoryLength + " bytes exceeds "
+                    + MAX_DIRECTORY_LENGTH + " bytes");
+            }
+            return footer;
+        }
+    }
+
+    /**
+     * Reads the directory of an archive using its footer, decrypting it if it is encrypted
+     * @param channel Archive channel
+     * @param isCompact `true` if the archive has compact metadata
+     * @param hasTableFlags `true` if the archive flags its optional tables (see {@link #hasTableFlags})
+     * @param kit Cipher kit of an encrypted directory (null if the directory is not encrypted)
+     * @return Directory, or null if the archive has no footer
+     * @throws IOException If the footer or the directory is malformed
+     * @throws javax.crypto.AEADBadTagException If the kit does not decrypt the directory (wrong password)
+     */
+    public static ArchiveDirectory read(FileChannel channel, boolean isCompact, boolean hasTableFlags,
+                                        CipherKit kit) throws IOException, GeneralSecurityException {
+        long fileSize = channel.size();
+        if (fileSize < FOOTER_SIZE) {
+            return null;
+        }
+
+        // Fetch the footer together with whatever precedes it, which usually covers the whole directory
+        int tailLength = (int) Math.min(fileSize, TAIL_READ_SIZE);
+        ByteBuffer tail = readFully(channel, fileSize - tailLength, tailLength);
+
+        tail.position(tailLength - FOOTER_SIZE);
+        Footer footer = Footer.read(tail, fileSize);
+        if (footer == null) {
+            return null;
+        }
+
+        ByteBuffer directory;
+        if (footer.directoryLength <= tailLength - FOOTER_SIZE) {
+            directory = tail.slice((int) (tailLength - FOOTER_SIZE - footer.directoryLength), (int) footer.directoryLength);
+        } else {
+            directory = readFully(channel, footer.directoryOffset, (int) footer.directoryLength);
+        }
+
+        return parse(directory, footer, isCompact, hasTableFlags, kit);
+    }
+
+    /**
+     * Reads the directory of an archive straight from its mapping, decrypting it if it is encrypted
+     * @param input Mapped archive
+     * @param isCompact `true` if the archive has compact metadata
+     * @param hasTableFlags `true` if the archive flags its optional tables (see {@link #hasTableFlags})
+     * @param kit Cipher kit of an encrypted directory (null if the directory is not encrypted)
+     * @return Directory, or null if the archive has no footer
+     * @throws IOException If the footer or the directory is malformed
+     * @throws javax.crypto.AEADBadTagException If the kit does not decrypt the directory (wrong password)
+     */
+    public static ArchiveDirectory read(MappedInput input, boolean isCompact, boolean hasTableFlags,
+                                        CipherKit kit) throws IOException, GeneralSecurityException {
+        long fileSize = input.size();
+        if (fileSize < FOOTER_SIZE) {
+            return null;
+        }
+
+        Footer footer = Footer.read(input.seek(fileSize - FOOTER_SIZE).readSlice(FOOTER_SIZE), fileSize);
+        if (footer == null) {
+            return null;
+        }
+
+        return parse(input.seek(footer.directoryOffset).readSlice(footer.directoryLength), footer, isCompact, hasTableFlags,
+            kit);
+    }
+
+    private static ArchiveDirectory parse(ByteBuffer directory, Footer footer, boolean isCompact, boolean hasTableFlags,
+                                          CipherKit kit) throws IOException, GeneralSecurityException {
+        CRC32 crc = new CRC32();
+        crc.update(directory.duplicate());
+        if ((int) crc.getValue() != footer.directoryCRC32) {
+            throw new IOException("Archive directory is corrupted (checksum mismatch)");
+        }
+
+        int entryCount = footer.entryCount;
+        if (kit != null) {
+            ByteBuffer decrypted = ByteBuffer.allocate(kit.dataLength(directory.remaining()));
+            kit.decryptSegment(directory, decrypted);
+            directory = decrypted.flip();
+            entryCount = VarInt.readInt(directory);
+        }
+
+        List<Record> records = new ArrayList<>(entryCount);
+        CompactState state = new CompactState();
+        if (isCompact) {
+            readDirectoryTable(directory, state);
+        }
+        for (int i = 0; i < entryCount; i++) {
+            records.add(isCompact ? Record.readCompact(directory, state) : Record.read(directory));
+        }
+
+        int tables = 0;
+        if (hasTableFlags) {
+            tables = directory.get() & 0xFF;
+            if ((tables & ~KNOWN_TABLES) != 0) {
+                throw new IOException("Unsupported archive directory tables: 0x" + Integer.toHexString(tables));
+            }
+        }
+
+        List<Chunk> chunks = new ArrayList<>();
+        int chunkSize = 0;
+        if (hasTableFlags ? (tables & TABLE_CHUNKS) != 0 : directory.hasRemaining()) {
+            chunkSize = directory.getInt();
+            int chunkCount = directory.getInt();
+            for (int i = 0; i < chunkCount; i++) {
+                chunks.add(Chunk.read(directory));
+            }
+        }
+
+        List<Chunk> blocks = new ArrayList<>();
+        if (hasTableFlags ? (tables & TABLE_BLOCKS) != 0 : directory.hasRemaining()) {
+            int blockCount = directory.getInt();
+            for (int i = 0; i < blockCount; i++) {
+                blocks.add(Chunk.read(directory));
+            }
+        }
+        if (directory.hasRemaining()) {
+            throw new IOException("Malformed archive directory: " + directory.remaining() + " unexpected trailing bytes");
+        }
+
+        ArchiveDirectory archiveDirectory = new ArchiveDirectory(records, chunks, blocks, footer.directoryOffset);
+        archiveDirectory.chunkSize = chunkSize;
+        archiveDirectory.isCompact = isCompact;
+        archiveDirectory.isEncrypted = kit != null;
+        archiveDirectory.hasTableFlags = hasTableFlags;
+        return archiveDirectory;
+    }
+
+    /**
+     * Reads exactly `length` bytes at `position`
+     * @param channel Channel to read from
+     * @param position Absolute position
+     * @param length Number of bytes
+     * @return Buffer (flipped) containing the bytes
+     */
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
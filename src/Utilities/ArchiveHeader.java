@@ -0,0 +1,284 @@
+package Utilities;
+
+import Configs.Constants;
+import Models.Codec;
+import Utilities.Binaries.BinaryString;
+import Utilities.Codecs.CodecRegistry;
+import Utilities.Codecs.DeflateCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Header of an enhanced archive, written before the first entry
+ * <li>Signature (10 bytes)</li>
+ * <li>Format version (1 byte)</li>
+ * <li>File separator of the system that wrote the archive (1 byte)</li>
+ * <li>Feature flags (1 byte): 0x01 encrypted, 0x02 compression, 0x04 integrity, 0x08 incremental, 0x10 deduplicated,
+ * 0x20 solid, 0x40 compact metadata, 0x80 extended header</li>
+ * <li>Nonce of encrypted archives ({@link EnhancedArchiverAPI#NONCE_LENGTH} bytes)</li>
+ * <li>Fields of extended headers: total length (2 bytes) + fields (see {@link #encodeFields})</li>
+ */
+public class ArchiveHeader {
+    public static final BinaryString SIGNATURE = new BinaryString("archivitv2");
+
+    /**
+     * Header feature flags understood by this reader
+     */
+    private static final int KNOWN_FLAGS = 0xFF;
+
+    /**
+     * Tags of the fields of extended headers (see {@link #encodeFields})
+     */
+    private static final int FIELD_CODEC = 1;
+    private static final int FIELD_DICTIONARY = 2;
+    private static final int FIELD_SEGMENT_SIZE = 3;
+    private static final int FIELD_KEY_DERIVATION = 4;
+    private static final int FIELD_ENCRYPTED_DIRECTORY = 5;
+
+    public final byte version;
+    public final String fileSeparator;
+    public final boolean isPasswordProtected;
+    public final boolean hasCompression;
+    public final boolean hasIntegrityCheck;
+    public final boolean isIncremental;
+    public final boolean isDeduplicated;
+    public final boolean isSolid;
+    public final boolean hasCompactMetadata;
+    public final boolean hasSegmentNonces; // encrypted with a nonce per segment (see CipherKit#encryptSegment)
+    public final byte[] nonce; // null if not password protected
+    public final Codec codec; // codec new data is compressed with (without the dictionary if it is encrypted)
+    public final byte[] dictionary; // preset dictionary as stored (encrypted if password protected), null if none
+    public final int segmentSize; // size of the encrypted segments
+    public final KeyDerivation keyDerivation; // derivation of the key from the password
+    public final boolean hasEncryptedDirectory; // entry metadata only in the encrypted directory
+    public final int length;
+    private Codec unlockedCodec; // codec with the decrypted dictionary
+
+    public ArchiveHeader(byte version, String fileSeparator, byte flags, byte[] nonce, Codec codec, byte[] dictionary,
+                         int segmentSize, KeyDerivation keyDerivation, boolean hasEncryptedDirectory,
+                         int length) {
+        this.version = version;
+        this.fileSeparator = fileSeparator;
+        this.isPasswordProtected = (flags & 0x01) != 0;
+        this.hasCompression = (flags & 0x02) != 0;
+        this.hasIntegrityCheck = (flags & 0x04) != 0;
+        this.isIncremental = (flags & 0x08) != 0;
+        this.isDeduplicated = (flags & 0x10) != 0;
+        this.isSolid = (flags & 0x20) != 0;
+        this.hasCompactMetadata = (flags & 0x40) != 0;
+        this.hasSegmentNonces = isPasswordProtected && version >= EnhancedArchiverAPI.SEGMENT_NONCE_FORMAT_VERSION;
+        this.nonce = nonce;
+        this.codec = dictionary != null && nonce == null ? codec.withDictionary(dictionary) : codec;
+        this.dictionary = dictionary;
+        this.segmentSize = segmentSize;
+        this.keyDerivation = keyDerivation;
+        this.hasEncryptedDirectory = hasEncryptedDirectory;
+        this.length = length;
+    }
+
+    /**
+     * Returns the codec of an ID, at the level of the archive codec if it is the same codec
+     * With adaptive compression, the data may have been compressed at another level, which decompression does not
+     * depend on and the archive does not record. The preset dictionary of a password-protected archive is left out, see {@link #codecFor(int, CipherKit)}.
+     * @param id Codec ID stored with an entry
+     * @return Codec
+     * @throws IOException If the ID is unknown to this reader
+     */
+    public Codec codecFor(int id) throws IOException {
+        return id == codec.getId() ? codec : CodecRegistry.forId(id);
+    }
+
+    /**
+     * Returns the codec of an ID, with the preset dictionary of the archive if it is the same codec
+     * @param id Codec ID stored with an entry, chunk or block
+     * @param kit Cipher kit decrypting the dictionary (null for unencrypted archives)
+     * @return Codec
+     * @throws Exception If the ID is unknown to this reader or the dictionary cannot be decrypted
+     */
+    public Codec codecFor(int id, CipherKit kit) throws Exception {
+        return id == codec.getId() ? getCodec(kit) : CodecRegistry.forId(id);
+    }
+
+    /**
+     * Returns the codec new data is compressed with, including the preset dictionary
+     * @param kit Cipher kit decrypting the dictionary (null for unencrypted archives)
+     * @return Codec
+     * @throws Exception If the dictionary cannot be decrypted
+     */
+    public synchronized Codec getCodec(CipherKit kit) throws Exception {
+        if (dictionary == null || nonce == null || kit == null) {
+            return codec;
+        }
+        if (unlockedCodec == null) {
+            unlockedCodec = codec.withDictionary(kit.decryptSegment(dictionary));
+        }
+        return unlockedCodec;
+    }
+
+    /**
+     * Writes the header of a new archive in the current format version
+     * @param bso Archive output stream, positioned at the start of the archive
+     * @param flags Feature flags (the extended header flag is set if there are fields)
+     * @param nonce Archive nonce (null for unencrypted archives)
+     * @param fields Encoded header fields (see {@link #encodeFields})
+     */
+    public static void write(BufferedStream.Output bso, byte flags, byte[] nonce, byte[] fields) throws IOException {
+        bso.write(SIGNATURE.toByteArray());
+        bso.write(new byte[]{EnhancedArchiverAPI.FORMAT_VERSION});
+        bso.write(EnhancedArchiverAPI.getFileSeparator().getBytes(StandardCharsets.UTF_8));
+        bso.write(new byte[]{(byte) (fields.length > 0 ? flags | 0x80 : flags)});
+
+        if (nonce != null) {
+            bso.write(nonce);
+        }
+
+        if (fields.length > 0) {
+            bso.putShort((short) fields.length);
+            bso.write(fields);
+        }
+    }
+
+    /**
+     * Reads and validates the archive header, leaving `bsi` positioned at the first entry
+     * @param bsi Archive input stream
+     * @return Archive header
+     * @throws IOException If the header cannot be read
+     */
+    public static ArchiveHeader read(BufferedStream.ReadableStream bsi) throws IOException {
+        // Read and verify signature
+        BinaryString signature = new BinaryString();
+        signature.fromByteArray(bsi.readNBytes(SIGNATURE.getSize()));
+        if (!signature.data.equals(SIGNATURE.data)) {
+            throw new IllegalArgumentException("Not an enhanced archive or unsupported format");
+        }
+
+        // Read format version
+        byte version = bsi.readNBytes(1)[0];
+        if (version < EnhancedArchiverAPI.LEGACY_FORMAT_VERSION || version > EnhancedArchiverAPI.FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported archive format version: " + version);
+        }
+
+        // Read file separator
+        String fileSeparator = new String(bsi.readNBytes(1), StandardCharsets.UTF_8);
+
+        // Read feature flags
+        byte flags = bsi.readNBytes(1)[0];
+        if ((flags & 0xff & ~KNOWN_FLAGS) != 0) {
+            throw new IllegalArgumentException("Unsupported archive features: 0x" + Integer.toHexString(flags & 0xff));
+        }
+
+        // Read nonce if password protected
+        byte[] nonce = (flags & 0x01) != 0 ? bsi.readNBytes(EnhancedArchiverAPI.NONCE_LENGTH) : null;
+
+        // Read header fields of extended headers
+        Codec codec = CodecRegistry.DEFLATE;
+        byte[] dictionary = null;
+        int segmentSize = Constants.DICTIONARY_MAX_SIZE;
+        KeyDerivation keyDerivation = KeyDerivation.PBKDF2_SHA1;
+        boolean hasEncryptedDirectory = false;
+        int fieldsLength = 0;
+        if ((flags & 0x80) != 0) {
+            fieldsLength = Short.toUnsignedInt(ByteBuffer.wrap(bsi.readNBytes(2)).getShort());
+            ByteBuffer fields = ByteBuffer.wrap(bsi.readNBytes(fieldsLength));
+            try {
+                while (fields.hasRemaining()) {
+                    int tag = fields.get() & 0xff;
+                    int length = VarInt.readInt(fields);
+                    ByteBuffer value = fields.slice(fields.position(), length);
+                    fields.position(fields.position() + length);
+
+                    if (tag == FIELD_CODEC) {
+                        codec = CodecRegistry.forId(value.get() & 0xff, value.get() & 0xff);
+                    } else if (tag == FIELD_DICTIONARY) {
+                        dictionary = new byte[length];
+                        value.get(dictionary);
+                    } else if (tag == FIELD_SEGMENT_SIZE) {
+                        segmentSize = VarInt.readInt(value);
+                        if (segmentSize < Constants.MIN_CHUNK_SIZE || segmentSize > Constants.DICTIONARY_MAX_SIZE) {
+                            throw new IOException("Malformed archive header");
+                        }
+                    } else if (tag == FIELD_KEY_DERIVATION) {
+                        try {
+                            keyDerivation = new KeyDerivation(value.get() & 0xff, VarInt.readInt(value));
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException("Unsupported key derivation: " + e.getMessage());
+                        }
+                    } else if (tag == FIELD_ENCRYPTED_DIRECTORY) {
+                        if (nonce == null || (flags & 0x40) == 0) {
+                            throw new IOException("Malformed archive header");
+                        }
+                        hasEncryptedDirectory = true;
+                    } else {
+                        throw new IllegalArgumentException("Unsupported archive header field: " + tag);
+                    }
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException("Malformed archive header", e);
+            }
+            fieldsLength += 2;
+        }
+
+        return new ArchiveHeader(version, fileSeparator, flags, nonce, codec, dictionary, segmentSize, keyDerivation,
+            hasEncryptedDirectory, SIGNATURE.getSize() + 3 + (nonce != null ? EnhancedArchiverAPI.NONCE_LENGTH : 0)
+                + fieldsLength);
+    }
+
+    /**
+     * Encodes the header fields that differ from their defaults, written after the nonce of extended headers
+     * (preceded by their total length, 2 bytes)
+     * <li>Each field: tag (1 byte) + value length (varint, a single byte below 128) + value</li>
+     * <li>Codec (tag 1): codec ID (1 byte) + level (1 byte), unless DEFLATE at the default level</li>
+     * <li>Preset dictionary (tag 2): dictionary bytes (encrypted for password-protected archives), if any</li>
+     * <li>Segment size (tag 3): size of the encrypted segments (varint), unless unencrypted or 30 MB</li>
+     * <li>Key derivation (tag 4): function ID (1 byte) + iterations (varint), unless unencrypted or PBKDF2-HMAC-SHA1
+     * at 65,536 iterations</li>
+     * <li>Encrypted directory (tag 5): no value, present if the directory is encrypted</li>
+     * @param codec Codec of the archive (null if compression is disabled)
+     * @param kit Cipher kit encrypting the dictionary (null for unencrypted archives)
+     * @param segmentSize Size of the encrypted segments
+     * @param keyDerivation Key derivation of the password
+     * @param hasEncryptedDirectory Whether the directory is encrypted
+     * @return Encoded fields (empty if all fields have their default values)
+     */
+    public static byte[] encodeFields(Codec codec, CipherKit kit, int segmentSize, KeyDerivation keyDerivation,
+                                      boolean hasEncryptedDirectory) throws Exception {
+        ByteArrayOutputStream fields = new ByteArrayOutputStream();
+        if (codec != null && (codec.getId() != DeflateCodec.ID || codec.getLevel() != DeflateCodec.DEFAULT_LEVEL)) {
+            fields.write(FIELD_CODEC);
+            VarInt.write(fields, 2);
+            fields.write(codec.getId());
+            fields.write(codec.getLevel());
+        }
+        if (codec != null && codec.getDictionary() != null) {
+            byte[] dictionary = kit != null
+                ? kit.encryptSegment(codec.getDictionary(), 0, codec.getDictionary().length) : codec.getDictionary();
+            fields.write(FIELD_DICTIONARY);
+            VarInt.write(fields, dictionary.length);
+            fields.writeBytes(dictionary);
+        }
+        if (kit != null && segmentSize != Constants.DICTIONARY_MAX_SIZE) {
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            VarInt.write(value, segmentSize);
+            fields.write(FIELD_SEGMENT_SIZE);
+            VarInt.write(fields, value.size());
+            fields.writeBytes(value.toByteArray());
+        }
+        if (kit != null && !keyDerivation.isDefault()) {
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            value.write(keyDerivation.id);
+            VarInt.write(value, keyDerivation.iterations);
+            fields.write(FIELD_KEY_DERIVATION);
+            VarInt.write(fields, value.size());
+            fields.writeBytes(value.toByteArray());
+        }
+        if (hasEncryptedDirectory) {
+            fields.write(FIELD_ENCRYPTED_DIRECTORY);
+            VarInt.write(fields, 0);
+        }
+        return fields.toByteArray();
+    }
+}
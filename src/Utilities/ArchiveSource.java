@@ -0,0 +1,467 @@
+package Utilities;
+
+import javax.crypto.AEADBadTagException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * Archive file opened with the configured reader engine, decoding the data of its entries
+ * Entries stored as a single unit are read (and decrypted) whole, solid blocks are decoded once for all of their
+ * entries, and the chunks and blocks of streamed entries are decoded on a worker pool, only those covering a range for
+ * range reads. Data is verified against its integrity metadata as it is decoded.
+ */
+class ArchiveSource {
+    final FileChannel channel;
+    final MappedInput mapped; // null for the stream engine
+    final ResourceManager rm;
+
+    /**
+     * Last solid block decoded, so that consecutive entries of a block decode it once
+     */
+    private ArchiveDirectory.Chunk cachedBlock;
+    private ByteBuffer cachedBlockData;
+
+    private final int threads; // threads of the worker pool
+    private WorkerPool workers; // started on first use
+
+    /**
+     * Opens an archive or the volumes of a split archive
+     * @param archivePath Archive path (including the `.archivit` extension)
+     * @param readerEngine Reader engine (split archives are always streamed)
+     * @param threads Number of threads decoding the chunks of an entry (0 for one per available processor)
+     * @param rm Resource manager owning the opened files
+     */
+    ArchiveSource(String archivePath, EnhancedArchiverAPI.ReaderEngine readerEngine, int threads,
+                  ResourceManager rm) throws IOException {
+        this.rm = rm;
+        this.threads = threads;
+        this.channel = rm.manage(Files.exists(Path.of(archivePath))
+            ? FileChannel.open(Path.of(archivePath), StandardOpenOption.READ)
+            : VolumeChannel.open(archivePath));
+
+        // Mapped windows would span volumes, so split archives are always streamed
+        this.mapped = readerEngine == EnhancedArchiverAPI.ReaderEngine.MAPPED && !(channel instanceof VolumeChannel)
+            ? rm.manage(new MappedInput(channel)) : null;
+    }
+
+    /**
+     * Returns an input positioned at `position`
+     * @param position Absolute position
+     * @return Input
+     */
+    BufferedStream.ReadableStream at(long position) throws IOException {
+        if (mapped != null) {
+            return mapped.seek(position);
+        }
+        // The stream only wraps the managed channel, so it is not registered for closing itself
+        return new BufferedStream.Input(Channels.newInputStream(channel.position(position)));
+    }
+
+    /**
+     * Reads the archive header
+     * @return Archive header
+     * @throws IOException If the header cannot be read
+     */
+    ArchiveHeader readHeader() throws IOException {
+        return ArchiveHeader.read(at(0));
+    }
+
+    /**
+     * Returns the pool decoding the chunks of entries
+     * @return Worker pool
+     */
+    WorkerPool workers() {
+        if (workers == null) {
+            workers = rm.manage(new WorkerPool(threads));
+        }
+        return workers;
+    }
+
+    /**
+     * Reads the central directory
+     * @param header Archive header
+     * @param kit Cipher kit (null for unencrypted archives, only used if the directory is encrypted)
+     * @return Directory, or null if the archive has none
+     * @throws IllegalArgumentException If the directory is encrypted and no kit is given
+     * @throws AEADBadTagException If the kit does not decrypt the directory (wrong password)
+     */
+    ArchiveDirectory readDirectory(ArchiveHeader header, CipherKit kit) throws IOException, GeneralSecurityException {
+        if (header.hasEncryptedDirectory && kit == null) {
+            throw new IllegalArgumentException("Archive metadata is encrypted, a password is required");
+        }
+        CipherKit directoryKit = header.hasEncryptedDirectory ? kit : null;
+        boolean hasTableFlags = header.version >= EnhancedArchiverAPI.DIRECTORY_TABLES_FORMAT_VERSION;
+        return mapped != null ? ArchiveDirectory.read(mapped, header.hasCompactMetadata, hasTableFlags, directoryKit)
+            : ArchiveDirectory.read(channel, header.hasCompactMetadata, hasTableFlags, directoryKit);
+    }
+
+    /**
+     * Decodes a solid block, reusing the previous result for the same block
+     * @param header Archive header
+     * @param block Block to decode
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param record Directory record of the entry being read (for error messages)
+     * @return Original block data
+     */
+    ByteBuffer readBlock(ArchiveHeader header, ArchiveDirectory.Chunk block, CipherKit kit,
+                         ArchiveDirectory.Record record) throws Exception {
+        if (block != cachedBlock) {
+            cachedBlockData = null; // release the previous block before decoding the next one
+            cachedBlockData = readChunk(header, block, kit, record);
+            cachedBlock = block;
+        }
+        return cachedBlockData.duplicate();
+    }
+
+    /**
+     * Checks the password against the first encrypted segment of the archive, so that an update never mixes keys
+     * @param directory Archive directory
+     * @param kit Cipher kit derived from the password
+     * @throws AEADBadTagException If the password is incorrect
+     */
+    void verifyPassword(ArchiveDirectory directory, CipherKit kit) throws Exception {
+        List<Long> dataOffsets = new ArrayList<>();
+        for (ArchiveDirectory.Chunk chunk : directory.chunks) {
+            dataOffsets.add(chunk.offset);
+        }
+        for (ArchiveDirectory.Chunk block : directory.blocks) {
+            dataOffsets.add(block.offset);
+        }
+        for (ArchiveDirectory.Record record : directory.records) {
+            if (!record.isDeleted && record.chunks == null && record.block < 0) {
+                dataOffsets.add(record.dataOffset);
+            }
+        }
+
+        for (long dataOffset : dataOffsets) {
+            BufferedStream.ReadableStream bsi = at(dataOffset);
+            if (bsi.getBoolean()) {
+                kit.decryptSegment(bsi.readSegment(BufferedStream.JavaStreamSegmentType.LONG));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Decodes the data of one entry (decrypting, verifying and decompressing as needed) with reads confined to that entry
+     * @param header Archive header
+     * @param directory Archive directory (holding the chunks of deduplicated entries)
+     * @param record Directory record of the entry
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param out Stream receiving the original file data
+     */
+    void readEntryData(ArchiveHeader header, ArchiveDirectory directory, ArchiveDirectory.Record record, CipherKit kit,
+                       OutputStream out) throws Exception {
+        if (record.chunks != null) {
+            // Chunks are read in order, and decrypted and decompressed on the worker pool
+            DataIntegrity.Checksum checksum = record.integrity != null ? new DataIntegrity.Checksum() : null;
+            WorkerPool workers = workers();
+            Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+            for (int i = 0; i <= record.chunks.length; i++) {
+                if (i < record.chunks.length) {
+                    ArchiveDirectory.Chunk chunk = directory.chunks.get(record.chunks[i]);
+                    if (kit != null) {
+                        List<ByteBuffer> segments = readSegments(at(chunk.offset));
+                        pending.add(workers.submit(() -> decodeChunk(header, chunk,
+                            ByteBuffer.wrap(decryptSegments(segments, kit)), kit, record)));
+                    } else {
+                        ByteBuffer processedData = readStoredChunk(header, chunk, kit);
+                        pending.add(workers.submit(() -> decodeChunk(header, chunk, processedData, kit, record)));
+                    }
+                }
+
+                while (!pending.isEmpty() && (pending.size() >= workers.getMaxPending() || i == record.chunks.length)) {
+                    ByteBuffer data = WorkerPool.await(pending.poll());
+                    if (checksum != null) {
+                        checksum.update(data);
+                    }
+                    writeBuffer(data, out);
+                }
+            }
+
+            if (checksum != null && !record.integrity.verify(checksum)) {
+                throw new IOException("Integrity check failed for entry: " + record.file.path.data);
+            }
+            return;
+        }
+
+        if (record.block >= 0) {
+            ByteBuffer data = readBlock(header, directory.blocks.get(record.block), kit, record)
+                .slice(record.blockOffset, (int) record.file.size.data);
+
+            if (record.integrity != null && !record.integrity.verify(data)) {
+                throw new IOException("Integrity check failed for entry: " + record.file.path.data);
+            }
+
+            writeBuffer(data, out);
+            return;
+        }
+
+        BufferedStream.ReadableStream bsi = at(record.dataOffset);
+        if (bsi instanceof MappedInput && !header.isPasswordProtected) {
+            // Verify and write (or inflate) straight from the mapping
+            ByteBuffer processedData = ((MappedInput) bsi).readSegmentSlice(BufferedStream.JavaStreamSegmentType.LONG);
+
+            if (record.integrity != null && !record.integrity.verify(processedData)) {
+                throw new IOException("Integrity check failed for entry: " + record.file.path.data);
+            }
+
+            if (record.isCompressed) {
+                out.write(header.codecFor(record.codec, kit).decompress(processedData, (int) record.file.size.data));
+            } else {
+                writeBuffer(processedData, out);
+            }
+            return;
+        }
+
+        byte[] processedData = readData(bsi, kit);
+
+        if (record.integrity != null && !record.integrity.verify(processedData)) {
+            throw new IOException("Integrity check failed for entry: " + record.file.path.data);
+        }
+
+        out.write(record.isCompressed
+            ? header.codecFor(record.codec, kit).decompress(ByteBuffer.wrap(processedData), (int) record.file.size.data)
+            : processedData);
+    }
+
+    /**
+     * Decodes the bytes `[start, end)` of one entry
+     * @param header Archive header
+     * @param directory Archive directory
+     * @param record Directory record of the entry
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param start Offset of the first byte
+     * @param end Offset after the last byte (at most the entry size)
+     * @param out Stream receiving the data
+     */
+    void readEntryRange(ArchiveHeader header, ArchiveDirectory directory, ArchiveDirectory.Record record, CipherKit kit,
+                        long start, long end, OutputStream out) throws Exception {
+        if (record.chunks != null) {
+            long position = 0;
+            for (int chunkIndex : record.chunks) {
+                ArchiveDirectory.Chunk chunk = directory.chunks.get(chunkIndex);
+                if (position >= end) {
+                    break;
+                }
+                if (position + chunk.length > start) {
+                    ByteBuffer data = readChunk(header, chunk, kit, record);
+                    int from = (int) Math.max(0, start - position);
+                    int to = (int) Math.min(chunk.length, end - position);
+                    writeBuffer(data.slice(from, to - from), out);
+                }
+                position += chunk.length;
+            }
+            return;
+        }
+
+        if (record.block >= 0) {
+            ByteBuffer block = readBlock(header, directory.blocks.get(record.block), kit, record);
+            writeBuffer(block.slice(record.blockOffset + (int) start, (int) (end - start)), out);
+            return;
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        readEntryData(header, directory, record, kit, data);
+        out.write(data.toByteArray(), (int) start, (int) (end - start));
+    }
+
+    /**
+     * Writes the data of one entry to a file, restoring its attributes (the record keeps the path of the entry)
+     * @param header Archive header
+     * @param directory Archive directory
+     * @param record Directory record of the entry
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param destination Destination file
+     * @param createdDirectories Directories created so far, which are created once for all of their files
+     *                           (null to create the parent directories of every file)
+     * @return `true` if successful, otherwise `false`
+     * @throws AEADBadTagException If the password is incorrect
+     */
+    boolean extractToFile(ArchiveHeader header, ArchiveDirectory directory, ArchiveDirectory.Record record,
+                          CipherKit kit, Path destination, Set<Path> createdDirectories) throws Exception {
+        if (createdDirectories != null) {
+            createDirectories(destination.getParent(), createdDirectories);
+        }
+
+        final AEADBadTagException[] badTag = {null};
+        boolean extractSuccess = record.file.createFile(destination.toFile(), new SerializableFile.CreateFileCallback() {
+            @Override
+            public void writeBinaryData(File file) {
+                try (FileOutputStream fos = new FileOutputStream(file)) {
+                    readEntryData(header, directory, record, kit, fos);
+                } catch (AEADBadTagException e) {
+                    badTag[0] = e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, createdDirectories == null);
+
+        if (badTag[0] != null) {
+            Files.deleteIfExists(destination);
+            throw badTag[0];
+        }
+        return extractSuccess;
+    }
+
+    /**
+     * Decodes one chunk of a deduplicated entry or a solid block, verifying it against its SHA-256 digest if integrity
+     * checks are enabled
+     * @param header Archive header
+     * @param chunk Chunk to decode
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param record Directory record of the entry (for error messages)
+     * @return Original chunk data
+     */
+    private ByteBuffer readChunk(ArchiveHeader header, ArchiveDirectory.Chunk chunk, CipherKit kit,
+                                 ArchiveDirectory.Record record) throws Exception {
+        return decodeChunk(header, chunk, readStoredChunk(header, chunk, kit), kit, record);
+    }
+
+    /**
+     * Reads (and decrypts) the stored data of a chunk or solid block
+     * @param header Archive header
+     * @param chunk Chunk to read
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @return Stored (possibly compressed) chunk data
+     */
+    private ByteBuffer readStoredChunk(ArchiveHeader header, ArchiveDirectory.Chunk chunk, CipherKit kit) throws Exception {
+        BufferedStream.ReadableStream bsi = at(chunk.offset);
+        return bsi instanceof MappedInput && !header.isPasswordProtected
+            ? ((MappedInput) bsi).readSegmentSlice(BufferedStream.JavaStreamSegmentType.LONG)
+            : ByteBuffer.wrap(readData(bsi, kit));
+    }
+
+    /**
+     * Decompresses the stored data of a chunk or solid block and verifies it against its SHA-256 digest if integrity
+     * checks are enabled (safe to run on the worker pool)
+     * @param header Archive header
+     * @param chunk Chunk being decoded
+     * @param processedData Stored chunk data
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param record Directory record of the entry (for error messages)
+     * @return Original chunk data
+     */
+    private static ByteBuffer decodeChunk(ArchiveHeader header, ArchiveDirectory.Chunk chunk, ByteBuffer processedData,
+                                          CipherKit kit, ArchiveDirectory.Record record) throws Exception {
+        ByteBuffer data = chunk.isCompressed
+            ? ByteBuffer.wrap(header.codecFor(chunk.codec, kit).decompress(processedData, chunk.length))
+            : processedData;
+
+        if (header.hasIntegrityCheck && !Arrays.equals(DataIntegrity.calculateSHA256Digest(data), chunk.sha256)) {
+            throw new IOException("Integrity check failed for entry: " + record.file.path.data);
+        }
+
+        return data;
+    }
+
+    /**
+     * Reads data written by {@link EntryWriter#writeData}
+     * @param bsi Archive input positioned at the framed data
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @return Data as it was passed to {@link EntryWriter#writeData}
+     */
+    private static byte[] readData(BufferedStream.ReadableStream bsi, CipherKit kit) throws Exception {
+        if (kit == null) {
+            return bsi.readSegment(BufferedStream.JavaStreamSegmentType.LONG);
+        }
+        return decryptSegments(readSegments(bsi), kit);
+    }
+
+    /**
+     * Reads the encrypted segments of data written by {@link EntryWriter#writeData}, leaving their decryption to the caller
+     * @param bsi Archive input positioned at the framed data
+     * @return Encrypted segments (slices of the mapping for mapped archives)
+     */
+    private static List<ByteBuffer> readSegments(BufferedStream.ReadableStream bsi) throws IOException {
+        List<ByteBuffer> segments = new ArrayList<>();
+        while (bsi.getBoolean()) {
+            segments.add(bsi instanceof MappedInput
+                ? ((MappedInput) bsi).readSegmentSlice(BufferedStream.JavaStreamSegmentType.LONG)
+                : ByteBuffer.wrap(bsi.readSegment(BufferedStream.JavaStreamSegmentType.LONG)));
+        }
+        return segments;
+    }
+
+    /**
+     * Decrypts encrypted segments straight into one array (safe to run on the worker pool)
+     * @param segments Encrypted segments (consumed)
+     * @param kit Cipher kit
+     * @return Decrypted data
+     */
+    private static byte[] decryptSegments(List<ByteBuffer> segments, CipherKit kit) throws Exception {
+        long length = 0;
+        for (ByteBuffer segment : segments) {
+            length += kit.dataLength(segment.remaining());
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Encrypted data too large: " + length + " bytes");
+        }
+
+        ByteBuffer decrypted = ByteBuffer.allocate((int) length);
+        for (ByteBuffer segment : segments) {
+            kit.decryptSegment(segment, decrypted);
+        }
+        return decrypted.array();
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer, handing them to the file channel directly when possible
+     * @param buffer Buffer to write
+     * @param out Destination stream
+     */
+    private static void writeBuffer(ByteBuffer buffer, OutputStream out) throws IOException {
+        if (out instanceof FileOutputStream) {
+            FileChannel channel = ((FileOutputStream) out).getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return;
+        }
+
+        byte[] chunk = new byte[Math.min(buffer.remaining(), 65536)];
+        while (buffer.hasRemaining()) {
+            int count = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, count);
+            out.write(chunk, 0, count);
+        }
+    }
+
+    /**
+     * Creates a directory unless it was already created
+     * @param directory Directory to create (null for none)
+     * @param createdDirectories Directories created so far
+     */
+    static void createDirectories(Path directory, Set<Path> createdDirectories) throws IOException {
+        if (directory != null && createdDirectories.add(directory)) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * Checks whether an archive exists as a single file or as split volumes
+     * @param archivePath Archive path (including the `.archivit` extension)
+     * @return `true` if the archive exists
+     */
+    static boolean exists(String archivePath) {
+        return Files.exists(Path.of(archivePath)) || VolumeChannel.isSplit(archivePath);
+    }
+}
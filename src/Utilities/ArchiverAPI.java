@@ -12,7 +12,6 @@ import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -52,6 +51,12 @@ public class ArchiverAPI {
         public final String archivePath;
         public final String password; // null for no password protection
         
+        /**
+         * Size of the chunks file data is read and encrypted in ({@link Configs.Constants#MIN_CHUNK_SIZE} to
+         * {@link Configs.Constants#DICTIONARY_MAX_SIZE}); smaller chunks bound the memory of each job
+         */
+        public int chunkSize = Configs.Constants.DICTIONARY_MAX_SIZE;
+        
         public CreateArchiveConfig(String sourcePath, String archivePath) {
             this.sourcePath = sourcePath;
             this.archivePath = archivePath;
@@ -72,6 +77,19 @@ public class ArchiverAPI {
         void onProgress(String operation, String fileName, long processed, long total);
         void onComplete(String operation, long totalFiles, long totalBytes);
         void onError(String operation, String fileName, Exception error);
+        
+        /**
+         * Called instead of {@link #onComplete(String, long, long)} when deduplication statistics are available
+         */
+        default void onComplete(String operation, long totalFiles, long totalBytes, DedupStatistics statistics) {
+            onComplete(operation, totalFiles, totalBytes);
+        }
+        
+        /**
+         * Called before completion when compression statistics are available
+         */
+        default void onCompressionStatistics(String operation, CompressionStatistics statistics) {
+        }
     }
     
     /**
@@ -127,6 +145,12 @@ public class ArchiverAPI {
             kit = new CipherKit(CipherKit.generateNonce(NONCE_LENGTH), config.password);
         }
         
+        // Validate chunk size
+        if (config.chunkSize < Configs.Constants.MIN_CHUNK_SIZE || config.chunkSize > Configs.Constants.DICTIONARY_MAX_SIZE) {
+            return new OperationResult(false, "Chunk size must be between " + Configs.Constants.MIN_CHUNK_SIZE + " and "
+                + Configs.Constants.DICTIONARY_MAX_SIZE + " bytes");
+        }
+        
         // Count files first for progress reporting
         final List<String> filesToProcess = new ArrayList<>();
         IO.getFilesAndDirs(folderPath, new IO.OnRetrieve() {
@@ -201,45 +225,39 @@ public class ArchiverAPI {
                         }
                         
                         final BufferedStream.Input bsi = new BufferedStream.Input(new FileInputStream(file));
-                        final byte[] buffer = new byte[Configs.Constants.DICTIONARY_MAX_SIZE];
-                        int bufferReadLength = buffer.length;
+                        // Read in chunks of at most the chunk size, into a pooled buffer no larger than needed for the file
+                        final int chunkSize = (int) Math.min(Math.max(fileSize, Configs.Constants.MIN_CHUNK_SIZE), config.chunkSize);
+                        final byte[] buffer = BufferPool.SHARED.acquire(chunkSize);
+                        int bufferReadLength = chunkSize;
                         
                         long fileSizeLeft = fileSize;
-                        while (bsi.available() > 0) {
-                            if (bsi.available() < buffer.length) {
-                                bufferReadLength = bsi.available();
-                            }
-                            
-                            bsi.readNBytes(buffer, 0, bufferReadLength);
-                            
-                            if (isPasswordProtected2) {
-                                boolean hasNextSegment = (fileSizeLeft - bufferReadLength > 0);
+                        try {
+                            while (bsi.available() > 0) {
+                                if (bsi.available() < chunkSize) {
+                                    bufferReadLength = bsi.available();
+                                }
                                 
-                                if (bufferReadLength == buffer.length) {
-                                    byte[] encoded = kit2.exec(buffer, CipherKit.CipherMode.ENCRYPT);
+                                bsi.readNBytes(buffer, 0, bufferReadLength);
+                                
+                                if (isPasswordProtected2) {
+                                    boolean hasNextSegment = (fileSizeLeft - bufferReadLength > 0);
+                                    
+                                    // Encrypt the bytes read straight from `buffer`
+                                    byte[] encoded = kit2.exec(buffer, 0, bufferReadLength, CipherKit.CipherMode.ENCRYPT);
                                     
                                     // Write encoded bytes segment
                                     bso.writeSegment(encoded, BufferedStream.JavaStreamSegmentType.LONG);
-                                } else {
-                                    byte[] buffer2 = new byte[bufferReadLength];
-                                    {
-                                        // Copy `buffer` bytes to `buffer2`
-                                        System.arraycopy(buffer, 0, buffer2, 0, bufferReadLength);
-                                    }
                                     
-                                    byte[] encoded = kit2.exec(buffer2, CipherKit.CipherMode.ENCRYPT);
+                                    // Add `1` byte to indicate if there is next segment
+                                    bso.putBoolean(hasNextSegment);
                                     
-                                    // Write encoded bytes segment
-                                    bso.writeSegment(encoded, BufferedStream.JavaStreamSegmentType.LONG);
+                                    fileSizeLeft -= bufferReadLength;
+                                } else {
+                                    bso.write(buffer, 0, bufferReadLength);
                                 }
-                                
-                                // Add `1` byte to indicate if there is next segment
-                                bso.putBoolean(hasNextSegment);
-                                
-                                fileSizeLeft -= bufferReadLength;
-                            } else {
-                                bso.write(bufferReadLength != buffer.length ? Arrays.copyOfRange(buffer, 0, bufferReadLength) : buffer);
                             }
+                        } finally {
+                            BufferPool.SHARED.release(buffer);
                         }
                         bsi.close();
                         processedCount[0]++;
@@ -453,13 +471,16 @@ public class ArchiverAPI {
                                     FileOutputStream fos = new FileOutputStream(file);
                                     
                                     long length = embeddedFile.size.data;
-                                    while (length > 0) {
-                                        fos.write(bsi.readNBytes(length < Configs.Constants.DICTIONARY_MAX_SIZE ? (int) length : Configs.Constants.DICTIONARY_MAX_SIZE));
-                                        
-                                        length -= Configs.Constants.DICTIONARY_MAX_SIZE;
-                                        if (length < 0) {
-                                            length = 0;
+                                    byte[] buffer = BufferPool.SHARED.acquire((int) Math.min(length, Configs.Constants.DICTIONARY_MAX_SIZE));
+                                    try {
+                                        while (length > 0) {
+                                            int chunkLength = (int) Math.min(length, Configs.Constants.DICTIONARY_MAX_SIZE);
+                                            fos.write(buffer, 0, bsi.readNBytes(buffer, 0, chunkLength));
+                                            
+                                            length -= chunkLength;
                                         }
+                                    } finally {
+                                        BufferPool.SHARED.release(buffer);
                                     }
                                     
                                     fos.flush();
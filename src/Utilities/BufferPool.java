@@ -0,0 +1,105 @@
+package Utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Byte arrays shared by the archive operations of a process, so that reading and writing file data in chunks does not
+ * allocate a chunk-sized array for every file
+ * Arrays come in power-of-two sizes from {@link #MIN_SIZE} on, at least as long as requested (callers keep track of
+ * the length they use). Released arrays are kept for the next caller until the pool holds its retained limit, after
+ * which they are left to the garbage collector, so the memory held between jobs stays bounded however many run.
+ */
+public class BufferPool {
+    /**
+     * Smallest array handed out
+     */
+    public static final int MIN_SIZE = 4096;
+
+    /**
+     * Largest array handed out
+     */
+    public static final int MAX_SIZE = 1 << 30;
+
+    /**
+     * Bytes retained by the shared pool
+     */
+    public static final long SHARED_RETAINED_BYTES = 128L * 1024 * 1024;
+
+    /**
+     * Pool shared by all archive operations
+     */
+    public static final BufferPool SHARED = new BufferPool(SHARED_RETAINED_BYTES);
+
+    private final long maxRetainedBytes;
+    private final List<Deque<byte[]>> classes; // released arrays by size class (log2 of the size)
+    private long retainedBytes;
+
+    /**
+     * @param maxRetainedBytes Bytes of released arrays kept for reuse at most
+     */
+    public BufferPool(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException("Retained bytes cannot be negative");
+        }
+
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.classes = new ArrayList<>(Integer.SIZE);
+        for (int i = 0; i < Integer.SIZE; i++) {
+            classes.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Takes an array of at least `length` bytes from the pool, or allocates one
+     * @param length Bytes needed
+     * @return Array (its content is undefined), to be handed back with {@link #release}
+     */
+    public byte[] acquire(int length) {
+        if (length < 0 || length > MAX_SIZE) {
+            throw new IllegalArgumentException("Buffer length must be between 0 and " + MAX_SIZE + ": " + length);
+        }
+
+        int sizeClass = sizeClass(length);
+        synchronized (this) {
+            Deque<byte[]> released = classes.get(sizeClass);
+            if (!released.isEmpty()) {
+                byte[] buffer = released.pop();
+                retainedBytes -= buffer.length;
+                return buffer;
+            }
+        }
+        return new byte[1 << sizeClass];
+    }
+
+    /**
+     * Hands an array taken with {@link #acquire} back to the pool
+     * @param buffer Array (ignored if null or not of a pool size)
+     */
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || buffer.length < MIN_SIZE || Integer.bitCount(buffer.length) != 1
+            || retainedBytes + buffer.length > maxRetainedBytes) {
+            return;
+        }
+
+        classes.get(Integer.numberOfTrailingZeros(buffer.length)).push(buffer);
+        retainedBytes += buffer.length;
+    }
+
+    /**
+     * Returns the bytes of released arrays kept by the pool
+     * @return Retained bytes
+     */
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    private static int sizeClass(int length) {
+        if (length <= MIN_SIZE) {
+            return Integer.numberOfTrailingZeros(MIN_SIZE);
+        }
+        return Integer.SIZE - Integer.numberOfLeadingZeros(length - 1);
+    }
+}
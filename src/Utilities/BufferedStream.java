@@ -69,7 +69,27 @@ public class BufferedStream {
          */
         boolean getBoolean();
     }
-    public static class Input extends BufferedInputStream implements JavaStreamRead, ParsableInput {
+    public interface ReadableStream extends JavaStreamRead, ParsableInput {
+        /**
+         * Returns the number of bytes that can still be read
+         * @return Remaining bytes (capped at Integer.MAX_VALUE)
+         */
+        int available() throws IOException;
+
+        /**
+         * Reads exactly `len` bytes
+         * @param len Number of bytes
+         * @return Bytes read
+         */
+        byte[] readNBytes(int len) throws IOException;
+
+        /**
+         * Skips exactly `n` bytes
+         * @param n Number of bytes
+         */
+        void skipNBytes(long n) throws IOException;
+    }
+    public static class Input extends BufferedInputStream implements ReadableStream {
         private final ByteBuffer shortBuffer = ByteBuffer.allocate(Short.BYTES);
         private final ByteBuffer intBuffer = ByteBuffer.allocate(Integer.BYTES);
         private final ByteBuffer longBuffer = ByteBuffer.allocate(Long.BYTES);
@@ -104,12 +124,14 @@ public class BufferedStream {
                 }
             else if (segmentType == JavaStreamSegmentType.LONG)
                 try {
-                    int segmentSize = (int) getLong();
+                    long segmentSize = getLong();
 
                     if (segmentSize < 0)
                         throw new Exception("Segment size was negative");
+                    if (segmentSize > Integer.MAX_VALUE - 8)
+                        throw new Exception("Segment too large to be read at once: " + segmentSize + " bytes");
 
-                    return readNBytes(segmentSize);
+                    return readNBytes((int) segmentSize);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
@@ -143,12 +165,14 @@ public class BufferedStream {
                 }
             } else if (segmentType == JavaStreamSegmentType.LONG) {
                 try {
-                    int segmentSize = (int) getLong();
+                    long segmentSize = getLong();
 
                     if (segmentSize < 0)
                         throw new Exception("Segment size was negative");
+                    if (segmentSize > Integer.MAX_VALUE - 8)
+                        throw new Exception("Segment too large to be read at once: " + segmentSize + " bytes");
 
-                    callback.onSegmentRetrieve(readNBytes(segmentSize), segmentType);
+                    callback.onSegmentRetrieve(readNBytes((int) segmentSize), segmentType);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
@@ -230,9 +254,40 @@ public class BufferedStream {
         private final ByteBuffer shortBuffer = ByteBuffer.allocate(Short.BYTES);
         private final ByteBuffer intBuffer = ByteBuffer.allocate(Integer.BYTES);
         private final ByteBuffer longBuffer = ByteBuffer.allocate(Long.BYTES);
+        private long position;
 
         public Output(OutputStream out) {
+            this(out, 0);
+        }
+
+        /**
+         * Initialises a new Output whose position starts at `position` (e.g. when appending to an existing file)
+         * @param out Underlying stream
+         * @param position Initial position
+         */
+        public Output(OutputStream out, long position) {
             super(out);
+            this.position = position;
+        }
+
+        /**
+         * Returns the number of bytes written through this stream (plus the initial position)
+         * @return Current position
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            super.write(b);
+            position++;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            position += len;
         }
 
         @Override
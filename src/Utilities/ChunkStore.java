@@ -0,0 +1,132 @@
+package Utilities;
+
+import Models.Codec;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
+
+/**
+ * Content-defined chunks of a deduplicated archive, keyed by their SHA-256 digest
+ */
+class ChunkStore {
+    final ContentChunker chunker;
+    final List<ArchiveDirectory.Chunk> chunks;
+    final Map<ByteBuffer, Integer> index = new HashMap<>();
+    final DedupStatistics statistics;
+    final CompressionStatistics compressionStatistics;
+    final WorkerPool workers;
+
+    /**
+     * @param chunker Chunker splitting the file data
+     * @param chunks Chunk table of the archive directory (existing chunks are reused)
+     * @param statistics Statistics to update
+     * @param compressionStatistics Compression statistics to update (null if compression is disabled)
+     * @param workers Pool compressing new chunks
+     */
+    ChunkStore(ContentChunker chunker, List<ArchiveDirectory.Chunk> chunks, DedupStatistics statistics,
+               CompressionStatistics compressionStatistics, WorkerPool workers) {
+        this.chunker = chunker;
+        this.chunks = chunks;
+        this.statistics = statistics;
+        this.compressionStatistics = compressionStatistics;
+        this.workers = workers;
+        for (int i = 0; i < chunks.size(); i++) {
+            index.put(ByteBuffer.wrap(chunks.get(i).sha256), i);
+        }
+    }
+
+    /**
+     * Splits data into chunks and writes the ones not stored yet
+     * The data is read through a window of a few maximum-size chunks, which gives the same boundaries as chunking
+     * it all at once. New chunks are compressed on the worker pool and take the next indices of the chunk table.
+     * @param bso Archive output stream
+     * @param in File data
+     * @param size Size of the file (the window is no larger than needed to hold all of it)
+     * @param checksum Checksum to update with the data (null if integrity checks are disabled)
+     * @param relativePath Path of the entry (for warnings)
+     * @param codecs Codec compressing a new chunk of a given length if beneficial (returning null to disable
+     *               compression)
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param segmentSize Size of the encrypted segments
+     * @return Indices of the chunks holding the data
+     */
+    int[] write(BufferedStream.Output bso, InputStream in, long size, DataIntegrity.Checksum checksum,
+                String relativePath, LongFunction<Codec> codecs, CipherKit kit, int segmentSize) throws Exception {
+        Deque<Future<EntryWriter.EncodedBlock>> pending = new ArrayDeque<>();
+        List<Integer> references;
+
+        // One byte more than the file tells its end without another read
+        byte[] data = BufferPool.SHARED.acquire((int) Math.min(Math.max(chunker.maxSize * 2, 1 << 20), size + 1));
+        try {
+            references = chunk(bso, in, data, checksum, relativePath, codecs, kit, segmentSize, pending);
+        } finally {
+            BufferPool.SHARED.release(data);
+        }
+        while (!pending.isEmpty()) {
+            chunks.add(EntryWriter.writeBlock(bso, WorkerPool.await(pending.poll())));
+        }
+
+        return references.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Splits data read through a window into chunks, handing the new ones to the worker pool
+     * @return Indices of the chunks holding the data
+     */
+    private List<Integer> chunk(BufferedStream.Output bso, InputStream in, byte[] data,
+                                DataIntegrity.Checksum checksum, String relativePath, LongFunction<Codec> codecs,
+                                CipherKit kit, int segmentSize,
+                                Deque<Future<EntryWriter.EncodedBlock>> pending) throws Exception {
+        List<Integer> references = new ArrayList<>();
+        int offset = 0, end = 0;
+        boolean isEnd = false;
+        while (true) {
+            // Keep at least one maximum-size chunk ahead so that no boundary is cut short
+            if (!isEnd && end - offset < chunker.maxSize) {
+                System.arraycopy(data, offset, data, 0, end - offset);
+                end -= offset;
+                offset = 0;
+                end += in.readNBytes(data, end, data.length - end);
+                isEnd = end < data.length;
+            }
+            if (offset == end) {
+                break;
+            }
+
+            int length = chunker.nextChunk(data, offset, end);
+            if (checksum != null) {
+                checksum.update(data, offset, length);
+            }
+            byte[] sha256 = DataIntegrity.calculateSHA256Digest(ByteBuffer.wrap(data, offset, length));
+
+            Integer chunkIndex = index.get(ByteBuffer.wrap(sha256));
+            if (chunkIndex == null) {
+                byte[] chunk = BufferPool.SHARED.acquire(length);
+                System.arraycopy(data, offset, chunk, 0, length);
+                chunkIndex = chunks.size() + pending.size();
+                index.put(ByteBuffer.wrap(sha256), chunkIndex);
+                pending.add(EntryWriter.encodeBlock(workers, chunk, length, sha256, codecs.apply(length),
+                    references.isEmpty(), compressionStatistics, relativePath, kit, segmentSize));
+                if (pending.size() >= workers.getMaxPending()) {
+                    chunks.add(EntryWriter.writeBlock(bso, WorkerPool.await(pending.poll())));
+                }
+
+                statistics.uniqueChunkCount++;
+                statistics.uniqueBytes += length;
+            }
+
+            references.add(chunkIndex);
+            statistics.chunkCount++;
+            offset += length;
+        }
+        return references;
+    }
+}
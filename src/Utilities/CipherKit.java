@@ -2,29 +2,75 @@ package Utilities;
 
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CipherKit {
+    /**
+     * Length of the nonce counter stored in front of each segment encrypted with segment nonces
+     */
+    public static final int COUNTER_LENGTH = 8;
+
+    /**
+     * Length of the GCM authentication tag ending each encrypted segment
+     */
+    public static final int TAG_LENGTH = 16;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     public SecretKey key;
     public byte[] nonce;
     public char[] password;
 
+    /**
+     * Whether {@link #encryptSegment} derives a nonce for each segment, rather than using `nonce` for all of them as
+     * archives written before did
+     */
+    public final boolean hasSegmentNonces;
+
+    /**
+     * Next nonce counter, starting at a random value so that separate writes to the same archive (such as updates)
+     * do not collide
+     */
+    private final AtomicLong counter = new AtomicLong(RANDOM.nextLong());
+
     /**
      * Initialises a new CipherKit instance and generates a SecretKey
      * @param nonce Nonce bytes
      * @param password Password
      */
     public CipherKit(byte[] nonce, String password) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        key = generateSecretKey(password, nonce);
+        this(nonce, password, false);
+    }
+
+    /**
+     * Initialises a new CipherKit instance and generates a SecretKey
+     * @param nonce Nonce bytes (at least {@link #COUNTER_LENGTH} long)
+     * @param password Password
+     * @param hasSegmentNonces Derive a nonce for each segment (see {@link #encryptSegment})
+     */
+    public CipherKit(byte[] nonce, String password, boolean hasSegmentNonces) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        this(nonce, password, hasSegmentNonces, KeyDerivation.PBKDF2_SHA1);
+    }
+
+    /**
+     * Initialises a new CipherKit instance and derives its SecretKey (or takes it from the {@link KeyCache})
+     * @param nonce Nonce bytes (at least {@link #COUNTER_LENGTH} long), also the salt of the key derivation
+     * @param password Password
+     * @param hasSegmentNonces Derive a nonce for each segment (see {@link #encryptSegment})
+     * @param keyDerivation Key derivation of the archive
+     */
+    public CipherKit(byte[] nonce, String password, boolean hasSegmentNonces, KeyDerivation keyDerivation) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        key = keyDerivation.deriveKey(password, nonce);
         this.nonce = nonce;
         this.password = password.toCharArray();
+        this.hasSegmentNonces = hasSegmentNonces;
     }
     
     /**
@@ -41,23 +87,13 @@ public class CipherKit {
     }
 
     /**
-     * Generates a new SecretKey object from the specified parameters
+     * Generates a new SecretKey object from the specified parameters (PBKDF2-HMAC-SHA1, 65,536 iterations)
      * @param password Password
      * @param nonce Nonce bytes
      * @return SecretKey instance
      */
     public static SecretKey generateSecretKey(String password, byte[] nonce) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        char[] passwordChars = password.toCharArray();
-        try {
-            KeySpec spec = new PBEKeySpec(passwordChars, nonce, 65536, 128); // AES-128
-            SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            byte[] key = secretKeyFactory.generateSecret(spec).getEncoded();
-
-            return new SecretKeySpec(key, "AES");
-        } finally {
-            // Clear password from memory
-            java.util.Arrays.fill(passwordChars, '\0');
-        }
+        return KeyDerivation.PBKDF2_SHA1.deriveKey(password, nonce);
     }
 
     public enum CipherMode {
@@ -75,6 +111,110 @@ public class CipherKit {
         return buildCipher(key, nonce, mode).doFinal(bytes);
     }
 
+    /**
+     * Encrypts (if `mode` is `CipherMode.ENCRYPT`) or Decrypts (if mode is `CipherMode.DECRYPT`) part of a byte array,
+     * without copying it first
+     * @param bytes Byte array holding the data
+     * @param offset Offset of the data
+     * @param length Length of the data
+     * @param mode Process mode
+     * @return Processed byte array
+     */
+    public byte[] exec(byte[] bytes, int offset, int length, CipherMode mode) throws InvalidAlgorithmParameterException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return buildCipher(key, nonce, mode).doFinal(bytes, offset, length);
+    }
+
+    /**
+     * Returns the length of a segment encrypted by {@link #encryptSegment}
+     * @param length Length of the data
+     * @return Segment length
+     */
+    public int segmentLength(int length) {
+        return (hasSegmentNonces ? COUNTER_LENGTH : 0) + length + TAG_LENGTH;
+    }
+
+    /**
+     * Returns the length of the data of a segment encrypted by {@link #encryptSegment}
+     * @param segmentLength Segment length
+     * @return Data length
+     * @throws AEADBadTagException If the segment is too short to hold a tag
+     */
+    public int dataLength(int segmentLength) throws AEADBadTagException {
+        int length = segmentLength - (hasSegmentNonces ? COUNTER_LENGTH : 0) - TAG_LENGTH;
+        if (length < 0) {
+            throw new AEADBadTagException("Truncated segment");
+        }
+        return length;
+    }
+
+    /**
+     * Encrypts a segment of data (safe to call from several threads)
+     * @param bytes Byte array holding the data
+     * @param offset Offset of the data
+     * @param length Length of the data
+     * @return Encrypted segment
+     */
+    public byte[] encryptSegment(byte[] bytes, int offset, int length) throws GeneralSecurityException {
+        byte[] segment = new byte[segmentLength(length)];
+        encryptSegment(ByteBuffer.wrap(bytes, offset, length), ByteBuffer.wrap(segment));
+        return segment;
+    }
+
+    /**
+     * Encrypts the remaining bytes of a buffer into another buffer, with the cipher of the current thread (safe to
+     * call from several threads)
+     * With segment nonces, the segment starts with a nonce counter that is unique within the archive (the kit hands
+     * out consecutive counters) and the segment is encrypted with the nonce XOR the counter, so that GCM never sees
+     * the same nonce twice. Otherwise the segment is encrypted with `nonce` as it is.
+     * @param data Data to encrypt (consumed)
+     * @param output Buffer receiving the {@link #segmentLength} bytes of the segment
+     */
+    public void encryptSegment(ByteBuffer data, ByteBuffer output) throws GeneralSecurityException {
+        if (!hasSegmentNonces) {
+            // The archive nonce is used for every segment, which the reusable cipher refuses
+            buildCipher(key, nonce, CipherMode.ENCRYPT).doFinal(data, output);
+            return;
+        }
+
+        long segmentCounter = counter.getAndIncrement();
+        output.putLong(segmentCounter);
+        WorkerContext.get().cipher(key, segmentNonce(segmentCounter), CipherMode.ENCRYPT).doFinal(data, output);
+    }
+
+    /**
+     * Decrypts a segment encrypted by {@link #encryptSegment} (safe to call from several threads)
+     * @param segment Encrypted segment
+     * @return Decrypted data
+     */
+    public byte[] decryptSegment(byte[] segment) throws GeneralSecurityException {
+        byte[] data = new byte[dataLength(segment.length)];
+        decryptSegment(ByteBuffer.wrap(segment), ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * Decrypts the remaining bytes of a buffer holding a segment encrypted by {@link #encryptSegment} into another
+     * buffer, with the cipher of the current thread (safe to call from several threads)
+     * @param segment Encrypted segment (consumed)
+     * @param output Buffer receiving the {@link #dataLength} bytes of the data
+     */
+    public void decryptSegment(ByteBuffer segment, ByteBuffer output) throws GeneralSecurityException {
+        dataLength(segment.remaining());
+        byte[] segmentNonce = hasSegmentNonces ? segmentNonce(segment.getLong()) : nonce;
+        WorkerContext.get().cipher(key, segmentNonce, CipherMode.DECRYPT).doFinal(segment, output);
+    }
+
+    /**
+     * Returns the nonce of a segment: `nonce` with its last {@link #COUNTER_LENGTH} bytes XOR the counter
+     */
+    private byte[] segmentNonce(long segmentCounter) {
+        byte[] segmentNonce = nonce.clone();
+        for (int i = 0; i < COUNTER_LENGTH; i++) {
+            segmentNonce[segmentNonce.length - 1 - i] ^= (byte) (segmentCounter >>> (8 * i));
+        }
+        return segmentNonce;
+    }
+
     /**
      * Instantiates and returns a new Cipher object from the specified parameters
      * @param key Secret key
@@ -84,7 +224,7 @@ public class CipherKit {
      */
     public static Cipher buildCipher(SecretKey key, byte[] nonce, CipherMode mode) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
         Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(128, nonce);
+        GCMParameterSpec parameterSpec = new GCMParameterSpec(TAG_LENGTH * 8, nonce);
 
         cipher.init(mode == CipherMode.ENCRYPT ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key, parameterSpec);
 
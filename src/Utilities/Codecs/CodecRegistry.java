@@ -0,0 +1,77 @@
+package Utilities.Codecs;
+
+import Models.Codec;
+
+import java.io.IOException;
+
+/**
+ * Codecs by ID (as stored in archives) and by name (as given on the command line)
+ */
+public class CodecRegistry {
+    public static final Codec STORE = new StoreCodec();
+    public static final Codec DEFLATE = new DeflateCodec(DeflateCodec.DEFAULT_LEVEL);
+    public static final Codec LZ4 = new LZ4Codec();
+
+    /**
+     * Returns the codec of an ID at its default level
+     * @param id Codec ID
+     * @return Codec
+     * @throws IOException If the ID is unknown to this reader
+     */
+    public static Codec forId(int id) throws IOException {
+        return forId(id, 0);
+    }
+
+    /**
+     * Returns the codec of an ID
+     * @param id Codec ID
+     * @param level Compression level (0 for the default level)
+     * @return Codec
+     * @throws IOException If the ID or level is unknown to this reader
+     */
+    public static Codec forId(int id, int level) throws IOException {
+        switch (id) {
+            case StoreCodec.ID:
+                return STORE;
+            case DeflateCodec.ID:
+                if (level == 0 || level == DeflateCodec.DEFAULT_LEVEL) {
+                    return DEFLATE;
+                }
+                if (level < DeflateCodec.MIN_LEVEL || level > DeflateCodec.MAX_LEVEL) {
+                    throw new IOException("Unsupported DEFLATE level: " + level);
+                }
+                return new DeflateCodec(level);
+            case LZ4Codec.ID:
+                return LZ4;
+            default:
+                throw new IOException("Unsupported compression codec: " + id);
+        }
+    }
+
+    /**
+     * Parses a codec name: `store`, `lz4`, `deflate` or `deflate:<level>`
+     * @param name Codec name
+     * @return Codec
+     * @throws IllegalArgumentException If the name or level is invalid
+     */
+    public static Codec forName(String name) {
+        String[] parts = name.trim().toLowerCase().split(":", 2);
+        switch (parts[0]) {
+            case "store":
+                return STORE;
+            case "lz4":
+                return LZ4;
+            case "deflate":
+                if (parts.length == 1) {
+                    return DEFLATE;
+                }
+                try {
+                    return new DeflateCodec(Integer.parseInt(parts[1]));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid DEFLATE level: " + parts[1]);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown codec: " + name + " (expected store, lz4 or deflate[:1-9])");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package Utilities.Codecs;
+
+import Models.Codec;
+import Utilities.DataIntegrity;
+import Utilities.WorkerContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * DEFLATE codec (see {@link DataIntegrity#compress(byte[], int)}), the codec of all archives written before codecs
+ * could be selected
+ * With a preset dictionary, compression is primed with it and the data records its checksum, so that decompression
+ * only applies it to data that needs it.
+ */
+public class DeflateCodec extends Codec {
+    public static final int ID = 1;
+    public static final int MIN_LEVEL = 1;
+    public static final int MAX_LEVEL = 9;
+
+    /**
+     * Level of {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+     */
+    public static final int DEFAULT_LEVEL = 6;
+
+    private final int level;
+    private final byte[] dictionary; // null for none
+
+    /**
+     * @param level Compression level ({@link #MIN_LEVEL} fastest to {@link #MAX_LEVEL} smallest)
+     */
+    public DeflateCodec(int level) {
+        this(level, null);
+    }
+
+    /**
+     * @param level Compression level ({@link #MIN_LEVEL} fastest to {@link #MAX_LEVEL} smallest)
+     * @param dictionary Preset dictionary (null for none)
+     */
+    public DeflateCodec(int level, byte[] dictionary) {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("DEFLATE level must be between " + MIN_LEVEL + " and " + MAX_LEVEL + ": " + level);
+        }
+
+        this.level = level;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate:" + level;
+    }
+
+    @Override
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public Codec withDictionary(byte[] dictionary) {
+        return new DeflateCodec(level, dictionary);
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        return compress(data, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int maxLength) throws IOException {
+        return compress(data, data.length, maxLength);
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int length, int maxLength) throws IOException {
+        ByteBuffer compressed = WorkerContext.get().deflate(ByteBuffer.wrap(data, 0, length), level, maxLength, dictionary);
+        if (compressed == null) {
+            return null;
+        }
+        byte[] result = new byte[compressed.remaining()];
+        compressed.get(result);
+        return result;
+    }
+
+    @Override
+    public byte[] decompress(ByteBuffer compressedData, int originalLength) throws IOException {
+        byte[] data = new byte[originalLength];
+        WorkerContext.get().inflate(compressedData, ByteBuffer.wrap(data), dictionary);
+        return data;
+    }
+}
@@ -0,0 +1,280 @@
+package Utilities.Codecs;
+
+import Models.Codec;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * LZ4 block format codec in pure Java
+ * Data is encoded as sequences of a token (literal length in the high nibble, match length - 4 in the low nibble,
+ * 15 meaning that further length bytes follow), the literals, a 2-byte little-endian match offset and the extra match
+ * length bytes. The last sequence only has literals. Compression uses a single hash table of recent positions and
+ * skips ahead faster the longer no match is found, which trades ratio for speed; decompression is a plain copy loop
+ * several times faster than inflating.
+ */
+public class LZ4Codec extends Codec {
+    public static final int ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_DISTANCE = 65535;
+
+    /**
+     * The last 5 bytes are always literals and the last match starts at least 12 bytes before the end
+     */
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+
+    private static final int HASH_LOG = 16;
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    /**
+     * Returns the size of the largest block `length` bytes can compress to
+     * @param length Original length
+     * @return Maximum compressed length
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public byte[] compress(byte[] src) {
+        return encode(src, src.length);
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int length, int maxLength) {
+        byte[] compressed = encode(data, length);
+        return compressed.length <= maxLength ? compressed : null;
+    }
+
+    /**
+     * Compresses the first `length` bytes of an array
+     */
+    private byte[] encode(byte[] src, int length) {
+        byte[] dest = new byte[maxCompressedLength(length)];
+        int op = 0, anchor = 0;
+
+        if (length > MF_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            int mfLimit = length - MF_LIMIT;
+            int matchLimit = length - LAST_LITERALS;
+            int ip = 0;
+
+            search:
+            while (true) {
+                // Find a match, stepping further the longer none is found
+                int ref;
+                int attempts = 1 << SKIP_TRIGGER;
+                while (true) {
+                    if (ip > mfLimit) {
+                        break search;
+                    }
+                    int h = hash(src, ip);
+                    ref = table[h];
+                    table[h] = ip;
+                    if (ref < ip && ip - ref <= MAX_DISTANCE && readInt(src, ref) == readInt(src, ip)) {
+                        break;
+                    }
+                    ip += attempts++ >>> SKIP_TRIGGER;
+                }
+
+                // Extend the match backwards into the pending literals
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+
+                // Emit sequences as long as another match follows right away
+                while (true) {
+                    int matchLength = MIN_MATCH + count(src, ip + MIN_MATCH, ref + MIN_MATCH, matchLimit);
+                    op = writeSequence(dest, op, src, anchor, ip - anchor, ip - ref, matchLength);
+                    ip += matchLength;
+                    anchor = ip;
+                    if (ip > mfLimit) {
+                        break search;
+                    }
+
+                    table[hash(src, ip - 2)] = ip - 2;
+                    int h = hash(src, ip);
+                    ref = table[h];
+                    table[h] = ip;
+                    if (ip - ref > MAX_DISTANCE || readInt(src, ref) != readInt(src, ip)) {
+                        break;
+                    }
+                }
+                ip++;
+            }
+        }
+
+        // Last literals
+        int literalLength = length - anchor;
+        dest[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        if (literalLength >= 15) {
+            op = writeLength(dest, op, literalLength - 15);
+        }
+        System.arraycopy(src, anchor, dest, op, literalLength);
+        op += literalLength;
+
+        return Arrays.copyOf(dest, op);
+    }
+
+    @Override
+    public byte[] decompress(ByteBuffer compressedData, int originalLength) throws IOException {
+        // Mapped buffers are copied once, the copy loop runs much faster on an array
+        byte[] src;
+        int ip, end;
+        if (compressedData.hasArray()) {
+            src = compressedData.array();
+            ip = compressedData.arrayOffset() + compressedData.position();
+        } else {
+            src = new byte[compressedData.remaining()];
+            compressedData.duplicate().get(src);
+            ip = 0;
+        }
+        end = ip + compressedData.remaining();
+
+        byte[] dest = new byte[originalLength];
+        int op = 0;
+        while (true) {
+            if (ip >= end) {
+                throw new IOException("Truncated LZ4 data");
+            }
+            int token = src[ip++] & 0xff;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (ip >= end || literalLength > originalLength) {
+                        throw new IOException("Malformed LZ4 data: literal length out of bounds");
+                    }
+                    b = src[ip++] & 0xff;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > end - ip || literalLength > originalLength - op) {
+                throw new IOException("Malformed LZ4 data: literals out of bounds");
+            }
+            System.arraycopy(src, ip, dest, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+
+            // The last sequence ends after its literals
+            if (ip == end) {
+                break;
+            }
+
+            if (end - ip < 2) {
+                throw new IOException("Truncated LZ4 data");
+            }
+            int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+            ip += 2;
+            if (offset == 0 || offset > op) {
+                throw new IOException("Malformed LZ4 data: match offset out of bounds");
+            }
+
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= end || matchLength > originalLength) {
+                        throw new IOException("Malformed LZ4 data: match length out of bounds");
+                    }
+                    b = src[ip++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > originalLength - op) {
+                throw new IOException("Malformed LZ4 data: match out of bounds");
+            }
+
+            // Overlapping matches repeat the last `offset` bytes, which is copied in doubling pieces
+            int ref = op - offset;
+            for (int copied = 0; copied < matchLength; ) {
+                int count = Math.min(op + copied - ref, matchLength - copied);
+                System.arraycopy(dest, ref, dest, op + copied, count);
+                copied += count;
+            }
+            op += matchLength;
+        }
+
+        if (op != originalLength) {
+            throw new IOException("Decompressed length mismatch: " + op + " != " + originalLength);
+        }
+        return dest;
+    }
+
+    private static int hash(byte[] src, int position) {
+        return (readInt(src, position) * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] src, int position) {
+        return (int) INT.get(src, position);
+    }
+
+    /**
+     * Counts the bytes at `ip` matching those at `ref`, comparing 8 bytes at a time
+     */
+    private static int count(byte[] src, int ip, int ref, int limit) {
+        int start = ip;
+        while (ip < limit - 7) {
+            long diff = (long) LONG.get(src, ip) ^ (long) LONG.get(src, ref);
+            if (diff != 0) {
+                return ip - start + (Long.numberOfTrailingZeros(diff) >>> 3);
+            }
+            ip += 8;
+            ref += 8;
+        }
+        while (ip < limit && src[ip] == src[ref]) {
+            ip++;
+            ref++;
+        }
+        return ip - start;
+    }
+
+    private static int writeSequence(byte[] dest, int op, byte[] src, int literalStart, int literalLength, int offset,
+                                     int matchLength) {
+        int extraMatchLength = matchLength - MIN_MATCH;
+        dest[op++] = (byte) (Math.min(literalLength, 15) << 4 | Math.min(extraMatchLength, 15));
+        if (literalLength >= 15) {
+            op = writeLength(dest, op, literalLength - 15);
+        }
+        System.arraycopy(src, literalStart, dest, op, literalLength);
+        op += literalLength;
+
+        dest[op++] = (byte) offset;
+        dest[op++] = (byte) (offset >>> 8);
+        if (extraMatchLength >= 15) {
+            op = writeLength(dest, op, extraMatchLength - 15);
+        }
+        return op;
+    }
+
+    private static int writeLength(byte[] dest, int op, int length) {
+        while (length >= 255) {
+            dest[op++] = (byte) 255;
+            length -= 255;
+        }
+        dest[op++] = (byte) length;
+        return op;
+    }
+}
@@ -0,0 +1,40 @@
+package Utilities.Codecs;
+
+import Models.Codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Codec leaving data as it is, for archives whose data does not compress (media, already compressed files) or where
+ * speed is all that matters
+ */
+public class StoreCodec extends Codec {
+    public static final int ID = 0;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "store";
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        return data;
+    }
+
+    @Override
+    public byte[] decompress(ByteBuffer compressedData, int originalLength) throws IOException {
+        if (compressedData.remaining() != originalLength) {
+            throw new IOException("Stored data length mismatch: " + compressedData.remaining() + " != " + originalLength);
+        }
+
+        byte[] data = new byte[originalLength];
+        compressedData.duplicate().get(data);
+        return data;
+    }
+}
@@ -0,0 +1,206 @@
+package Utilities;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Estimates whether data is worth compressing before spending a full compression on it
+ * <li>Data starting with the signature of an already compressed format (zip, gzip, zstd, xz, bzip2, 7z, rar, jpeg,
+ * png, gif, webp, mp4 and other ISO media files, ogg, mp3) is stored as it is</li>
+ * <li>Otherwise a few windows spread across the data are sampled: a byte entropy close to 8 bits means random, encrypted
+ * or compressed data, a low entropy means that even entropy coding alone pays off</li>
+ * <li>In between, the sample is trial-compressed with the fastest DEFLATE level</li>
+ * Data no larger than the sample is never trial-compressed, compressing it outright costs the same.
+ */
+public class CompressibilityEstimator {
+    /**
+     * Data below this size is not compressed, the overhead is not worth it
+     */
+    public static final int MIN_SIZE = 100;
+
+    /**
+     * Number and size of the sampled windows
+     */
+    public static final int SAMPLE_WINDOWS = 4;
+    public static final int SAMPLE_WINDOW_SIZE = 4096;
+
+    /**
+     * Sampled entropy (bits per byte) above which data is considered incompressible, and below which it is compressed
+     * without a trial
+     */
+    public static final double HIGH_ENTROPY = 7.9;
+    public static final double LOW_ENTROPY = 6.0;
+
+    /**
+     * Compressed size of the sample (relative to the sample) below which the data is compressed
+     */
+    public static final double TRIAL_RATIO = 0.95;
+
+    public enum Decision {
+        /**
+         * Worth compressing
+         */
+        COMPRESS,
+        /**
+         * Below {@link #MIN_SIZE}
+         */
+        TOO_SMALL,
+        /**
+         * Starts with the signature of an already compressed format
+         */
+        COMPRESSED_FORMAT,
+        /**
+         * Sampled entropy above {@link #HIGH_ENTROPY}
+         */
+        HIGH_ENTROPY,
+        /**
+         * Trial compression of the sample saved too little
+         */
+        INCOMPRESSIBLE_SAMPLE
+    }
+
+    /**
+     * Signature bytes matching any byte, a bzip2 block size digit ('1' to '9') and an ID3v2 major version (2 to 4)
+     */
+    private static final int ANY = -1;
+    private static final int BZIP2_LEVEL = -2;
+    private static final int ID3_VERSION = -3;
+
+    /**
+     * Signatures of compressed formats, long enough not to match text (bzip2 and mp3 are checked up to the magic number
+     * of the first block and the ID3v2 version)
+     */
+    private static final int[][] SIGNATURES = {
+        {0x50, 0x4B, 0x03, 0x04}, // zip (and jar, docx, apk, ...)
+        {0x50, 0x4B, 0x05, 0x06}, // empty zip
+        {0x50, 0x4B, 0x07, 0x08}, // spanned zip
+        {0x1F, 0x8B}, // gzip
+        {0x28, 0xB5, 0x2F, 0xFD}, // zstd
+        {0xFD, '7', 'z', 'X', 'Z', 0x00}, // xz
+        {'B', 'Z', 'h', BZIP2_LEVEL, 0x31, 0x41, 0x59, 0x26, 0x53, 0x59}, // bzip2
+        {'7', 'z', 0xBC, 0xAF, 0x27, 0x1C}, // 7z
+        {'R', 'a', 'r', '!', 0x1A, 0x07}, // rar
+        {0x04, 0x22, 0x4D, 0x18}, // lz4 frame
+        {0xFF, 0xD8, 0xFF}, // jpeg
+        {0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A}, // png
+        {'G', 'I', 'F', '8', ANY, 'a'}, // gif
+        {'R', 'I', 'F', 'F', ANY, ANY, ANY, ANY, 'W', 'E', 'B', 'P'}, // webp
+        {ANY, ANY, ANY, ANY, 'f', 't', 'y', 'p'}, // mp4, mov, heic, ...
+        {'O', 'g', 'g', 'S'}, // ogg
+        {'I', 'D', '3', ID3_VERSION, 0x00}, // mp3
+        {0x1A, 0x45, 0xDF, 0xA3}, // matroska, webm
+    };
+
+    /**
+     * Estimates whether data is worth compressing
+     * @param data Data
+     * @param detectFormat Check for signatures of compressed formats (only meaningful at the start of a file)
+     * @return Decision
+     */
+    public static Decision estimate(byte[] data, boolean detectFormat) {
+        return estimate(data, data.length, detectFormat);
+    }
+
+    /**
+     * Estimates whether the first bytes of an array (e.g. a pooled buffer) are worth compressing
+     * @param data Array holding the data
+     * @param length Length of the data
+     * @param detectFormat Check for signatures of compressed formats (only meaningful at the start of a file)
+     * @return Decision
+     */
+    public static Decision estimate(byte[] data, int length, boolean detectFormat) {
+        if (length < MIN_SIZE) {
+            return Decision.TOO_SMALL;
+        }
+
+        if (detectFormat && isCompressedFormat(data, length)) {
+            return Decision.COMPRESSED_FORMAT;
+        }
+
+        // Sample windows spread evenly from the start to the end of the data
+        int windowSize = Math.min(SAMPLE_WINDOW_SIZE, length / SAMPLE_WINDOWS);
+        boolean isWhole = windowSize < SAMPLE_WINDOW_SIZE;
+        byte[] sample;
+        if (isWhole) {
+            sample = length == data.length ? data : Arrays.copyOf(data, length);
+        } else {
+            sample = new byte[SAMPLE_WINDOWS * windowSize];
+            for (int i = 0; i < SAMPLE_WINDOWS; i++) {
+                int offset = (int) ((long) (length - windowSize) * i / (SAMPLE_WINDOWS - 1));
+                System.arraycopy(data, offset, sample, i * windowSize, windowSize);
+            }
+        }
+
+        double entropy = entropy(sample);
+        if (entropy > HIGH_ENTROPY) {
+            return Decision.HIGH_ENTROPY;
+        }
+        if (entropy < LOW_ENTROPY || isWhole) {
+            return Decision.COMPRESS;
+        }
+
+        long trialLength = WorkerContext.get().deflatedLength(ByteBuffer.wrap(sample), Deflater.BEST_SPEED);
+        return trialLength < sample.length * TRIAL_RATIO ? Decision.COMPRESS : Decision.INCOMPRESSIBLE_SAMPLE;
+    }
+
+    /**
+     * Checks whether data starts with the signature of a compressed format
+     * @param data Data
+     * @return `true` if a signature matches
+     */
+    public static boolean isCompressedFormat(byte[] data) {
+        return isCompressedFormat(data, data.length);
+    }
+
+    private static boolean isCompressedFormat(byte[] data, int length) {
+        for (int[] signature : SIGNATURES) {
+            if (signature.length > length) {
+                continue;
+            }
+
+            boolean matches = true;
+            for (int i = 0; i < signature.length && matches; i++) {
+                matches = matches(signature[i], data[i] & 0xff);
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(int expected, int actual) {
+        switch (expected) {
+            case ANY:
+                return true;
+            case BZIP2_LEVEL:
+                return actual >= '1' && actual <= '9';
+            case ID3_VERSION:
+                return actual >= 2 && actual <= 4;
+            default:
+                return actual == expected;
+        }
+    }
+
+    /**
+     * Computes the Shannon entropy of the byte distribution
+     * @param data Data (not empty)
+     * @return Entropy in bits per byte (0 to 8)
+     */
+    public static double entropy(byte[] data) {
+        int[] counts = new int[256];
+        for (byte b : data) {
+            counts[b & 0xff]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / data.length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+}
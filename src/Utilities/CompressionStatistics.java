@@ -0,0 +1,159 @@
+package Utilities;
+
+import Models.Codec;
+import Utilities.CompressibilityEstimator.Decision;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compression decisions of an archive creation or update, reported through
+ * {@link ArchiverAPI.ProgressCallback#onCompressionStatistics(String, CompressionStatistics)}
+ * Each entry, block of a large file, deduplicated chunk and solid block counts once. Records are added from the
+ * worker threads compressing blocks.
+ */
+public class CompressionStatistics {
+    /**
+     * Name of the codec compressing the data
+     */
+    public final String codec;
+
+    private final long[] counts = new long[Decision.values().length];
+    private final long[] bytes = new long[Decision.values().length];
+
+    /**
+     * Number of times data was estimated compressible but compressing it saved too little to be kept
+     */
+    private long notBeneficialCount;
+
+    /**
+     * Bytes of data before and after compression
+     */
+    private long originalBytes;
+    private long storedBytes;
+
+    /**
+     * Time spent estimating and compressing, summed over all threads
+     */
+    private long compressionNanos;
+
+    /**
+     * Units compressed and their original bytes by codec name, which differ from {@link #codec} with adaptive
+     * compression
+     */
+    private final Map<String, long[]> codecs = new LinkedHashMap<>();
+
+    /**
+     * @param codec Name of the codec compressing the data
+     */
+    public CompressionStatistics(String codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Records a compression decision
+     * @param decision Estimated decision
+     * @param codec Codec the data was offered to
+     * @param originalLength Length of the data
+     * @param storedLength Length of the data as stored (equal to `originalLength` if it was not compressed)
+     * @param nanos Time spent estimating and compressing
+     */
+    public synchronized void record(Decision decision, Codec codec, long originalLength, long storedLength, long nanos) {
+        counts[decision.ordinal()]++;
+        bytes[decision.ordinal()] += originalLength;
+        if (decision == Decision.COMPRESS) {
+            if (storedLength == originalLength) {
+                notBeneficialCount++;
+            }
+            long[] codecUsage = codecs.computeIfAbsent(codec.getName(), name -> new long[2]);
+            codecUsage[0]++;
+            codecUsage[1] += originalLength;
+        }
+        originalBytes += originalLength;
+        storedBytes += storedLength;
+        compressionNanos += nanos;
+    }
+
+    /**
+     * Returns the number of times a decision was made
+     * @param decision Decision
+     * @return Count
+     */
+    public synchronized long getCount(Decision decision) {
+        return counts[decision.ordinal()];
+    }
+
+    /**
+     * Returns the bytes of data a decision was made for
+     * @param decision Decision
+     * @return Bytes before compression
+     */
+    public synchronized long getBytes(Decision decision) {
+        return bytes[decision.ordinal()];
+    }
+
+    /**
+     * Returns the number of times data was estimated compressible but stored as it is
+     * @return Count
+     */
+    public synchronized long getNotBeneficialCount() {
+        return notBeneficialCount;
+    }
+
+    /**
+     * Returns the time spent estimating and compressing so far, summed over all threads
+     * @return Nanoseconds
+     */
+    public synchronized long getCompressionNanos() {
+        return compressionNanos;
+    }
+
+    /**
+     * Returns the number of units compressed with a codec
+     * @param codec Codec name (e.g. `deflate:6`)
+     * @return Count
+     */
+    public synchronized long getCount(String codec) {
+        long[] codecUsage = codecs.get(codec);
+        return codecUsage != null ? codecUsage[0] : 0;
+    }
+
+    /**
+     * Returns the compression ratio (original bytes per stored byte)
+     * @return Ratio, 1 if nothing was compressed
+     */
+    public synchronized double getCompressionRatio() {
+        return storedBytes == 0 ? 1 : (double) originalBytes / storedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%s, %d of %d compressed", codec,
+            counts[Decision.COMPRESS.ordinal()] - notBeneficialCount, total));
+        if (notBeneficialCount > 0) {
+            builder.append(String.format(", %d not worth it", notBeneficialCount));
+        }
+        for (Decision decision : Decision.values()) {
+            if (decision != Decision.COMPRESS && counts[decision.ordinal()] > 0) {
+                builder.append(String.format(", %d skipped as %s (%s)", counts[decision.ordinal()],
+                    decision.name().toLowerCase().replace('_', ' '), ArchiverAPI.formatSize(bytes[decision.ordinal()])));
+            }
+        }
+        if (codecs.size() > 1 || (codecs.size() == 1 && !codecs.containsKey(codec))) {
+            builder.append(", by codec:");
+            for (Map.Entry<String, long[]> codecUsage : codecs.entrySet()) {
+                builder.append(String.format(" %s %d (%s)", codecUsage.getKey(), codecUsage.getValue()[0],
+                    ArchiverAPI.formatSize(codecUsage.getValue()[1])));
+            }
+        }
+        builder.append(String.format(", %s stored as %s, ratio %.2f", ArchiverAPI.formatSize(originalBytes),
+            ArchiverAPI.formatSize(storedBytes), getCompressionRatio()));
+        return builder.toString();
+    }
+}
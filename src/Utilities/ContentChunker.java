@@ -0,0 +1,84 @@
+package Utilities;
+
+/**
+ * Content-defined chunking with a Gear rolling hash
+ * Chunk boundaries depend only on the surrounding bytes, so data shifted by an insertion or deletion still splits into
+ * mostly the same chunks. A boundary is placed where the top bits of the hash are zero, which gives chunks of
+ * `averageSize` bytes on average, bounded by `minSize` and `maxSize`.
+ */
+public class ContentChunker {
+    public static final int DEFAULT_AVERAGE_SIZE = 65536;
+    public static final int MIN_AVERAGE_SIZE = 256;
+    public static final int MAX_AVERAGE_SIZE = 1 << 24;
+
+    /**
+     * Random value per byte value, generated from a fixed seed so that boundaries are stable across runs
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long state = 0x61726368697669L;
+        for (int i = 0; i < GEAR.length; i++) {
+            // SplitMix64
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    public final int minSize;
+    public final int averageSize;
+    public final int maxSize;
+    private final long mask;
+
+    /**
+     * @param averageSize Average chunk size (power of two between {@link #MIN_AVERAGE_SIZE} and {@link #MAX_AVERAGE_SIZE});
+     *                    chunks are between a quarter and four times this size
+     */
+    public ContentChunker(int averageSize) {
+        if (Integer.bitCount(averageSize) != 1 || averageSize < MIN_AVERAGE_SIZE || averageSize > MAX_AVERAGE_SIZE) {
+            throw new IllegalArgumentException("Average chunk size must be a power of two between "
+                + MIN_AVERAGE_SIZE + " and " + MAX_AVERAGE_SIZE + ": " + averageSize);
+        }
+
+        this.averageSize = averageSize;
+        this.minSize = averageSize / 4;
+        this.maxSize = averageSize * 4;
+
+        // Gear hash bit k depends on the last k + 1 bytes, so the boundary test uses the top bits
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        this.mask = -1L << (64 - bits);
+    }
+
+    /**
+     * Finds the end of the chunk starting at `offset`
+     * @param data Data to split
+     * @param offset Start of the chunk
+     * @param end End of the data
+     * @return Length of the chunk
+     */
+    public int nextChunk(byte[] data, int offset, int end) {
+        int remaining = end - offset;
+        if (remaining <= minSize) {
+            return remaining;
+        }
+
+        int limit = offset + Math.min(remaining, maxSize);
+        long hash = 0;
+
+        // Bytes before the minimum size cannot end a chunk, only the last 64 of them affect the hash
+        int i = offset + Math.max(0, minSize - 64);
+        for (; i < offset + minSize; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & mask) == 0) {
+                return i + 1 - offset;
+            }
+        }
+        return limit - offset;
+    }
+}
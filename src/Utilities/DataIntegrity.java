@@ -1,12 +1,11 @@
 package Utilities;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 /**
  * Utility class for data integrity verification and compression
@@ -19,21 +18,44 @@ public class DataIntegrity {
      * @return SHA-256 hash as hex string
      */
     public static String calculateSHA256(byte[] data) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(data);
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 algorithm not available", e);
+        return calculateSHA256(ByteBuffer.wrap(data));
+    }
+    
+    /**
+     * Calculates SHA-256 hash of the remaining bytes of a buffer (the buffer position is left unchanged)
+     * @param data Data to hash
+     * @return SHA-256 hash as hex string
+     */
+    public static String calculateSHA256(ByteBuffer data) {
+        return toHex(calculateSHA256Digest(data), 0, 32);
+    }
+    
+    /**
+     * Calculates the raw SHA-256 digest of the remaining bytes of a buffer (the buffer position is left unchanged)
+     * @param data Data to hash
+     * @return 32-byte digest
+     */
+    public static byte[] calculateSHA256Digest(ByteBuffer data) {
+        return WorkerContext.get().sha256(data);
+    }
+    
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    /**
+     * Converts bytes to a lowercase hex string
+     * @param bytes Source bytes
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @return Hex string
+     */
+    private static String toHex(byte[] bytes, int offset, int length) {
+        char[] hex = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int b = bytes[offset + i] & 0xff;
+            hex[i * 2] = HEX_DIGITS[b >>> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[b & 0x0f];
         }
+        return new String(hex);
     }
     
     /**
@@ -42,9 +64,16 @@ public class DataIntegrity {
      * @return CRC32 checksum
      */
     public static long calculateCRC32(byte[] data) {
-        CRC32 crc = new CRC32();
-        crc.update(data);
-        return crc.getValue();
+        return calculateCRC32(ByteBuffer.wrap(data));
+    }
+    
+    /**
+     * Calculates CRC32 checksum of the remaining bytes of a buffer (the buffer position is left unchanged)
+     * @param data Data to checksum
+     * @return CRC32 checksum
+     */
+    public static long calculateCRC32(ByteBuffer data) {
+        return WorkerContext.get().crc32(data);
     }
     
     /**
@@ -54,93 +83,153 @@ public class DataIntegrity {
      * @throws IOException If compression fails
      */
     public static byte[] compress(byte[] data) throws IOException {
-        Deflater deflater = new Deflater();
-        deflater.setInput(data);
-        deflater.finish();
-        
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length);
-        byte[] buffer = new byte[1024];
-        
-        while (!deflater.finished()) {
-            int count = deflater.deflate(buffer);
-            outputStream.write(buffer, 0, count);
+        return compress(data, Deflater.DEFAULT_COMPRESSION);
+    }
+    
+    /**
+     * Compresses data using DEFLATE algorithm at the given level
+     * @param data Data to compress
+     * @param level Compression level (1-9, or {@link Deflater#DEFAULT_COMPRESSION})
+     * @return Compressed data
+     * @throws IOException If compression fails
+     */
+    public static byte[] compress(byte[] data, int level) throws IOException {
+        return compress(data, level, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Compresses data using DEFLATE algorithm at the given level, giving up as soon as the compressed data exceeds a
+     * length
+     * @param data Data to compress
+     * @param level Compression level (1-9, or {@link Deflater#DEFAULT_COMPRESSION})
+     * @param maxLength Largest compressed length worth keeping
+     * @return Compressed data, or null if it exceeded `maxLength`
+     * @throws IOException If compression fails
+     */
+    public static byte[] compress(byte[] data, int level, int maxLength) throws IOException {
+        ByteBuffer compressed = WorkerContext.get().deflate(ByteBuffer.wrap(data), level, maxLength);
+        if (compressed == null) {
+            return null;
         }
         
-        outputStream.close();
-        deflater.end();
-        
-        return outputStream.toByteArray();
+        byte[] result = new byte[compressed.remaining()];
+        compressed.get(result);
+        return result;
     }
     
     /**
      * Decompresses data using INFLATE algorithm
      * @param compressedData Compressed data
-     * @param originalLength Original length of data (for buffer allocation)
+     * @param originalLength Original length of data
      * @return Decompressed data
-     * @throws IOException If decompression fails
+     * @throws IOException If decompression fails or the data does not decompress to `originalLength` bytes
      */
     public static byte[] decompress(byte[] compressedData, int originalLength) throws IOException {
-        Inflater inflater = new Inflater();
-        inflater.setInput(compressedData);
-        
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(originalLength);
-        byte[] buffer = new byte[1024];
-        
-        try {
-            while (!inflater.finished()) {
-                int count = inflater.inflate(buffer);
-                outputStream.write(buffer, 0, count);
-            }
-        } catch (Exception e) {
-            throw new IOException("Failed to decompress data", e);
-        } finally {
-            outputStream.close();
-            inflater.end();
-        }
-        
-        return outputStream.toByteArray();
+        return decompress(ByteBuffer.wrap(compressedData), originalLength);
+    }
+    
+    /**
+     * Decompresses the remaining bytes of a buffer using INFLATE algorithm
+     * @param compressedData Compressed data (e.g. a slice of a mapped archive)
+     * @param originalLength Original length of data
+     * @return Decompressed data
+     * @throws IOException If decompression fails or the data does not decompress to `originalLength` bytes
+     */
+    public static byte[] decompress(ByteBuffer compressedData, int originalLength) throws IOException {
+        byte[] data = new byte[originalLength];
+        WorkerContext.get().inflate(compressedData, ByteBuffer.wrap(data));
+        return data;
     }
     
     /**
      * Checks if compression would be beneficial for the given data
      * @param data Data to check
      * @return true if compression would likely reduce size
+     * @see CompressibilityEstimator
      */
     public static boolean shouldCompress(byte[] data) {
-        // Don't compress small files (overhead not worth it)
-        if (data.length < 100) {
-            return false;
+        return CompressibilityEstimator.estimate(data, true) == CompressibilityEstimator.Decision.COMPRESS;
+    }
+    
+    /**
+     * SHA-256 digest and CRC32 checksum computed incrementally, for data that is never held in memory as a whole
+     */
+    public static class Checksum {
+        private final MessageDigest digest;
+        private final CRC32 crc = new CRC32();
+        private long length;
+        private byte[] sha256; // set once finished
+        
+        public Checksum() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("SHA-256 algorithm not available", e);
+            }
+        }
+        
+        public void update(byte[] data, int offset, int length) {
+            digest.update(data, offset, length);
+            crc.update(data, offset, length);
+            this.length += length;
+        }
+        
+        /**
+         * Adds the remaining bytes of a buffer (the buffer position is left unchanged)
+         * @param data Data to add
+         */
+        public void update(ByteBuffer data) {
+            digest.update(data.duplicate());
+            crc.update(data.duplicate());
+            this.length += data.remaining();
+        }
+        
+        /**
+         * Returns the number of bytes added so far
+         * @return Length
+         */
+        public long getLength() {
+            return length;
         }
         
-        // Quick entropy check - if first 100 bytes are very repetitive, likely compressible
-        if (data.length >= 100) {
-            byte first = data[0];
-            int sameCount = 1;
-            for (int i = 1; i < Math.min(100, data.length); i++) {
-                if (data[i] == first) {
-                    sameCount++;
-                }
+        /**
+         * Finishes the checksum and returns the SHA-256 digest of the data added
+         * @return 32-byte digest
+         */
+        public byte[] digest() {
+            if (sha256 == null) {
+                sha256 = digest.digest();
             }
-            
-            // If more than 50% of first 100 bytes are the same, likely compressible
-            return sameCount > 50;
+            return sha256;
         }
         
-        return true; // Default to attempting compression
+        /**
+         * Finishes the checksum and returns the metadata of the (uncompressed) data added
+         * @return Integrity metadata
+         */
+        public IntegrityMetadata toMetadata() {
+            return new IntegrityMetadata(toHex(digest(), 0, 32), crc.getValue(), false, length, length);
+        }
     }
     
     /**
      * Archive integrity metadata
      */
     public static class IntegrityMetadata {
+        /**
+         * Serialized sizes with 4-byte and 8-byte size fields (the former is used whenever both sizes fit)
+         */
+        private static final int SIZE = 32 + 4 + 1 + 4 + 4;
+        private static final int LONG_SIZE = 32 + 4 + 1 + 8 + 8;
+        
         public final String sha256Hash;
         public final long crc32Checksum;
         public final boolean isCompressed;
-        public final int originalSize;
-        public final int compressedSize;
+        public final long originalSize;
+        public final long compressedSize;
         
         public IntegrityMetadata(String sha256Hash, long crc32Checksum, boolean isCompressed, 
-                               int originalSize, int compressedSize) {
+                               long originalSize, long compressedSize) {
             this.sha256Hash = sha256Hash;
             this.crc32Checksum = crc32Checksum;
             this.isCompressed = isCompressed;
@@ -154,7 +243,16 @@ public class DataIntegrity {
          * @return true if data matches metadata
          */
         public boolean verify(byte[] data) {
-            if (data.length != (isCompressed ? compressedSize : originalSize)) {
+            return verify(ByteBuffer.wrap(data));
+        }
+        
+        /**
+         * Verifies the remaining bytes of a buffer against this metadata
+         * @param data Data to verify
+         * @return true if data matches metadata
+         */
+        public boolean verify(ByteBuffer data) {
+            if (data.remaining() != (isCompressed ? compressedSize : originalSize)) {
                 return false;
             }
             
@@ -164,6 +262,20 @@ public class DataIntegrity {
             return sha256Hash.equals(actualSHA256) && crc32Checksum == actualCRC32;
         }
         
+        /**
+         * Verifies data that was checksummed incrementally against this metadata
+         * @param checksum Checksum of the data (finished by this call)
+         * @return true if data matches metadata
+         */
+        public boolean verify(Checksum checksum) {
+            if (checksum.getLength() != (isCompressed ? compressedSize : originalSize)) {
+                return false;
+            }
+            
+            IntegrityMetadata actual = checksum.toMetadata();
+            return sha256Hash.equals(actual.sha256Hash) && crc32Checksum == actual.crc32Checksum;
+        }
+        
         /**
          * Serializes metadata to byte array
          * @return Serialized metadata
@@ -184,11 +296,16 @@ public class DataIntegrity {
             // Compression flag (1 byte)
             builder.appendByte((byte) (isCompressed ? 1 : 0));
             
-            // Original size (4 bytes)
-            builder.appendBytes(ByteArrayBuilder.intToBytes(originalSize));
-            
-            // Compressed size (4 bytes)
-            builder.appendBytes(ByteArrayBuilder.intToBytes(compressedSize));
+            if (originalSize <= Integer.MAX_VALUE && compressedSize <= Integer.MAX_VALUE) {
+                // Original size (4 bytes)
+                builder.appendBytes(ByteArrayBuilder.intToBytes((int) originalSize));
+                
+                // Compressed size (4 bytes)
+                builder.appendBytes(ByteArrayBuilder.intToBytes((int) compressedSize));
+            } else {
+                // Original and compressed size (8 bytes each)
+                builder.appendBytes(ByteBuffer.allocate(16).putLong(originalSize).putLong(compressedSize).array());
+            }
             
             return builder.toByteArray();
         }
@@ -199,16 +316,12 @@ public class DataIntegrity {
          * @return IntegrityMetadata instance
          */
         public static IntegrityMetadata fromByteArray(byte[] data) {
-            if (data.length < 45) { // 32 + 4 + 1 + 4 + 4
+            if (data.length != SIZE && data.length != LONG_SIZE) {
                 throw new IllegalArgumentException("Invalid metadata size");
             }
             
             // SHA-256 hash
-            StringBuilder hashBuilder = new StringBuilder();
-            for (int i = 0; i < 32; i++) {
-                hashBuilder.append(String.format("%02x", data[i] & 0xff));
-            }
-            String sha256Hash = hashBuilder.toString();
+            String sha256Hash = toHex(data, 0, 32);
             
             // CRC32
             long crc32 = ByteArrayBuilder.bytesToInt(data, 32) & 0xffffffffL;
@@ -216,11 +329,16 @@ public class DataIntegrity {
             // Compression flag
             boolean isCompressed = data[36] == 1;
             
-            // Original size
-            int originalSize = ByteArrayBuilder.bytesToInt(data, 37);
-            
-            // Compressed size
-            int compressedSize = ByteArrayBuilder.bytesToInt(data, 41);
+            // Original and compressed size
+            long originalSize, compressedSize;
+            if (data.length == LONG_SIZE) {
+                ByteBuffer sizes = ByteBuffer.wrap(data, 37, 16);
+                originalSize = sizes.getLong();
+                compressedSize = sizes.getLong();
+            } else {
+                originalSize = ByteArrayBuilder.bytesToInt(data, 37);
+                compressedSize = ByteArrayBuilder.bytesToInt(data, 41);
+            }
             
             return new IntegrityMetadata(sha256Hash, crc32, isCompressed, originalSize, compressedSize);
         }
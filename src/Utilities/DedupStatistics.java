@@ -0,0 +1,75 @@
+package Utilities;
+
+/**
+ * Deduplication statistics of an archive creation or update, reported through
+ * {@link ArchiverAPI.ProgressCallback#onComplete(String, long, long, DedupStatistics)}
+ */
+public class DedupStatistics {
+    /**
+     * Chunk size bounds (zero unless chunks are deduplicated)
+     */
+    public final int chunkMinSize;
+    public final int chunkAverageSize;
+    public final int chunkMaxSize;
+
+    /**
+     * Number of chunks referenced by the written entries
+     */
+    public long chunkCount;
+
+    /**
+     * Number of chunks that were actually stored
+     */
+    public long uniqueChunkCount;
+
+    /**
+     * Number of files stored as references to an identical file
+     */
+    public long duplicateFiles;
+
+    /**
+     * Number of files stored as references to another hard link of the same file
+     */
+    public long hardLinks;
+
+    /**
+     * Bytes of file data processed
+     */
+    public long logicalBytes;
+
+    /**
+     * Bytes of file data stored after deduplication (before compression)
+     */
+    public long uniqueBytes;
+
+    /**
+     * @param chunker Chunker used for chunk deduplication (null if only files are deduplicated)
+     */
+    public DedupStatistics(ContentChunker chunker) {
+        this.chunkMinSize = chunker != null ? chunker.minSize : 0;
+        this.chunkAverageSize = chunker != null ? chunker.averageSize : 0;
+        this.chunkMaxSize = chunker != null ? chunker.maxSize : 0;
+    }
+
+    /**
+     * Returns the deduplication ratio (processed bytes per stored byte)
+     * @return Ratio, 1 if nothing was deduplicated
+     */
+    public double getDedupRatio() {
+        return uniqueBytes == 0 ? 1 : (double) logicalBytes / uniqueBytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        if (chunkAverageSize > 0) {
+            builder.append(String.format("chunks %s/%s/%s (min/avg/max), %d unique of %d, ",
+                ArchiverAPI.formatSize(chunkMinSize), ArchiverAPI.formatSize(chunkAverageSize),
+                ArchiverAPI.formatSize(chunkMaxSize), uniqueChunkCount, chunkCount));
+        }
+        builder.append(String.format("%d identical files, %d hard links, %s of %s stored, dedup ratio %.2f",
+            duplicateFiles, hardLinks, ArchiverAPI.formatSize(uniqueBytes), ArchiverAPI.formatSize(logicalBytes),
+            getDedupRatio()));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,200 @@
+package Utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds a preset dictionary for DEFLATE from a sample of small files, so that files compressed one by one find
+ * matches for what they have in common (field names, markup, boilerplate) from their first byte on
+ * Files are offered during the traversal and a uniform random sample of them is kept (reservoir sampling), so memory
+ * stays bounded however many files there are. Training follows the idea of the COVER algorithm of zstd: the samples
+ * are split into as many epochs as the dictionary has segments, and each epoch contributes its segment covering the
+ * most byte sequences (d-mers) shared by many samples. D-mers of chosen segments no longer count, which keeps the
+ * dictionary from repeating itself. The best segments go last, where DEFLATE reaches them with the shortest distances.
+ */
+public class DictionaryTrainer {
+    /**
+     * Smallest and largest dictionary, the latter being the size of the DEFLATE window
+     */
+    public static final int MIN_SIZE = 1024;
+    public static final int MAX_SIZE = 32 * 1024;
+
+    /**
+     * Files larger than this are not sampled, they compress well enough without a dictionary
+     */
+    public static final int MAX_FILE_SIZE = 64 * 1024;
+
+    /**
+     * Number of files sampled, and the least needed to train a dictionary
+     */
+    public static final int MAX_SAMPLES = 2048;
+    public static final int MIN_SAMPLES = 8;
+
+    /**
+     * Bytes read from each sampled file
+     */
+    public static final int MAX_SAMPLE_SIZE = 8 * 1024;
+
+    private static final int SEGMENT_SIZE = 256;
+    private static final int DMER_SIZE = 8;
+    private static final int HASH_LOG = 20;
+
+    private final int size;
+    private final List<Path> reservoir = new ArrayList<>();
+    private final Random random = new Random(0);
+    private long offered;
+
+    /**
+     * @param size Size of the dictionary ({@link #MIN_SIZE} to {@link #MAX_SIZE})
+     */
+    public DictionaryTrainer(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Dictionary size must be between " + MIN_SIZE + " and " + MAX_SIZE + " bytes");
+        }
+
+        this.size = size;
+    }
+
+    /**
+     * Offers a file for sampling (ignored unless it is small)
+     * @param file File path
+     * @param length File length
+     */
+    public void offer(Path file, long length) {
+        if (length == 0 || length > MAX_FILE_SIZE) {
+            return;
+        }
+
+        offered++;
+        if (reservoir.size() < MAX_SAMPLES) {
+            reservoir.add(file);
+        } else {
+            long index = (long) (random.nextDouble() * offered);
+            if (index < MAX_SAMPLES) {
+                reservoir.set((int) index, file);
+            }
+        }
+    }
+
+    /**
+     * Reads the sampled files and builds the dictionary
+     * @return Dictionary, or null if too few small files were offered or they have nothing in common
+     * @throws IOException If a sampled file cannot be read
+     */
+    public byte[] train() throws IOException {
+        if (reservoir.size() < MIN_SAMPLES) {
+            return null;
+        }
+
+        List<byte[]> samples = new ArrayList<>();
+        for (Path file : reservoir) {
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] sample = in.readNBytes(MAX_SAMPLE_SIZE);
+                if (sample.length >= DMER_SIZE) {
+                    samples.add(sample);
+                }
+            }
+        }
+        return train(samples, size);
+    }
+
+    /**
+     * Builds a dictionary from samples
+     * @param samples Samples
+     * @param size Size of the dictionary
+     * @return Dictionary, or null if the samples have nothing in common
+     */
+    public static byte[] train(List<byte[]> samples, int size) {
+        // Number of samples each d-mer occurs in
+        int[] frequencies = new int[1 << HASH_LOG];
+        int[] lastSample = new int[1 << HASH_LOG];
+        long totalLength = 0;
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int i = 0; i + DMER_SIZE <= sample.length; i++) {
+                int h = hash(sample, i);
+                if (lastSample[h] != s + 1) {
+                    lastSample[h] = s + 1;
+                    frequencies[h]++;
+                }
+            }
+            totalLength += sample.length;
+        }
+
+        // Concatenate the samples and pick the best segment of each epoch
+        byte[] data = new byte[(int) totalLength];
+        int position = 0;
+        for (byte[] sample : samples) {
+            System.arraycopy(sample, 0, data, position, sample.length);
+            position += sample.length;
+        }
+
+        int segments = size / SEGMENT_SIZE;
+        int epochSize = Math.max(data.length / segments, SEGMENT_SIZE);
+        List<long[]> chosen = new ArrayList<>(); // {score, offset}
+        for (int epoch = 0; epoch + SEGMENT_SIZE <= data.length && chosen.size() < segments; epoch += epochSize) {
+            int end = Math.min(epoch + epochSize, data.length);
+            long[] best = bestSegment(data, epoch, end, frequencies);
+            if (best == null) {
+                continue;
+            }
+
+            chosen.add(best);
+            for (int i = (int) best[1]; i + DMER_SIZE <= best[1] + SEGMENT_SIZE; i++) {
+                frequencies[hash(data, i)] = 0;
+            }
+        }
+        if (chosen.isEmpty()) {
+            return null;
+        }
+
+        chosen.sort(Comparator.comparingLong(segment -> segment[0]));
+        byte[] dictionary = new byte[chosen.size() * SEGMENT_SIZE];
+        for (int i = 0; i < chosen.size(); i++) {
+            System.arraycopy(data, (int) chosen.get(i)[1], dictionary, i * SEGMENT_SIZE, SEGMENT_SIZE);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Finds the segment of an epoch whose d-mers occur in the most samples (d-mers of a single sample do not count)
+     * @return {score, offset}, or null if no d-mer of the epoch is shared
+     */
+    private static long[] bestSegment(byte[] data, int start, int end, int[] frequencies) {
+        int last = Math.min(end, data.length - SEGMENT_SIZE + 1);
+        int dmers = SEGMENT_SIZE - DMER_SIZE + 1;
+        long score = 0;
+        for (int i = start; i < start + dmers; i++) {
+            score += weight(frequencies[hash(data, i)]);
+        }
+
+        long bestScore = score;
+        int bestOffset = start;
+        for (int offset = start + 1; offset < last; offset++) {
+            score += weight(frequencies[hash(data, offset + dmers - 1)]) - weight(frequencies[hash(data, offset - 1)]);
+            if (score > bestScore) {
+                bestScore = score;
+                bestOffset = offset;
+            }
+        }
+        return bestScore > 0 ? new long[]{bestScore, bestOffset} : null;
+    }
+
+    private static int weight(int frequency) {
+        return frequency > 1 ? frequency : 0;
+    }
+
+    private static int hash(byte[] data, int position) {
+        long value = 0;
+        for (int i = 0; i < DMER_SIZE; i++) {
+            value = value << 8 | (data[position + i] & 0xff);
+        }
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - HASH_LOG));
+    }
+}
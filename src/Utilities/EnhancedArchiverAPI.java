@@ -2,30 +2,142 @@ package Utilities;
 
 import Configs.Constants;
 import Models.Binary;
-import Utilities.Binaries.BinaryString;
+import Models.Codec;
+import Utilities.Codecs.CodecRegistry;
+import Utilities.Codecs.DeflateCodec;
+import Utilities.Codecs.StoreCodec;
 
 import javax.crypto.AEADBadTagException;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Enhanced archiver with compression and integrity verification
- * Version 2 of the archive format with enhanced features
+ * Version 3 of the archive format adds a central directory (see {@link ArchiveDirectory}) after the last entry;
+ * version 2 archives (without directory) can still be listed.
+ * Version 4 encrypts every segment of encrypted data with its own nonce (see {@link CipherKit#encryptSegment}), so
+ * that segments can be encrypted and decrypted in parallel on the worker pool.
+ * Incremental archives (header flag 0x08) only hold the files changed since a base archive chain, plus deletion markers,
+ * and are restored together with that chain (see {@link #restoreArchive}).
+ * Deduplicated archives (header flag 0x10) store file data as content-defined chunks shared between entries.
+ * Solid archives (header flag 0x20) concatenate small files into blocks that are compressed as a whole.
+ * Large files are stored as independently compressed blocks, so that ranges can be read without decoding the rest
+ * (see {@link #readRange})
+ * Archives with compact metadata (header flag 0x40) encode the directory records with variable-length integers and
+ * write no per-entry headers, the directory being the only copy of the entry metadata.
+ * Data is compressed with the codec selected for the archive (see {@link CodecRegistry}), whose ID is stored with every
+ * entry, chunk and block; archives using another codec than DEFLATE at the default level record it in an extended
+ * header (header flag 0x80).
+ * Headers are read and written by {@link ArchiveHeader}, entries written by {@link EntryWriter} (with {@link ChunkStore}
+ * for deduplicated chunks), and read through {@link ArchiveSource} and {@link ArchiveChain}.
  */
 public class EnhancedArchiverAPI {
-    private final BinaryString SIGNATURE = new BinaryString("archivitv2");
     public static final int NONCE_LENGTH = 12;
-    public static final byte FORMAT_VERSION = 2;
+    public static final byte FORMAT_VERSION = 5;
+    public static final byte LEGACY_FORMAT_VERSION = 2;
+    
+    /**
+     * First format version encrypting every segment with its own nonce, earlier versions used the archive nonce for
+     * all segments (encrypted archives of earlier versions are read but not updated, as new data would reuse the nonce)
+     */
+    public static final byte SEGMENT_NONCE_FORMAT_VERSION = 4;
+    
+    /**
+     * First format version flagging which optional tables follow the directory records, earlier versions tell them
+     * apart by the bytes left (see {@link ArchiveDirectory#hasTableFlags})
+     */
+    public static final byte DIRECTORY_TABLES_FORMAT_VERSION = 5;
+    
+    /**
+     * Solid block size used when updating a solid archive without an explicit size, and the bounds of the block size
+     */
+    public static final int DEFAULT_SOLID_BLOCK_SIZE = 4 << 20;
+    public static final int MIN_SOLID_BLOCK_SIZE = 4096;
+    public static final int MAX_SOLID_BLOCK_SIZE = 1 << 30;
+    
+    /**
+     * Files up to this size (and at most the block size) are stored in solid blocks
+     */
+    public static final int SOLID_FILE_MAX_SIZE = 1 << 20;
+    
+    /**
+     * Default size of the independently compressed blocks of large files
+     */
+    public static final int DEFAULT_COMPRESSION_BLOCK_SIZE = 1 << 20;
+    public static final int MAX_COMPRESSION_BLOCK_SIZE = 1 << 30;
+    
+    /**
+     * Files up to this size may be stored as a single unit (read into memory as a whole) if no compression block size
+     * is set; larger files are always streamed in blocks of {@link #DEFAULT_COMPRESSION_BLOCK_SIZE}
+     */
+    public static final int MAX_UNBLOCKED_FILE_SIZE = 64 << 20;
+    
+    /**
+     * Size of the blocks and encrypted segments of archives laid out for random reads
+     */
+    public static final int SEEKABLE_BLOCK_SIZE = 64 << 10;
+    
+    /**
+     * Reader engine used for listing and extraction
+     */
+    public enum ReaderEngine {
+        /**
+         * Buffered streams over positional FileChannel reads
+         */
+        STREAM,
+        /**
+         * Memory-mapped windows of the archive (see {@link MappedInput})
+         */
+        MAPPED
+    }
+    
+    private final ReaderEngine readerEngine;
+    private final int threads;
+    
+    public EnhancedArchiverAPI() {
+        this(ReaderEngine.STREAM);
+    }
+    
+    /**
+     * @param readerEngine Reader engine used for listing and extraction
+     */
+    public EnhancedArchiverAPI(ReaderEngine readerEngine) {
+        this(readerEngine, 0);
+    }
+    
+    /**
+     * @param readerEngine Reader engine used for listing and extraction
+     * @param threads Number of threads decompressing the blocks and chunks of an entry during extraction (0 for one
+     *                per available processor)
+     */
+    public EnhancedArchiverAPI(ReaderEngine readerEngine, int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Thread count cannot be negative");
+        }
+        this.readerEngine = readerEngine;
+        this.threads = threads;
+    }
     
     /**
      * Archive creation configuration with compression options
+     * Paths, password and the compression and integrity switches are given to the constructor, every other option has
+     * a default and a setter returning the configuration, so that options can be chained. Options are validated by
+     * {@link #createArchive} and {@link #updateArchive}, which report invalid ones as a failed operation.
      */
     public static class CreateArchiveConfig {
         public final String sourcePath;
@@ -34,12 +146,129 @@ public class EnhancedArchiverAPI {
         public final boolean enableCompression;
         public final boolean enableIntegrityCheck;
         
+        /**
+         * Archives the new archive is an increment of: a full archive followed by its increments, in order
+         * (empty for a full archive)
+         */
+        public final List<String> baseArchivePaths;
+        
+        /**
+         * Compare files against the base by SHA-256 (where the base has integrity metadata) instead of modification time
+         */
+        public final boolean compareContent;
+        
+        /**
+         * Average size of the content-defined chunks used for deduplication (power of two, see {@link ContentChunker}),
+         * 0 disables deduplication
+         */
+        private int dedupChunkSize = 0;
+        
+        /**
+         * Store hard-linked and identical files (same size and SHA-256) once, later occurrences become references
+         */
+        private boolean dedupFiles = false;
+        
+        /**
+         * Maximum size of each volume in bytes, the archive is split into `.archivit.001`, `.002`, ... volumes
+         * (0 writes a single file)
+         */
+        private long volumeSize = 0;
+        
+        /**
+         * Size of the solid blocks small files are concatenated into before compression (0 stores every file on its own)
+         * Extracting a file only decompresses the block holding it.
+         */
+        private int solidBlockSize = 0;
+        
+        /**
+         * Files larger than this are stored as blocks of this many bytes, each compressed (and encrypted) on its own,
+         * so that {@link #readRange} only decodes the blocks covering a range (0 stores files up to
+         * {@link #MAX_UNBLOCKED_FILE_SIZE} as a single unit). Files split into blocks are streamed through a buffer of
+         * one block. Unused for deduplicated archives, whose chunks are already independent and always streamed.
+         */
+        private int compressionBlockSize = DEFAULT_COMPRESSION_BLOCK_SIZE;
+        
+        /**
+         * Lay the data out for random reads: files are split into blocks of {@link #SEEKABLE_BLOCK_SIZE} bytes and
+         * encrypted in segments of the same size (overriding {@link #compressionBlockSize} and {@link #segmentSize}),
+         * so that {@link #readRange} decrypts, decompresses and verifies only the small blocks covering a range, found
+         * through the chunk table. Costs some compression and 24 bytes of counter and tag per block. Small files of
+         * solid blocks are still decoded with their whole block.
+         */
+        private boolean seekable = false;
+        
+        /**
+         * Encode the directory records with variable-length integers, store each directory path once in a directory
+         * table and leave out the per-entry headers, which keeps the directory of archives with millions of small files
+         * several times smaller (see {@link ArchiveDirectory})
+         * Such archives cannot be listed by walking the entries if their directory is damaged.
+         */
+        private boolean compactMetadata = false;
+        
+        /**
+         * Keep all entry metadata in the directory only, as with {@link #compactMetadata}, and encrypt the directory as
+         * a single segment, so that file names are not stored in plaintext and listing costs one key derivation, one
+         * read and one decryption however large the archive is. Requires a password, which listing then needs too.
+         */
+        private boolean encryptMetadata = false;
+        
+        /**
+         * Number of threads compressing blocks, deduplicated chunks and solid blocks (0 for one per available
+         * processor, 1 compresses on the calling thread). Blocks are written in order, so the archive does not depend
+         * on the thread count.
+         */
+        private int threads = 0;
+        
+        /**
+         * Codec compressing the data if compression is enabled, e.g. {@link CodecRegistry#LZ4} where speed matters more
+         * than ratio. Updates keep the codec the archive was created with.
+         */
+        private Codec codec = CodecRegistry.DEFLATE;
+        
+        /**
+         * Bytes per second the creation or update should keep up with (0 compresses at the level of {@link #codec})
+         * The level then moves up or down block by block, from {@link CodecRegistry#LZ4} to DEFLATE level 9, for the
+         * best ratio that still keeps up (see {@link AdaptiveCompression}). The levels used are reported through
+         * {@link ArchiverAPI.ProgressCallback#onCompressionStatistics} only: the archive records the codec of every
+         * block, not its level, and its header keeps {@link #codec}.
+         */
+        private long targetThroughput = 0;
+        
+        /**
+         * Seconds the creation or update should take at most (0 for no deadline), adapting the level like
+         * {@link #targetThroughput} to the throughput needed to process the remaining bytes in time
+         */
+        private long deadlineSeconds = 0;
+        
+        /**
+         * Size of the preset dictionary trained on a sample of the small files and stored once in the header (0 for
+         * none, {@link DictionaryTrainer#MIN_SIZE} to {@link DictionaryTrainer#MAX_SIZE}), which DEFLATE is primed
+         * with for every entry, block and chunk. Many small files that look alike then compress nearly as well as in
+         * solid blocks while staying independently extractable. Requires the DEFLATE codec.
+         */
+        private int dictionarySize = 0;
+        
+        /**
+         * Size of the segments data is encrypted in ({@link Constants#MIN_CHUNK_SIZE} to
+         * {@link Constants#DICTIONARY_MAX_SIZE}), recorded in the header and used by later updates. Smaller segments
+         * bound the memory needed to encrypt and decrypt, at 24 bytes of counter and tag per segment.
+         */
+        private int segmentSize = Constants.DICTIONARY_MAX_SIZE;
+        
+        /**
+         * Function and iteration count deriving the key from the password, recorded in the header (PBKDF2-HMAC-SHA1
+         * at 65,536 iterations by default, as archives written before use)
+         */
+        private KeyDerivation keyDerivation = KeyDerivation.PBKDF2_SHA1;
+        
         public CreateArchiveConfig(String sourcePath, String archivePath) {
             this.sourcePath = sourcePath;
             this.archivePath = archivePath;
             this.password = null;
             this.enableCompression = true;
             this.enableIntegrityCheck = true;
+            this.baseArchivePaths = List.of();
+            this.compareContent = false;
         }
         
         public CreateArchiveConfig(String sourcePath, String archivePath, String password) {
@@ -48,6 +277,8 @@ public class EnhancedArchiverAPI {
             this.password = password;
             this.enableCompression = true;
             this.enableIntegrityCheck = true;
+            this.baseArchivePaths = List.of();
+            this.compareContent = false;
         }
         
         public CreateArchiveConfig(String sourcePath, String archivePath, String password, 
@@ -57,6 +288,161 @@ public class EnhancedArchiverAPI {
             this.password = password;
             this.enableCompression = enableCompression;
             this.enableIntegrityCheck = enableIntegrityCheck;
+            this.baseArchivePaths = List.of();
+            this.compareContent = false;
+        }
+        
+        /**
+         * Configuration of an incremental archive, which only stores files that are new or changed since the base
+         * archives, plus deletion markers for files that no longer exist
+         * @param baseArchivePaths Full archive followed by its increments, in order
+         * @param compareContent Compare by SHA-256 instead of modification time where possible
+         */
+        public CreateArchiveConfig(String sourcePath, String archivePath, String password,
+                                 boolean enableCompression, boolean enableIntegrityCheck,
+                                 List<String> baseArchivePaths, boolean compareContent) {
+            this.sourcePath = sourcePath;
+            this.archivePath = archivePath;
+            this.password = password;
+            this.enableCompression = enableCompression;
+            this.enableIntegrityCheck = enableIntegrityCheck;
+            this.baseArchivePaths = baseArchivePaths;
+            this.compareContent = compareContent;
+        }
+        
+        /**
+         * @param dedupChunkSize See {@link #dedupChunkSize}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setDedupChunkSize(int dedupChunkSize) {
+            this.dedupChunkSize = dedupChunkSize;
+            return this;
+        }
+        
+        /**
+         * @param dedupFiles See {@link #dedupFiles}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setDedupFiles(boolean dedupFiles) {
+            this.dedupFiles = dedupFiles;
+            return this;
+        }
+        
+        /**
+         * @param volumeSize See {@link #volumeSize}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setVolumeSize(long volumeSize) {
+            this.volumeSize = volumeSize;
+            return this;
+        }
+        
+        /**
+         * @param solidBlockSize See {@link #solidBlockSize}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setSolidBlockSize(int solidBlockSize) {
+            this.solidBlockSize = solidBlockSize;
+            return this;
+        }
+        
+        /**
+         * @param compressionBlockSize See {@link #compressionBlockSize}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setCompressionBlockSize(int compressionBlockSize) {
+            this.compressionBlockSize = compressionBlockSize;
+            return this;
+        }
+        
+        /**
+         * @param seekable See {@link #seekable}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setSeekable(boolean seekable) {
+            this.seekable = seekable;
+            return this;
+        }
+        
+        /**
+         * @param compactMetadata See {@link #compactMetadata}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setCompactMetadata(boolean compactMetadata) {
+            this.compactMetadata = compactMetadata;
+            return this;
+        }
+        
+        /**
+         * @param encryptMetadata See {@link #encryptMetadata}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setEncryptMetadata(boolean encryptMetadata) {
+            this.encryptMetadata = encryptMetadata;
+            return this;
+        }
+        
+        /**
+         * @param threads See {@link #threads}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+        
+        /**
+         * @param codec See {@link #codec}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setCodec(Codec codec) {
+            this.codec = codec;
+            return this;
+        }
+        
+        /**
+         * @param targetThroughput See {@link #targetThroughput}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setTargetThroughput(long targetThroughput) {
+            this.targetThroughput = targetThroughput;
+            return this;
+        }
+        
+        /**
+         * @param deadlineSeconds See {@link #deadlineSeconds}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setDeadlineSeconds(long deadlineSeconds) {
+            this.deadlineSeconds = deadlineSeconds;
+            return this;
+        }
+        
+        /**
+         * @param dictionarySize See {@link #dictionarySize}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setDictionarySize(int dictionarySize) {
+            this.dictionarySize = dictionarySize;
+            return this;
+        }
+        
+        /**
+         * @param segmentSize See {@link #segmentSize}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+        
+        /**
+         * @param keyDerivation See {@link #keyDerivation}
+         * @return This configuration
+         */
+        public CreateArchiveConfig setKeyDerivation(KeyDerivation keyDerivation) {
+            this.keyDerivation = keyDerivation;
+            return this;
         }
     }
     
@@ -97,10 +483,63 @@ public class EnhancedArchiverAPI {
             archivePath += ".archivit";
         }
         
-        if (Files.exists(Path.of(archivePath))) {
+        if (Files.exists(Path.of(archivePath)) || VolumeChannel.isSplit(archivePath)) {
             return new ArchiverAPI.OperationResult(false, "Archive file already exists: " + archivePath);
         }
         
+        if (config.dedupChunkSize != 0 && (Integer.bitCount(config.dedupChunkSize) != 1
+                || config.dedupChunkSize < ContentChunker.MIN_AVERAGE_SIZE || config.dedupChunkSize > ContentChunker.MAX_AVERAGE_SIZE)) {
+            return new ArchiverAPI.OperationResult(false, "Deduplication chunk size must be 0 or a power of two between "
+                + ContentChunker.MIN_AVERAGE_SIZE + " and " + ContentChunker.MAX_AVERAGE_SIZE + " bytes");
+        }
+        
+        if (config.solidBlockSize != 0
+                && (config.solidBlockSize < MIN_SOLID_BLOCK_SIZE || config.solidBlockSize > MAX_SOLID_BLOCK_SIZE)) {
+            return new ArchiverAPI.OperationResult(false, "Solid block size must be between " + MIN_SOLID_BLOCK_SIZE
+                + " and " + MAX_SOLID_BLOCK_SIZE + " bytes");
+        }
+        
+        if (config.compressionBlockSize < 0 || config.compressionBlockSize > MAX_COMPRESSION_BLOCK_SIZE) {
+            return new ArchiverAPI.OperationResult(false, "Compression block size must be between 0 and "
+                + MAX_COMPRESSION_BLOCK_SIZE + " bytes");
+        }
+        
+        if (config.threads < 0) {
+            return new ArchiverAPI.OperationResult(false, "Thread count cannot be negative");
+        }
+        
+        if (config.enableCompression && config.codec == null) {
+            return new ArchiverAPI.OperationResult(false, "Codec cannot be empty if compression is enabled");
+        }
+        
+        if (config.targetThroughput < 0 || config.deadlineSeconds < 0) {
+            return new ArchiverAPI.OperationResult(false, "Target throughput and deadline cannot be negative");
+        }
+        
+        if (config.dictionarySize != 0) {
+            if (config.dictionarySize < DictionaryTrainer.MIN_SIZE || config.dictionarySize > DictionaryTrainer.MAX_SIZE) {
+                return new ArchiverAPI.OperationResult(false, "Dictionary size must be between " + DictionaryTrainer.MIN_SIZE
+                    + " and " + DictionaryTrainer.MAX_SIZE + " bytes");
+            }
+            if (!config.enableCompression || config.codec.getId() != DeflateCodec.ID) {
+                return new ArchiverAPI.OperationResult(false, "Preset dictionaries require compression with the DEFLATE codec");
+            }
+        }
+        
+        if (config.encryptMetadata && config.password == null) {
+            return new ArchiverAPI.OperationResult(false, "Encrypted metadata requires a password");
+        }
+        
+        if (config.keyDerivation == null) {
+            return new ArchiverAPI.OperationResult(false, "Key derivation cannot be empty");
+        }
+        
+        if (config.segmentSize < Constants.MIN_CHUNK_SIZE || config.segmentSize > Constants.DICTIONARY_MAX_SIZE) {
+            return new ArchiverAPI.OperationResult(false, "Segment size must be between " + Constants.MIN_CHUNK_SIZE
+                + " and " + Constants.DICTIONARY_MAX_SIZE + " bytes");
+        }
+        Codec codec = config.enableCompression ? config.codec : null;
+        
         // Setup encryption if requested
         boolean isPasswordProtected = config.password != null;
         CipherKit kit = null;
@@ -108,15 +547,34 @@ public class EnhancedArchiverAPI {
             if (config.password.length() < 6 || config.password.length() > 16 || config.password.trim().length() == 0) {
                 return new ArchiverAPI.OperationResult(false, "Password must be 6-16 characters long and not whitespace-only");
             }
-            kit = rm.manage(new CipherKit(CipherKit.generateNonce(NONCE_LENGTH), config.password));
+            kit = rm.manage(new CipherKit(CipherKit.generateNonce(NONCE_LENGTH), config.password, true,
+                config.keyDerivation));
         }
         
-        // Count files for progress
+        // Load the state recorded by the base archives (incremental archives only)
+        boolean isIncremental = !config.baseArchivePaths.isEmpty();
+        final Map<String, ArchiveChain.Entry> baseEntries = isIncremental ? ArchiveChain.read(config.baseArchivePaths,
+            config.password, new HashMap<>(), readerEngine, threads, rm) : Map.of();
+        
+        // Collect new and changed files, and the files that were removed since the base
+        final String folderPath2 = folderPath;
         final List<String> filesToProcess = new ArrayList<>();
+        final Map<String, ArchiveChain.Entry> removedEntries = new LinkedHashMap<>(baseEntries);
+        final DictionaryTrainer trainer = config.dictionarySize > 0 ? new DictionaryTrainer(config.dictionarySize) : null;
         IO.getFilesAndDirs(folderPath, new IO.OnRetrieve() {
             @Override
             public void onFileRetrieve(String file) {
-                filesToProcess.add(file);
+                ArchiveChain.Entry base = removedEntries.remove(file.replace(folderPath2, ""));
+                try {
+                    if (base == null || !isUnchanged(file, base.record, config.compareContent)) {
+                        filesToProcess.add(file);
+                        if (trainer != null) {
+                            trainer.offer(Path.of(file), new File(file).length());
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
             }
             @Override
             public void onFolderRetrieve(String folder) {}
@@ -126,35 +584,42 @@ public class EnhancedArchiverAPI {
             public void onExclusion(String file) {}
         });
         
-        BufferedStream.Output bso = rm.manage(new BufferedStream.Output(new FileOutputStream(archivePath)));
+        // Train the preset dictionary on a sample of the files to store
+        if (trainer != null) {
+            byte[] dictionary = trainer.train();
+            if (dictionary != null) {
+                codec = codec.withDictionary(dictionary);
+            }
+        }
+        
+        final ArchiveDirectory directory = new ArchiveDirectory();
+        directory.chunkSize = config.dedupChunkSize;
+        directory.isCompact = config.compactMetadata || config.encryptMetadata;
+        directory.isEncrypted = config.encryptMetadata;
+        
+        VolumeOutputStream volumes = config.volumeSize > 0 ? new VolumeOutputStream(archivePath, config.volumeSize) : null;
+        BufferedStream.Output bso = rm.manage(new BufferedStream.Output(volumes != null ? volumes : new FileOutputStream(archivePath)));
+        WorkerPool workers = rm.manage(new WorkerPool(config.threads));
+        int segmentSize = config.seekable ? SEEKABLE_BLOCK_SIZE : config.segmentSize;
+        int compressionBlockSize = config.seekable ? SEEKABLE_BLOCK_SIZE : config.compressionBlockSize;
+        EntryWriter writer = new EntryWriter(bso, directory, codec, config.enableIntegrityCheck, kit, segmentSize,
+            config.dedupChunkSize, config.dedupFiles, config.solidBlockSize, compressionBlockSize, workers);
         
         try {
-            // Write enhanced format signature
-            bso.write(SIGNATURE.toByteArray());
-            
-            // Write format version
-            bso.write(new byte[]{FORMAT_VERSION});
-            
-            // Write file separator
-            bso.write(getFileSeparator().getBytes(StandardCharsets.UTF_8));
-            
-            // Write feature flags
+            // Write header, with the fields that differ from their defaults
+            byte[] headerFields = ArchiveHeader.encodeFields(codec, kit, segmentSize, config.keyDerivation,
+                directory.isEncrypted);
             byte flags = 0;
             if (isPasswordProtected) flags |= 0x01;
             if (config.enableCompression) flags |= 0x02;
             if (config.enableIntegrityCheck) flags |= 0x04;
-            bso.write(new byte[]{flags});
-            
-            // Write nonce if password protected
-            if (isPasswordProtected) {
-                bso.write(kit.nonce);
-            }
+            if (isIncremental) flags |= 0x08;
+            if (writer.chunkStore != null) flags |= 0x10;
+            if (writer.solidBlock != null) flags |= 0x20;
+            if (directory.isCompact) flags |= 0x40;
+            ArchiveHeader.write(bso, flags, kit != null ? kit.nonce : null, headerFields);
             
             // Process files
-            final String folderPath2 = folderPath;
-            final boolean isPasswordProtected2 = isPasswordProtected;
-            final CipherKit kit2 = kit;
-            final int[] processedCount = {0};
             long totalBytes = 0;
             
             for (String file : filesToProcess) {
@@ -162,145 +627,333 @@ public class EnhancedArchiverAPI {
                     totalBytes += Files.size(Path.of(file));
                 } catch (IOException ignored) {}
             }
-            final long finalTotalBytes = totalBytes;
+            writer.adaptCompression(config.targetThroughput, config.deadlineSeconds, totalBytes);
             
-            IO.getFilesAndDirs(folderPath, new IO.OnRetrieve() {
-                @Override
-                public void onFileRetrieve(String file) {
-                    try {
-                        String relativePath = file.replace(folderPath2, "");
-                        
-                        if (progressCallback != null) {
-                            progressCallback.onProgress("create", relativePath, processedCount[0], filesToProcess.size());
-                        }
-                        
-                        // Read file data
-                        byte[] fileData = Files.readAllBytes(Path.of(file));
-                        byte[] processedData = fileData;
-                        
-                        // Apply compression if enabled and beneficial
-                        boolean isCompressed = false;
-                        if (config.enableCompression && DataIntegrity.shouldCompress(fileData)) {
-                            try {
-                                byte[] compressed = DataIntegrity.compress(fileData);
-                                if (compressed.length < fileData.length * 0.9) { // Only use if saves at least 10%
-                                    processedData = compressed;
-                                    isCompressed = true;
-                                }
-                            } catch (IOException e) {
-                                // Compression failed, use original data
-                                System.err.println("Warning: Compression failed for " + relativePath + ": " + e.getMessage());
-                            }
-                        }
-                        
-                        // Create integrity metadata
-                        DataIntegrity.IntegrityMetadata integrity = null;
-                        if (config.enableIntegrityCheck) {
-                            integrity = new DataIntegrity.IntegrityMetadata(
-                                DataIntegrity.calculateSHA256(processedData),
-                                DataIntegrity.calculateCRC32(processedData),
-                                isCompressed,
-                                fileData.length,
-                                processedData.length
-                            );
-                        }
-                        
-                        // Create enhanced serializable file
-                        SerializableFile serializableFile = new SerializableFile(file, relativePath);
-                        
-                        // Write file metadata
-                        bso.writeSegment(serializableFile.toByteArray(), BufferedStream.JavaStreamSegmentType.LONG);
-                        
-                        // Write integrity metadata if enabled
-                        if (integrity != null) {
-                            bso.writeSegment(integrity.toByteArray(), BufferedStream.JavaStreamSegmentType.SHORT);
-                        }
-                        
-                        // Write compression flag
-                        bso.putBoolean(isCompressed);
-                        
-                        // Apply encryption if enabled
-                        if (isPasswordProtected2) {
-                            if (processedData.length > 0) {
-                                // Process in chunks for large files
-                                int chunkSize = Constants.DICTIONARY_MAX_SIZE;
-                                int offset = 0;
-                                boolean hasMore = true;
-                                
-                                while (hasMore) {
-                                    int currentChunkSize = Math.min(chunkSize, processedData.length - offset);
-                                    hasMore = (offset + currentChunkSize) < processedData.length;
-                                    
-                                    byte[] chunk = Arrays.copyOfRange(processedData, offset, offset + currentChunkSize);
-                                    byte[] encryptedChunk = kit2.exec(chunk, CipherKit.CipherMode.ENCRYPT);
-                                    
-                                    bso.writeSegment(encryptedChunk, BufferedStream.JavaStreamSegmentType.LONG);
-                                    bso.putBoolean(hasMore);
-                                    
-                                    offset += currentChunkSize;
-                                }
-                            } else {
-                                // Empty file
-                                bso.putBoolean(false);
-                            }
-                        } else {
-                            // Write unencrypted data directly
-                            bso.write(processedData);
-                        }
-                        
-                        processedCount[0]++;
-                    } catch (Exception e) {
-                        if (progressCallback != null) {
-                            progressCallback.onError("create", file, e);
-                        }
-                        throw new RuntimeException(e);
-                    }
-                }
-                
-                @Override
-                public void onFolderRetrieve(String folder) {}
+            for (int i = 0; i < filesToProcess.size(); i++) {
+                String file = filesToProcess.get(i);
+                String relativePath = file.replace(folderPath, "");
                 
-                @Override
-                public void onSymLinkFileRetrieve(String symLinkPath, String canonicalPath) {}
+                if (progressCallback != null) {
+                    progressCallback.onProgress("create", relativePath, i, filesToProcess.size());
+                }
                 
-                @Override
-                public void onExclusion(String file) {}
-            });
+                try {
+                    writer.write(file, relativePath, directory.records.size());
+                } catch (Exception e) {
+                    if (progressCallback != null) {
+                        progressCallback.onError("create", file, e);
+                    }
+                    throw e;
+                }
+            }
+            writer.finish();
             
-            bso.flush();
+            // Record files removed since the base archives
+            for (ArchiveChain.Entry removed : removedEntries.values()) {
+                directory.records.add(ArchiveDirectory.Record.deletion(removed.record.file));
+            }
+            
+            // Write central directory and footer (into the last volume of split archives)
+            directory.write(bso, kit);
+            
+            // Close right away so that volumes failing to sync are reported
+            bso.close();
             
             if (progressCallback != null) {
-                progressCallback.onComplete("create", filesToProcess.size(), finalTotalBytes);
+                if (writer.compressionStatistics != null) {
+                    progressCallback.onCompressionStatistics("create", writer.compressionStatistics);
+                }
+                if (writer.statistics != null) {
+                    progressCallback.onComplete("create", filesToProcess.size(), totalBytes, writer.statistics);
+                } else {
+                    progressCallback.onComplete("create", filesToProcess.size(), totalBytes);
+                }
             }
             
+            if (volumes != null) {
+                return new ArchiverAPI.OperationResult(true, "Enhanced archive created successfully ("
+                    + volumes.getVolumes().size() + " volumes): " + archivePath);
+            }
             return new ArchiverAPI.OperationResult(true, "Enhanced archive created successfully: " + archivePath);
             
         } catch (Exception e) {
             // Clean up partial archive on error
             try {
                 Files.deleteIfExists(Path.of(archivePath));
+                if (volumes != null) {
+                    for (Path volume : volumes.getVolumes()) {
+                        Files.deleteIfExists(volume);
+                    }
+                }
             } catch (Exception ignored) {}
             throw e;
         }
     }
     
+    /**
+     * Adds new and modified files of a directory to an existing archive
+     * Existing entry data is left untouched: new or changed files (by size and last modified time) are appended after
+     * the current footer, followed by a new central directory and footer. The previous directory and footer stay in
+     * place until the new footer is on disk, so an update that fails leaves the archive as it was, and one interrupted
+     * before its footer is written can be undone by truncating the archive to its previous size (the superseded
+     * directory remains as unreferenced bytes). Encryption nonce, compression and integrity settings
+     * are taken from the archive header, the corresponding fields of `config` are ignored. Small files added to a solid
+     * archive go into new blocks of `config.solidBlockSize` bytes ({@link #DEFAULT_SOLID_BLOCK_SIZE} if unset).
+     * Entries of files that no longer exist in the source directory are kept. Encrypted archives written before
+     * {@link #SEGMENT_NONCE_FORMAT_VERSION} cannot be updated.
+     * @param config Archive configuration (source directory, existing archive and its password)
+     * @param progressCallback Optional progress callback
+     * @return Operation result
+     */
+    public ArchiverAPI.OperationResult updateArchive(CreateArchiveConfig config,
+                                                    ArchiverAPI.ProgressCallback progressCallback) {
+        try (ResourceManager rm = new ResourceManager()) {
+            return updateArchiveInternal(config, progressCallback, rm);
+        } catch (AEADBadTagException e) {
+            return new ArchiverAPI.OperationResult(false, "Incorrect password", e);
+        } catch (Exception e) {
+            return new ArchiverAPI.OperationResult(false, "Enhanced archive update failed: " + e.getMessage(), e);
+        }
+    }
+    
+    private ArchiverAPI.OperationResult updateArchiveInternal(CreateArchiveConfig config,
+                                                             ArchiverAPI.ProgressCallback progressCallback,
+                                                             ResourceManager rm) throws Exception {
+        // Validate inputs
+        if (config.sourcePath == null || config.sourcePath.trim().isEmpty()) {
+            return new ArchiverAPI.OperationResult(false, "Source path cannot be empty");
+        }
+        
+        String folderPath = config.sourcePath;
+        if (!folderPath.endsWith(getFileSeparator())) {
+            folderPath += getFileSeparator();
+        }
+        
+        if (!Files.exists(Path.of(folderPath)) || !(new File(folderPath).isDirectory())) {
+            return new ArchiverAPI.OperationResult(false, "Source path is not a valid directory: " + folderPath);
+        }
+        
+        String archivePath = config.archivePath;
+        if (!archivePath.endsWith(".archivit")) {
+            archivePath += ".archivit";
+        }
+        
+        if (!Files.exists(Path.of(archivePath))) {
+            if (VolumeChannel.isSplit(archivePath)) {
+                return new ArchiverAPI.OperationResult(false, "Split archives cannot be updated, recreate the archive instead");
+            }
+            return new ArchiverAPI.OperationResult(false, "Archive not found: " + archivePath);
+        }
+        
+        ArchiveSource source = new ArchiveSource(archivePath, readerEngine, threads, rm);
+        ArchiveHeader header = source.readHeader();
+        
+        CipherKit kit = null;
+        if (header.isPasswordProtected) {
+            if (config.password == null) {
+                return new ArchiverAPI.OperationResult(false, "Archive is password-protected but no password provided");
+            }
+            if (!header.hasSegmentNonces) {
+                return new ArchiverAPI.OperationResult(false,
+                    "Encrypted archives of format version " + header.version + " cannot be updated, recreate the archive instead");
+            }
+            kit = rm.manage(new CipherKit(header.nonce, config.password, header.hasSegmentNonces,
+                header.keyDerivation));
+        }
+        
+        ArchiveDirectory directory = header.version >= 3 ? source.readDirectory(header, kit) : null;
+        if (directory == null) {
+            return new ArchiverAPI.OperationResult(false,
+                "Only archives with a central directory can be updated, recreate the archive instead");
+        }
+        if (kit != null && !directory.isEncrypted) {
+            source.verifyPassword(directory, kit);
+        }
+        
+        // New data is deduplicated against the chunks already stored
+        if (header.isDeduplicated && directory.chunkSize == 0) {
+            directory.chunkSize = ContentChunker.DEFAULT_AVERAGE_SIZE;
+        }
+        
+        // Collect new and modified files
+        final String folderPath2 = folderPath;
+        final Map<String, Integer> recordIndex = new HashMap<>();
+        for (int i = 0; i < directory.records.size(); i++) {
+            recordIndex.put(directory.records.get(i).file.path.data.replace(header.fileSeparator, getFileSeparator()), i);
+        }
+        
+        final List<String> filesToProcess = new ArrayList<>();
+        final Path archiveFile = Path.of(archivePath).toAbsolutePath().normalize();
+        IO.getFilesAndDirs(folderPath, new IO.OnRetrieve() {
+            @Override
+            public void onFileRetrieve(String file) {
+                // The archive may live inside the directory it was created from
+                if (Path.of(file).toAbsolutePath().normalize().equals(archiveFile)) {
+                    return;
+                }
+                
+                Integer index = recordIndex.get(file.replace(folderPath2, ""));
+                try {
+                    if (index == null || !isUnchanged(file, directory.records.get(index), false)) {
+                        filesToProcess.add(file);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            @Override
+            public void onFolderRetrieve(String folder) {}
+            @Override
+            public void onSymLinkFileRetrieve(String symLinkPath, String canonicalPath) {}
+            @Override
+            public void onExclusion(String file) {}
+        });
+        
+        if (filesToProcess.isEmpty()) {
+            if (progressCallback != null) {
+                progressCallback.onComplete("update", 0, 0);
+            }
+            return new ArchiverAPI.OperationResult(true, "Archive is up to date: " + archivePath);
+        }
+        
+        // New entries go after the current footer, which keeps describing the archive until the new one is written
+        FileChannel channel = rm.manage(FileChannel.open(Path.of(archivePath), StandardOpenOption.WRITE));
+        long previousSize = channel.size();
+        BufferedStream.Output bso = new BufferedStream.Output(Channels.newOutputStream(channel.position(previousSize)), previousSize);
+        EntryWriter writer = new EntryWriter(bso, directory, header.hasCompression ? header.getCodec(kit) : null,
+            header.hasIntegrityCheck, kit, header.segmentSize, header.isDeduplicated ? directory.chunkSize : 0, config.dedupFiles,
+            header.isSolid ? (config.solidBlockSize > 0 ? config.solidBlockSize : DEFAULT_SOLID_BLOCK_SIZE) : 0,
+            config.seekable ? SEEKABLE_BLOCK_SIZE : config.compressionBlockSize, rm.manage(new WorkerPool(config.threads)));
+        
+        try {
+            if (config.targetThroughput > 0 || config.deadlineSeconds > 0) {
+                long expectedBytes = 0;
+                for (String file : filesToProcess) {
+                    try {
+                        expectedBytes += Files.size(Path.of(file));
+                    } catch (IOException ignored) {}
+                }
+                writer.adaptCompression(config.targetThroughput, config.deadlineSeconds, expectedBytes);
+            }
+            
+            long totalBytes = 0;
+            for (int i = 0; i < filesToProcess.size(); i++) {
+                String file = filesToProcess.get(i);
+                String relativePath = file.replace(folderPath, "");
+                
+                if (progressCallback != null) {
+                    progressCallback.onProgress("update", relativePath, i, filesToProcess.size());
+                }
+                
+                try {
+                    Integer index = recordIndex.get(relativePath);
+                    ArchiveDirectory.Record record = writer.write(file, relativePath,
+                        index != null ? index : directory.records.size());
+                    totalBytes += record.file.size.data;
+                } catch (Exception e) {
+                    if (progressCallback != null) {
+                        progressCallback.onError("update", file, e);
+                    }
+                    throw e;
+                }
+            }
+            writer.finish();
+            
+            // The entries must be on disk before the footer that points to them
+            bso.flush();
+            channel.force(false);
+            directory.write(bso, kit);
+            bso.flush();
+            channel.force(true);
+            
+            if (progressCallback != null) {
+                if (writer.compressionStatistics != null) {
+                    progressCallback.onCompressionStatistics("update", writer.compressionStatistics);
+                }
+                if (writer.statistics != null) {
+                    progressCallback.onComplete("update", filesToProcess.size(), totalBytes, writer.statistics);
+                } else {
+                    progressCallback.onComplete("update", filesToProcess.size(), totalBytes);
+                }
+            }
+            
+            return new ArchiverAPI.OperationResult(true, "Enhanced archive updated successfully (" + filesToProcess.size()
+                + " files written): " + archivePath);
+            
+        } catch (Exception e) {
+            // Drop the appended bytes so that the previous footer ends the archive again
+            try {
+                channel.truncate(previousSize);
+                channel.force(true);
+            } catch (IOException restoreFailure) {
+                e.addSuppressed(new IOException("Archive could not be truncated back to " + previousSize
+                    + " bytes, truncate it to restore the previous state", restoreFailure));
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Checks whether a file still matches its archived entry
+     * Files of equal size are compared by SHA-256 if `compareContent` is set and the entry has integrity metadata,
+     * otherwise by modification time. The file is streamed through the digest, never compressed or read into memory.
+     * @param file Absolute file path
+     * @param archived Directory record of the archived entry
+     * @param compareContent Compare by content where possible
+     * @return `true` if the file does not need to be stored again
+     */
+    private boolean isUnchanged(String file, ArchiveDirectory.Record archived, boolean compareContent) throws IOException {
+        if (archived.isDeleted) {
+            return false;
+        }
+        
+        File current = new File(file);
+        if (archived.file.size.data != current.length()) {
+            return false;
+        }
+        
+        if (compareContent && archived.integrity != null) {
+            // Integrity metadata of compressed single-unit entries covers the compressed data, their digest the original
+            if (archived.digest != null) {
+                return Arrays.equals(archived.digest, EntryWriter.checksum(Path.of(file)).digest());
+            }
+            if (!archived.integrity.isCompressed) {
+                return archived.integrity.verify(EntryWriter.checksum(Path.of(file)));
+            }
+            // Compressed entries written before digests were recorded are compared by modification time
+        }
+        
+        return archived.file.lastModified.data == current.lastModified();
+    }
+    
     /**
      * Enhanced file information with compression and integrity data
      */
     public static class EnhancedFileInfo extends ArchiverAPI.ArchiveFileInfo {
         public final boolean isCompressed;
         public final DataIntegrity.IntegrityMetadata integrity;
+        public final boolean isDeleted; // deletion marker of an incremental archive
         
         public EnhancedFileInfo(String name, String path, boolean canRead, boolean canExecute,
                                boolean canWrite, long lastModified, long size, boolean isCompressed,
                                DataIntegrity.IntegrityMetadata integrity) {
+            this(name, path, canRead, canExecute, canWrite, lastModified, size, isCompressed, integrity, false);
+        }
+        
+        public EnhancedFileInfo(String name, String path, boolean canRead, boolean canExecute,
+                               boolean canWrite, long lastModified, long size, boolean isCompressed,
+                               DataIntegrity.IntegrityMetadata integrity, boolean isDeleted) {
             super(name, path, canRead, canExecute, canWrite, lastModified, size);
             this.isCompressed = isCompressed;
             this.integrity = integrity;
+            this.isDeleted = isDeleted;
         }
         
         @Override
         public String toString() {
+            if (isDeleted) {
+                return String.format("%s (%s) - deleted", name, path);
+            }
             String compression = isCompressed ? " (compressed)" : "";
             String integrityInfo = integrity != null ? " [verified]" : "";
             return String.format("%s (%s) - %s%s%s", name, path, ArchiverAPI.formatSize(size), compression, integrityInfo);
@@ -309,99 +962,469 @@ public class EnhancedArchiverAPI {
     
     /**
      * Lists enhanced archive contents
+     * Uses the central directory when present, otherwise scans through every entry
      * @param archivePath Path to archive
      * @return List of enhanced file information
      * @throws Exception If archive cannot be read
      */
     public List<EnhancedFileInfo> listArchiveContents(String archivePath) throws Exception {
+        return listArchiveContents(archivePath, null);
+    }
+    
+    /**
+     * Checks whether an archive was written by this archiver rather than the legacy one, by its signature
+     * @param archivePath Path to archive
+     * @return True if the archive (or its first volume) starts with the enhanced signature
+     * @throws IOException If the archive cannot be read
+     */
+    public boolean isEnhancedArchive(String archivePath) throws IOException {
         if (!archivePath.endsWith(".archivit")) {
             archivePath += ".archivit";
         }
+        if (!ArchiveSource.exists(archivePath)) {
+            return false;
+        }
         
-        if (!Files.exists(Path.of(archivePath))) {
+        try (ResourceManager rm = new ResourceManager()) {
+            byte[] signature = new ArchiveSource(archivePath, readerEngine, threads, rm).at(0).readNBytes(ArchiveHeader.SIGNATURE.getSize());
+            return Arrays.equals(signature, ArchiveHeader.SIGNATURE.toByteArray());
+        }
+    }
+    
+    /**
+     * Lists enhanced archive contents, decrypting the directory of archives with encrypted metadata
+     * Uses the central directory when present, otherwise scans through every entry. The password is only needed (and
+     * the key only derived) for an encrypted directory, which is read and decrypted at once.
+     * @param archivePath Path to archive
+     * @param password Archive password (null if the metadata is not encrypted)
+     * @return List of enhanced file information
+     * @throws IllegalArgumentException If the metadata is encrypted and the password is missing or incorrect
+     * @throws Exception If archive cannot be read
+     */
+    public List<EnhancedFileInfo> listArchiveContents(String archivePath, String password) throws Exception {
+        if (!archivePath.endsWith(".archivit")) {
+            archivePath += ".archivit";
+        }
+        
+        if (!ArchiveSource.exists(archivePath)) {
             throw new FileNotFoundException("Archive not found: " + archivePath);
         }
         
         try (ResourceManager rm = new ResourceManager()) {
-            BufferedStream.Input bsi = rm.manage(new BufferedStream.Input(new FileInputStream(archivePath)));
-            List<EnhancedFileInfo> files = new ArrayList<>();
+            ArchiveSource source = new ArchiveSource(archivePath, readerEngine, threads, rm);
+            ArchiveHeader header = source.readHeader();
             
-            // Read and verify signature
-            BinaryString signature = new BinaryString();
-            signature.fromByteArray(bsi.readNBytes(SIGNATURE.getSize()));
-            if (!signature.data.equals(SIGNATURE.data)) {
-                throw new IllegalArgumentException("Not an enhanced archive or unsupported format");
+            if (header.version >= 3) {
+                CipherKit kit = null;
+                if (header.hasEncryptedDirectory && password != null) {
+                    kit = rm.manage(new CipherKit(header.nonce, password, header.hasSegmentNonces, header.keyDerivation));
+                }
+                
+                ArchiveDirectory directory;
+                try {
+                    directory = source.readDirectory(header, kit);
+                } catch (AEADBadTagException e) {
+                    throw new IllegalArgumentException("Incorrect password", e);
+                }
+                
+                if (directory != null) {
+                    List<EnhancedFileInfo> files = new ArrayList<>(directory.records.size());
+                    for (ArchiveDirectory.Record record : directory.records) {
+                        files.add(toFileInfo(record.file, header, record.isCompressed, record.integrity, record.isDeleted));
+                    }
+                    return files;
+                }
             }
             
-            // Read format version
-            byte version = bsi.readNBytes(1)[0];
-            if (version != FORMAT_VERSION) {
-                throw new IllegalArgumentException("Unsupported archive format version: " + version);
+            // Entries of archives with compact metadata have no headers to walk
+            if (header.hasCompactMetadata) {
+                throw new IOException("Archive directory is missing, archives with compact metadata cannot be scanned");
             }
+            return scanArchiveContents(source.at(header.length), header);
+        }
+    }
+    
+    /**
+     * Lists archive contents by walking every entry (archives without a central directory)
+     * @param bsi Archive input stream positioned at the first entry
+     * @param header Archive header
+     * @return List of enhanced file information
+     */
+    private List<EnhancedFileInfo> scanArchiveContents(BufferedStream.ReadableStream bsi, ArchiveHeader header) throws IOException {
+        List<EnhancedFileInfo> files = new ArrayList<>();
+        
+        // Read file entries
+        while (bsi.available() > 0) {
+            // Read file metadata
+            SerializableFile fileInfo = new SerializableFile();
+            fileInfo.fromByteArray(bsi.readSegment(BufferedStream.JavaStreamSegmentType.LONG));
             
-            // Read file separator
-            String fileSeparator = new String(bsi.readNBytes(1), StandardCharsets.UTF_8);
-            
-            // Read feature flags
-            byte flags = bsi.readNBytes(1)[0];
-            boolean isPasswordProtected = (flags & 0x01) != 0;
-            boolean hasCompression = (flags & 0x02) != 0;
-            boolean hasIntegrityCheck = (flags & 0x04) != 0;
-            
-            // Skip nonce if password protected
-            if (isPasswordProtected) {
-                bsi.skipNBytes(NONCE_LENGTH);
+            // Read integrity metadata if present
+            DataIntegrity.IntegrityMetadata integrity = null;
+            if (header.hasIntegrityCheck) {
+                byte[] integrityData = bsi.readSegment(BufferedStream.JavaStreamSegmentType.SHORT);
+                integrity = DataIntegrity.IntegrityMetadata.fromByteArray(integrityData);
             }
             
-            // Read file entries
-            while (bsi.available() > 0) {
-                // Read file metadata
-                SerializableFile fileInfo = new SerializableFile();
-                fileInfo.fromByteArray(bsi.readSegment(BufferedStream.JavaStreamSegmentType.LONG));
-                
-                // Read integrity metadata if present
-                DataIntegrity.IntegrityMetadata integrity = null;
-                if (hasIntegrityCheck) {
-                    byte[] integrityData = bsi.readSegment(BufferedStream.JavaStreamSegmentType.SHORT);
-                    integrity = DataIntegrity.IntegrityMetadata.fromByteArray(integrityData);
-                }
-                
-                // Read compression flag
-                boolean isCompressed = bsi.getBoolean();
-                
-                // Skip file data
-                if (isPasswordProtected) {
-                    while (bsi.getBoolean()) {
-                        bsi.skipNBytes(bsi.getLong());
+            // Read codec ID (or compression flag)
+            boolean isCompressed = bsi.readNBytes(1)[0] != StoreCodec.ID;
+            
+            // Skip file data
+            if (header.version == LEGACY_FORMAT_VERSION) {
+                if (header.isPasswordProtected) {
+                    // Version 2 writes no leading flag: a single `0` byte for empty files, segments followed by `has next` otherwise
+                    if (fileInfo.size.data == 0) {
+                        bsi.getBoolean();
+                    } else {
+                        do {
+                            bsi.skipNBytes(bsi.getLong());
+                        } while (bsi.getBoolean());
                     }
                 } else {
                     long dataSize = integrity != null ? integrity.compressedSize : fileInfo.size.data;
-                    bsi.skipNBytes((int) dataSize);
+                    bsi.skipNBytes(dataSize);
                 }
-                
-                // Fix file separator if needed
-                if (!fileSeparator.equals(getFileSeparator())) {
-                    fileInfo.path.data = fileInfo.path.data.replace(fileSeparator, getFileSeparator());
+            } else if (header.isPasswordProtected) {
+                while (bsi.getBoolean()) {
+                    bsi.skipNBytes(bsi.getLong());
                 }
-                
-                files.add(new EnhancedFileInfo(
-                    fileInfo.name.data,
-                    fileInfo.path.data,
-                    fileInfo.canRead.data,
-                    fileInfo.canExecute.data,
-                    fileInfo.canWrite.data,
-                    fileInfo.lastModified.data,
-                    fileInfo.size.data,
-                    isCompressed,
-                    integrity
-                ));
+            } else {
+                bsi.skipNBytes(bsi.getLong());
             }
             
-            return files;
+            files.add(toFileInfo(fileInfo, header, isCompressed, integrity, false));
+        }
+        
+        return files;
+    }
+    
+    private EnhancedFileInfo toFileInfo(SerializableFile fileInfo, ArchiveHeader header, boolean isCompressed,
+                                        DataIntegrity.IntegrityMetadata integrity, boolean isDeleted) {
+        // Fix file separator if needed
+        if (!header.fileSeparator.equals(getFileSeparator())) {
+            fileInfo.path.data = fileInfo.path.data.replace(header.fileSeparator, getFileSeparator());
+        }
+        
+        return new EnhancedFileInfo(
+            fileInfo.name.data,
+            fileInfo.path.data,
+            fileInfo.canRead.data,
+            fileInfo.canExecute.data,
+            fileInfo.canWrite.data,
+            fileInfo.lastModified.data,
+            fileInfo.size.data,
+            isCompressed,
+            integrity,
+            isDeleted
+        );
+    }
+    
+    /**
+     * Extracts a single entry to a file
+     * If `destination` is an existing directory, the entry is written into it under its own name
+     * @param archivePath Path to archive
+     * @param entryPath Relative path of the entry inside the archive
+     * @param destination Destination file or directory
+     * @param password Archive password (null for unencrypted archives)
+     * @return Operation result
+     */
+    public ArchiverAPI.OperationResult extractEntry(String archivePath, String entryPath, Path destination, String password) {
+        try (ResourceManager rm = new ResourceManager()) {
+            return extractEntryInternal(archivePath, entryPath, password, destination, null, rm);
+        } catch (AEADBadTagException e) {
+            return new ArchiverAPI.OperationResult(false, "Incorrect password", e);
+        } catch (Exception e) {
+            return new ArchiverAPI.OperationResult(false, "Entry extraction failed: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Extracts the data of a single entry into a stream
+     * @param archivePath Path to archive
+     * @param entryPath Relative path of the entry inside the archive
+     * @param out Stream receiving the entry data (not closed)
+     * @param password Archive password (null for unencrypted archives)
+     * @return Operation result
+     */
+    public ArchiverAPI.OperationResult extractEntry(String archivePath, String entryPath, OutputStream out, String password) {
+        try (ResourceManager rm = new ResourceManager()) {
+            return extractEntryInternal(archivePath, entryPath, password, null, out, rm);
+        } catch (AEADBadTagException e) {
+            return new ArchiverAPI.OperationResult(false, "Incorrect password", e);
+        } catch (Exception e) {
+            return new ArchiverAPI.OperationResult(false, "Entry extraction failed: " + e.getMessage(), e);
+        }
+    }
+    
+    private ArchiverAPI.OperationResult extractEntryInternal(String archivePath, String entryPath, String password,
+                                                            Path destination, OutputStream out,
+                                                            ResourceManager rm) throws Exception {
+        if (entryPath == null || entryPath.trim().isEmpty()) {
+            return new ArchiverAPI.OperationResult(false, "Entry path cannot be empty");
+        }
+        
+        if (!archivePath.endsWith(".archivit")) {
+            archivePath += ".archivit";
+        }
+        
+        if (!ArchiveSource.exists(archivePath)) {
+            return new ArchiverAPI.OperationResult(false, "Archive not found: " + archivePath);
+        }
+        
+        ArchiveSource source = new ArchiveSource(archivePath, readerEngine, threads, rm);
+        ArchiveHeader header = source.readHeader();
+        
+        CipherKit kit = null;
+        if (header.isPasswordProtected) {
+            if (password == null) {
+                return new ArchiverAPI.OperationResult(false, "Archive is password-protected but no password provided");
+            }
+            kit = rm.manage(new CipherKit(header.nonce, password, header.hasSegmentNonces, header.keyDerivation));
+        }
+        
+        ArchiveDirectory directory = header.version >= 3 ? source.readDirectory(header, kit) : null;
+        if (directory == null) {
+            return new ArchiverAPI.OperationResult(false, "Archive has no central directory, extract the whole archive instead");
+        }
+        
+        ArchiveDirectory.Record record = findEntry(directory, header, entryPath);
+        if (record == null) {
+            return new ArchiverAPI.OperationResult(false, "Entry not found in archive: " + entryPath);
+        }
+        
+        if (out != null) {
+            source.readEntryData(header, directory, record, kit, out);
+            out.flush();
+            return new ArchiverAPI.OperationResult(true, "Entry extracted successfully: " + entryPath);
+        }
+        
+        if (Files.isDirectory(destination)) {
+            destination = destination.resolve(record.file.name.data);
+        }
+        
+        if (!source.extractToFile(header, directory, record, kit, destination, null)) {
+            return new ArchiverAPI.OperationResult(false, "Failed to write entry to: " + destination);
+        }
+        
+        return new ArchiverAPI.OperationResult(true, "Entry extracted successfully to: " + destination);
+    }
+    
+    /**
+     * Reads part of an entry into a stream
+     * Only the blocks (or chunks) covering the range are decoded; entries stored as a single unit are decoded whole.
+     * @param archivePath Path to archive
+     * @param entryPath Relative path of the entry inside the archive
+     * @param offset Offset of the first byte to read
+     * @param length Number of bytes to read (fewer if the entry ends before)
+     * @param out Stream receiving the data (not closed)
+     * @param password Archive password (null for unencrypted archives)
+     * @return Operation result
+     */
+    public ArchiverAPI.OperationResult readRange(String archivePath, String entryPath, long offset, long length,
+                                                OutputStream out, String password) {
+        try (ResourceManager rm = new ResourceManager()) {
+            return readRangeInternal(archivePath, entryPath, offset, length, out, password, rm);
+        } catch (AEADBadTagException e) {
+            return new ArchiverAPI.OperationResult(false, "Incorrect password", e);
+        } catch (Exception e) {
+            return new ArchiverAPI.OperationResult(false, "Range read failed: " + e.getMessage(), e);
+        }
+    }
+    
+    private ArchiverAPI.OperationResult readRangeInternal(String archivePath, String entryPath, long offset, long length,
+                                                         OutputStream out, String password,
+                                                         ResourceManager rm) throws Exception {
+        if (entryPath == null || entryPath.trim().isEmpty()) {
+            return new ArchiverAPI.OperationResult(false, "Entry path cannot be empty");
+        }
+        if (offset < 0 || length < 0) {
+            return new ArchiverAPI.OperationResult(false, "Range offset and length cannot be negative");
+        }
+        
+        if (!archivePath.endsWith(".archivit")) {
+            archivePath += ".archivit";
+        }
+        
+        if (!ArchiveSource.exists(archivePath)) {
+            return new ArchiverAPI.OperationResult(false, "Archive not found: " + archivePath);
+        }
+        
+        ArchiveSource source = new ArchiveSource(archivePath, readerEngine, threads, rm);
+        ArchiveHeader header = source.readHeader();
+        
+        CipherKit kit = null;
+        if (header.isPasswordProtected) {
+            if (password == null) {
+                return new ArchiverAPI.OperationResult(false, "Archive is password-protected but no password provided");
+            }
+            kit = rm.manage(new CipherKit(header.nonce, password, header.hasSegmentNonces, header.keyDerivation));
+        }
+        
+        ArchiveDirectory directory = header.version >= 3 ? source.readDirectory(header, kit) : null;
+        if (directory == null) {
+            return new ArchiverAPI.OperationResult(false, "Archive has no central directory, extract the whole archive instead");
+        }
+        
+        ArchiveDirectory.Record record = findEntry(directory, header, entryPath);
+        if (record == null) {
+            return new ArchiverAPI.OperationResult(false, "Entry not found in archive: " + entryPath);
+        }
+        if (offset > record.file.size.data) {
+            return new ArchiverAPI.OperationResult(false, "Range starts after the end of the entry (" + record.file.size.data + " bytes)");
+        }
+        
+        long end = offset + Math.min(length, record.file.size.data - offset);
+        source.readEntryRange(header, directory, record, kit, offset, end, out);
+        out.flush();
+        
+        return new ArchiverAPI.OperationResult(true, "Read " + (end - offset) + " bytes of entry: " + entryPath);
+    }
+    
+    /**
+     * Restores the state captured by an archive chain: the full archive, then each increment in order
+     * A single full archive restores it completely.
+     * @param archivePaths Full archive followed by its increments, in order
+     * @param destinationPath Destination directory
+     * @param password Archive password (null for unencrypted archives)
+     * @param progressCallback Optional progress callback
+     * @return Operation result
+     */
+    public ArchiverAPI.OperationResult restoreArchive(List<String> archivePaths, String destinationPath, String password,
+                                                     ArchiverAPI.ProgressCallback progressCallback) {
+        return restoreArchive(archivePaths, destinationPath, password, false, progressCallback);
+    }
+    
+    /**
+     * Restores the state captured by an archive chain, optionally materialising references to identical files as hard
+     * links instead of copies
+     * @param archivePaths Full archive followed by its increments, in order
+     * @param destinationPath Destination directory
+     * @param password Archive password (null for unencrypted archives)
+     * @param createHardLinks Link references to the restored file they share data with (copies if linking fails)
+     * @param progressCallback Optional progress callback
+     * @return Operation result
+     */
+    public ArchiverAPI.OperationResult restoreArchive(List<String> archivePaths, String destinationPath, String password,
+                                                     boolean createHardLinks,
+                                                     ArchiverAPI.ProgressCallback progressCallback) {
+        try (ResourceManager rm = new ResourceManager()) {
+            return restoreArchiveInternal(archivePaths, destinationPath, password, createHardLinks, progressCallback, rm);
+        } catch (AEADBadTagException e) {
+            return new ArchiverAPI.OperationResult(false, "Incorrect password", e);
+        } catch (Exception e) {
+            return new ArchiverAPI.OperationResult(false, "Archive restore failed: " + e.getMessage(), e);
+        }
+    }
+    
+    private ArchiverAPI.OperationResult restoreArchiveInternal(List<String> archivePaths, String destinationPath,
+                                                              String password, boolean createHardLinks,
+                                                              ArchiverAPI.ProgressCallback progressCallback,
+                                                              ResourceManager rm) throws Exception {
+        if (archivePaths == null || archivePaths.isEmpty()) {
+            return new ArchiverAPI.OperationResult(false, "No archives to restore from");
+        }
+        if (destinationPath == null || destinationPath.trim().isEmpty()) {
+            return new ArchiverAPI.OperationResult(false, "Destination path cannot be empty");
+        }
+        
+        // Each archive of the chain has its own nonce
+        Map<ArchiveHeader, CipherKit> kits = new HashMap<>();
+        
+        Map<String, ArchiveChain.Entry> entries = ArchiveChain.read(archivePaths, password, kits, readerEngine, threads, rm);
+        
+        // Restored files by record, to link references to
+        Map<ArchiveDirectory.Record, Path> restoredFiles = new IdentityHashMap<>();
+        
+        // Entries of a directory share its path, so each directory is created once
+        Set<Path> createdDirectories = new HashSet<>();
+        
+        Path destinationRoot = Path.of(destinationPath).toAbsolutePath().normalize();
+        
+        int processedCount = 0;
+        long totalBytes = 0;
+        for (Map.Entry<String, ArchiveChain.Entry> entry : entries.entrySet()) {
+            String relativePath = entry.getKey();
+            ArchiveChain.Entry chainEntry = entry.getValue();
+            
+            if (progressCallback != null) {
+                progressCallback.onProgress("restore", relativePath, processedCount, entries.size());
+            }
+            
+            CipherKit kit = null;
+            if (chainEntry.header.isPasswordProtected) {
+                if (password == null) {
+                    return new ArchiverAPI.OperationResult(false, "Archive is password-protected but no password provided");
+                }
+                kit = kits.get(chainEntry.header);
+                if (kit == null) {
+                    kit = rm.manage(new CipherKit(chainEntry.header.nonce, password,
+                        chainEntry.header.hasSegmentNonces, chainEntry.header.keyDerivation));
+                    kits.put(chainEntry.header, kit);
+                }
+            }
+            
+            // Entry paths come from the archive, none may lead outside the destination
+            Path destination = destinationRoot.resolve(relativePath).normalize();
+            if (!destination.startsWith(destinationRoot)) {
+                return new ArchiverAPI.OperationResult(false, "Path traversal attempt detected: " + relativePath);
+            }
+            if (createHardLinks && chainEntry.linkReference(destination, restoredFiles, createdDirectories)) {
+                processedCount++;
+                totalBytes += chainEntry.record.file.size.data;
+                continue;
+            }
+            
+            try {
+                if (!chainEntry.source.extractToFile(chainEntry.header, chainEntry.directory, chainEntry.record, kit,
+                        destination, createdDirectories)) {
+                    return new ArchiverAPI.OperationResult(false, "Failed to write entry to: " + destination);
+                }
+            } catch (AEADBadTagException e) {
+                throw e;
+            } catch (Exception e) {
+                if (progressCallback != null) {
+                    progressCallback.onError("restore", relativePath, e);
+                }
+                throw e;
+            }
+            
+            if (createHardLinks) {
+                restoredFiles.put(chainEntry.record, destination);
+            }
+            processedCount++;
+            totalBytes += chainEntry.record.file.size.data;
+        }
+        
+        if (progressCallback != null) {
+            progressCallback.onComplete("restore", processedCount, totalBytes);
+        }
+        
+        return new ArchiverAPI.OperationResult(true, "Archive restored successfully (" + processedCount + " files from "
+            + archivePaths.size() + " archives) to: " + destinationPath);
+    }
+    
+    /**
+     * Looks up an entry by its relative path, accepting either `/` or `\` as separator
+     * @param directory Archive directory
+     * @param header Archive header
+     * @param entryPath Relative entry path
+     * @return Directory record, or null if not found
+     */
+    private ArchiveDirectory.Record findEntry(ArchiveDirectory directory, ArchiveHeader header, String entryPath) {
+        String normalizedPath = entryPath.replace("/", header.fileSeparator).replace("\\", header.fileSeparator);
+        while (normalizedPath.startsWith(header.fileSeparator)) {
+            normalizedPath = normalizedPath.substring(1);
+        }
+        
+        for (ArchiveDirectory.Record record : directory.records) {
+            if (!record.isDeleted && record.file.path.data.equals(normalizedPath)) {
+                return record;
+            }
         }
+        return null;
     }
     
-    private String getFileSeparator() {
+    static String getFileSeparator() {
         return System.getProperty("file.separator");
     }
 }
\ No newline at end of file
@@ -0,0 +1,617 @@
+package Utilities;
+
+import Models.Codec;
+import Utilities.Codecs.StoreCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Writes entries and stores their records in the archive directory, deduplicating files and chunks if enabled
+ * Files are only read into memory as a whole if they go into a solid block or are stored as a single unit, all other
+ * files are streamed with a bounded buffer. Blocks, chunks and solid blocks are compressed on a worker pool and
+ * written in order. File data, blocks, chunks and encrypted segments are held in arrays of {@link BufferPool#SHARED}
+ * no larger than they need, handed back as soon as they are written.
+ */
+class EntryWriter {
+    final BufferedStream.Output bso;
+    final ArchiveDirectory directory;
+    final Codec codec; // null unless compression is enabled
+    final boolean enableIntegrityCheck;
+    final CipherKit kit; // null for unencrypted archives
+    final int segmentSize; // size of the encrypted segments
+    final ChunkStore chunkStore; // null unless chunks are deduplicated
+    final DedupStatistics statistics; // null unless deduplication is enabled
+    final CompressionStatistics compressionStatistics; // null unless compression is enabled
+    final WorkerPool workers;
+    AdaptiveCompression adaptive; // null unless the level adapts to a target throughput or deadline
+
+    /**
+     * Data of the solid block being filled (null unless solid blocks are enabled), appended to the block table of
+     * the directory once full
+     */
+    final ByteArrayOutputStream solidBlock;
+    final int solidBlockSize;
+    final int compressionBlockSize;
+
+    /**
+     * Full solid blocks being compressed, which take the next indices of the block table once written
+     */
+    final Deque<Future<EncodedBlock>> pendingBlocks = new ArrayDeque<>();
+
+    /**
+     * Record indices by file key (device and inode on Unix) and by size + SHA-256, null unless files are deduplicated
+     */
+    final Map<Object, Integer> linkedFiles;
+    final Map<ByteBuffer, Integer> identicalFiles;
+
+    /**
+     * @param bso Archive output stream
+     * @param directory Directory receiving the records
+     * @param codec Codec compressing the data if beneficial (null to disable compression)
+     * @param enableIntegrityCheck Write integrity metadata
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param segmentSize Size of the encrypted segments
+     * @param chunkSize Average chunk size for chunk deduplication (0 to disable)
+     * @param dedupFiles Store hard-linked and identical files once
+     * @param solidBlockSize Size of the solid blocks small files are stored in (0 to disable)
+     * @param compressionBlockSize Size of the blocks large files are split into (0 to disable)
+     * @param workers Pool compressing blocks, chunks and solid blocks
+     */
+    EntryWriter(BufferedStream.Output bso, ArchiveDirectory directory, Codec codec,
+                boolean enableIntegrityCheck, CipherKit kit, int segmentSize, int chunkSize, boolean dedupFiles,
+                int solidBlockSize, int compressionBlockSize, WorkerPool workers) {
+        this.bso = bso;
+        this.directory = directory;
+        this.codec = codec;
+        this.enableIntegrityCheck = enableIntegrityCheck;
+        this.kit = kit;
+        this.segmentSize = segmentSize;
+        this.workers = workers;
+
+        ContentChunker chunker = chunkSize > 0 ? new ContentChunker(chunkSize) : null;
+        this.statistics = chunker != null || dedupFiles ? new DedupStatistics(chunker) : null;
+        this.compressionStatistics = codec != null ? new CompressionStatistics(codec.getName()) : null;
+        this.chunkStore = chunker != null
+            ? new ChunkStore(chunker, directory.chunks, statistics, compressionStatistics, workers) : null;
+        this.linkedFiles = dedupFiles ? new HashMap<>() : null;
+        this.identicalFiles = dedupFiles ? new HashMap<>() : null;
+        this.solidBlock = solidBlockSize > 0 ? new ByteArrayOutputStream() : null;
+        this.solidBlockSize = solidBlockSize;
+        this.compressionBlockSize = compressionBlockSize;
+    }
+
+    /**
+     * Adapts the compression level to a target throughput or deadline from now on (no effect if both are 0 or
+     * compression is disabled)
+     * @param targetThroughput Bytes per second to keep up with (0 if only the deadline matters)
+     * @param deadlineSeconds Seconds from now to finish in (0 if only the target throughput matters)
+     * @param totalBytes Bytes of the files to write
+     */
+    void adaptCompression(long targetThroughput, long deadlineSeconds, long totalBytes) {
+        if ((targetThroughput > 0 || deadlineSeconds > 0) && codec != null && codec.getId() != StoreCodec.ID) {
+            adaptive = new AdaptiveCompression(codec, targetThroughput, deadlineSeconds, totalBytes, workers.threads,
+                compressionStatistics);
+        }
+    }
+
+    /**
+     * Returns the codec of the next entry, block, chunk or solid block
+     * @param length Length of its data
+     * @return Codec (null if compression is disabled)
+     */
+    Codec nextCodec(long length) {
+        return adaptive != null ? adaptive.next(length) : codec;
+    }
+
+    /**
+     * Writes a file (or a reference to an identical file written before) and stores its record in the directory
+     * Small files of solid archives are only buffered, {@link #finish()} writes the last block.
+     * @param file Absolute file path
+     * @param relativePath Path of the entry inside the archive
+     * @param index Index of the record in the directory (the record count to append)
+     * @return Directory record of the written entry
+     */
+    ArchiveDirectory.Record write(String file, String relativePath, int index) throws Exception {
+        SerializableFile serializableFile = new SerializableFile(file, relativePath);
+        Path path = Path.of(file);
+
+        // Hard links are recognised without reading the file
+        Object fileKey = null;
+        if (linkedFiles != null) {
+            fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            Integer target = fileKey != null ? linkedFiles.get(fileKey) : null;
+            if (target != null) {
+                statistics.hardLinks++;
+                return writeReference(serializableFile, target, true, index);
+            }
+        }
+
+        long size = Files.size(path);
+        boolean isSolid = solidBlock != null && size > 0 && size <= Math.min(EnhancedArchiverAPI.SOLID_FILE_MAX_SIZE, solidBlockSize);
+        boolean isStreamed = !isSolid
+            && (chunkStore != null || size > (compressionBlockSize > 0 ? compressionBlockSize : EnhancedArchiverAPI.MAX_UNBLOCKED_FILE_SIZE));
+        byte[] fileData = isStreamed ? null : readFile(path, (int) size, relativePath);
+
+        ArchiveDirectory.Record record;
+        ByteBuffer contentKey = null;
+        try {
+            if (identicalFiles != null) {
+                // Streamed files are read once more to find identical ones before anything is written
+                contentKey = ByteBuffer.allocate(Long.BYTES + 32).putLong(size)
+                    .put(fileData != null ? DataIntegrity.calculateSHA256Digest(ByteBuffer.wrap(fileData, 0, (int) size))
+                        : checksum(path).digest())
+                    .flip();
+                Integer target = identicalFiles.get(contentKey);
+                if (target != null) {
+                    statistics.duplicateFiles++;
+                    return writeReference(serializableFile, target, false, index);
+                }
+            }
+
+            record = isSolid ? writeSolid(serializableFile, fileData, (int) size)
+                : isStreamed ? writeStreamed(serializableFile, path, relativePath)
+                : writeEntry(serializableFile, fileData, (int) size, relativePath);
+        } finally {
+            BufferPool.SHARED.release(fileData);
+        }
+        put(index, record);
+
+        if (statistics != null) {
+            statistics.logicalBytes += size;
+            if (chunkStore == null || record.block >= 0) {
+                statistics.uniqueBytes += size;
+            }
+        }
+        if (fileKey != null) {
+            linkedFiles.put(fileKey, index);
+        }
+        if (contentKey != null) {
+            identicalFiles.put(contentKey, index);
+        }
+        return record;
+    }
+
+    /**
+     * Reads a file stored as a single unit or in a solid block into an array of the buffer pool
+     * @param path File to read
+     * @param size Size of the file
+     * @param relativePath Path of the entry (for errors)
+     * @return Array holding the file data in its first `size` bytes, to be released once the file is written
+     * @throws IOException If the file cannot be read or its size changed
+     */
+    private byte[] readFile(Path path, int size, String relativePath) throws IOException {
+        byte[] buffer = BufferPool.SHARED.acquire(size);
+        try (InputStream in = Files.newInputStream(path)) {
+            if (in.readNBytes(buffer, 0, size) != size || in.read() != -1) {
+                throw new IOException("File changed while being archived: " + relativePath);
+            }
+            return buffer;
+        } catch (IOException e) {
+            BufferPool.SHARED.release(buffer);
+            throw e;
+        }
+    }
+
+    private ArchiveDirectory.Record writeReference(SerializableFile file, int target, boolean isHardLink, int index) {
+        ArchiveDirectory.Record record = ArchiveDirectory.Record.reference(file, directory.records.get(target),
+            target, isHardLink);
+        put(index, record);
+        statistics.logicalBytes += file.size.data;
+        return record;
+    }
+
+    /**
+     * Writes the solid block being filled, if any, and the blocks still being compressed (to be called after the
+     * last file)
+     */
+    void finish() throws Exception {
+        finishBlock();
+        while (!pendingBlocks.isEmpty()) {
+            writePendingBlock();
+        }
+    }
+
+    /**
+     * Hands the solid block being filled, if any, to the worker pool
+     */
+    private void finishBlock() throws Exception {
+        if (solidBlock == null || solidBlock.size() == 0) {
+            return;
+        }
+
+        byte[] block = solidBlock.toByteArray();
+        solidBlock.reset();
+
+        pendingBlocks.add(encodeBlock(workers, block, block.length, null, nextCodec(block.length), false, compressionStatistics,
+            "solid block " + (directory.blocks.size() + pendingBlocks.size()), kit, segmentSize));
+        if (pendingBlocks.size() >= workers.getMaxPending()) {
+            writePendingBlock();
+        }
+    }
+
+    private void writePendingBlock() throws Exception {
+        directory.blocks.add(writeBlock(bso, WorkerPool.await(pendingBlocks.poll())));
+    }
+
+    /**
+     * Appends a file to the solid block being filled, writing the block once it reaches the block size
+     * @param serializableFile Entry metadata
+     * @param fileData Array holding the file data
+     * @param length Length of the file data (not zero)
+     * @return Directory record of the entry
+     */
+    private ArchiveDirectory.Record writeSolid(SerializableFile serializableFile, byte[] fileData,
+                                               int length) throws Exception {
+        // Start a new block rather than growing the current one past the block size
+        if (solidBlock.size() > 0 && solidBlock.size() + length > solidBlockSize) {
+            finishBlock();
+        }
+
+        DataIntegrity.IntegrityMetadata integrity = null;
+        if (enableIntegrityCheck) {
+            integrity = new DataIntegrity.IntegrityMetadata(
+                DataIntegrity.calculateSHA256(ByteBuffer.wrap(fileData, 0, length)),
+                DataIntegrity.calculateCRC32(ByteBuffer.wrap(fileData, 0, length)),
+                false,
+                length,
+                length
+            );
+        }
+
+        // The block being filled becomes the next entry of the block table
+        ArchiveDirectory.Record record = ArchiveDirectory.Record.solid(serializableFile, integrity,
+            directory.blocks.size() + pendingBlocks.size(), solidBlock.size());
+        solidBlock.write(fileData, 0, length);
+
+        if (solidBlock.size() >= solidBlockSize) {
+            finishBlock();
+        }
+        return record;
+    }
+
+    /**
+     * Streams a file into the archive: as content-defined chunks if chunks are deduplicated, otherwise as fixed-size
+     * blocks, each compressed and framed on its own and listed in the chunk table
+     * @param serializableFile Entry metadata
+     * @param path File to read
+     * @param relativePath Path of the entry inside the archive
+     * @return Directory record of the entry
+     */
+    private ArchiveDirectory.Record writeStreamed(SerializableFile serializableFile, Path path,
+                                                  String relativePath) throws Exception {
+        long dataOffset = bso.getPosition();
+        DataIntegrity.Checksum checksum = enableIntegrityCheck ? new DataIntegrity.Checksum() : null;
+
+        int[] chunks;
+        try (InputStream in = Files.newInputStream(path)) {
+            chunks = chunkStore != null
+                ? chunkStore.write(bso, in, serializableFile.size.data, checksum, relativePath, this::nextCodec, kit,
+                    segmentSize)
+                : writeBlocks(in, serializableFile.size.data, checksum, relativePath);
+        }
+
+        long length = 0;
+        for (int chunk : chunks) {
+            length += directory.chunks.get(chunk).length;
+        }
+        if (length != serializableFile.size.data) {
+            throw new IOException("File changed while being archived: " + relativePath);
+        }
+
+        return ArchiveDirectory.Record.chunked(serializableFile, dataOffset, bso.getPosition() - dataOffset, chunks,
+            checksum != null ? checksum.toMetadata() : null);
+    }
+
+    /**
+     * Writes data as fixed-size blocks, reading ahead only as many blocks as the worker pool compresses at once
+     * Each block is read into an array of the buffer pool of no more than the bytes left, released once written.
+     * @param in File data
+     * @param size Size of the file
+     * @param checksum Checksum to update with the data (null if integrity checks are disabled)
+     * @param relativePath Path of the entry (for warnings)
+     * @return Indices of the blocks in the chunk table
+     * @throws IOException If the file is shorter or longer than `size`
+     */
+    private int[] writeBlocks(InputStream in, long size, DataIntegrity.Checksum checksum,
+                              String relativePath) throws Exception {
+        int blockSize = compressionBlockSize > 0 ? compressionBlockSize : EnhancedArchiverAPI.DEFAULT_COMPRESSION_BLOCK_SIZE;
+        List<Integer> chunks = new ArrayList<>();
+        Deque<Future<EncodedBlock>> pending = new ArrayDeque<>();
+
+        long remaining = size;
+        while (remaining > 0) {
+            int length = (int) Math.min(blockSize, remaining);
+            byte[] block = BufferPool.SHARED.acquire(length);
+            if (in.readNBytes(block, 0, length) != length) {
+                throw new IOException("File changed while being archived: " + relativePath);
+            }
+            if (checksum != null) {
+                checksum.update(block, 0, length);
+            }
+            pending.add(encodeBlock(workers, block, length, null, nextCodec(length),
+                chunks.isEmpty() && pending.isEmpty(), compressionStatistics, relativePath, kit, segmentSize));
+            remaining -= length;
+
+            // Write the oldest blocks once enough are in flight, and all of them after the last one
+            while (!pending.isEmpty() && (pending.size() >= workers.getMaxPending() || remaining == 0)) {
+                chunks.add(directory.chunks.size());
+                directory.chunks.add(writeBlock(bso, WorkerPool.await(pending.poll())));
+            }
+        }
+        if (in.read() != -1) {
+            throw new IOException("File changed while being archived: " + relativePath);
+        }
+
+        return chunks.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void put(int index, ArchiveDirectory.Record record) {
+        if (index == directory.records.size()) {
+            directory.records.add(record);
+        } else {
+            directory.records.set(index, record);
+        }
+    }
+
+    /**
+     * Writes a single entry (metadata, integrity metadata, codec ID and framed data, or only the framed data
+     * with compact metadata) at the current position
+     * @param serializableFile Entry metadata
+     * @param fileData Array holding the file data
+     * @param length Length of the file data
+     * @param relativePath Path of the entry inside the archive
+     * @return Directory record of the written entry
+     */
+    private ArchiveDirectory.Record writeEntry(SerializableFile serializableFile, byte[] fileData, int length,
+                                              String relativePath) throws Exception {
+        // Apply compression if enabled and beneficial
+        Codec codec = nextCodec(length);
+        byte[] processedData = compressIfBeneficial(codec, fileData, length, true, compressionStatistics, relativePath);
+        boolean isCompressed = processedData != fileData;
+        int processedLength = isCompressed ? processedData.length : length;
+        int codecId = isCompressed ? codec.getId() : StoreCodec.ID;
+
+        // Create integrity metadata
+        DataIntegrity.IntegrityMetadata integrity = null;
+        if (enableIntegrityCheck) {
+            integrity = new DataIntegrity.IntegrityMetadata(
+                DataIntegrity.calculateSHA256(ByteBuffer.wrap(processedData, 0, processedLength)),
+                DataIntegrity.calculateCRC32(ByteBuffer.wrap(processedData, 0, processedLength)),
+                isCompressed,
+                length,
+                processedLength
+            );
+        }
+
+        // Write file metadata, integrity metadata if enabled and codec ID (only kept in the directory of archives
+        // with compact metadata)
+        long entryOffset = -1;
+        if (!directory.isCompact) {
+            entryOffset = bso.getPosition();
+            bso.writeSegment(serializableFile.toByteArray(), BufferedStream.JavaStreamSegmentType.LONG);
+            if (integrity != null) {
+                bso.writeSegment(integrity.toByteArray(), BufferedStream.JavaStreamSegmentType.SHORT);
+            }
+            bso.write(codecId);
+        }
+        long dataOffset = bso.getPosition();
+
+        writeData(bso, processedData, processedLength, kit, segmentSize);
+
+        // Lets increments compare the file with this entry without compressing it again
+        byte[] digest = integrity != null && isCompressed
+            ? DataIntegrity.calculateSHA256Digest(ByteBuffer.wrap(fileData, 0, length)) : null;
+        return new ArchiveDirectory.Record(serializableFile, entryOffset, dataOffset,
+            bso.getPosition() - dataOffset, codecId, integrity, digest);
+    }
+
+    /**
+     * Computes the checksum of a file without reading it into memory
+     * @param file File to checksum
+     * @return Checksum of the file data
+     */
+    static DataIntegrity.Checksum checksum(Path file) throws IOException {
+        DataIntegrity.Checksum checksum = new DataIntegrity.Checksum();
+        byte[] buffer = BufferPool.SHARED.acquire(65536);
+        try (InputStream in = Files.newInputStream(file)) {
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                checksum.update(buffer, 0, count);
+            }
+        } finally {
+            BufferPool.SHARED.release(buffer);
+        }
+        return checksum;
+    }
+
+    /**
+     * Compresses data if it is likely to pay off
+     * @param codec Codec (null if compression is disabled)
+     * @param data Array holding the data to compress
+     * @param length Length of the data
+     * @param detectFormat Skip data starting with the signature of a compressed format (for data at the start of a file)
+     * @param statistics Statistics recording the decision (null if compression is disabled)
+     * @param relativePath Path of the entry (for warnings)
+     * @return Compressed data, or `data` itself if compression was skipped or saved less than 10%
+     */
+    private static byte[] compressIfBeneficial(Codec codec, byte[] data, int length, boolean detectFormat,
+                                               CompressionStatistics statistics, String relativePath) {
+        if (codec == null || codec.getId() == StoreCodec.ID) {
+            return data;
+        }
+
+        long start = System.nanoTime();
+        CompressibilityEstimator.Decision decision = CompressibilityEstimator.estimate(data, length, detectFormat);
+        byte[] processedData = data;
+        if (decision == CompressibilityEstimator.Decision.COMPRESS) {
+            try {
+                // Only use if saves at least 10%, giving up as soon as the output gets longer
+                byte[] compressed = codec.compress(data, length, (int) Math.ceil(length * 0.9) - 1);
+                if (compressed != null) {
+                    processedData = compressed;
+                }
+            } catch (IOException e) {
+                // Compression failed, use original data
+                System.err.println("Warning: Compression failed for " + relativePath + ": " + e.getMessage());
+            }
+        }
+        statistics.record(decision, codec, length, processedData != data ? processedData.length : length,
+            System.nanoTime() - start);
+        return processedData;
+    }
+
+    /**
+     * Block of a large file, deduplicated chunk or solid block, compressed, hashed (and encrypted) and ready to be
+     * written
+     */
+    static class EncodedBlock {
+        final byte[] data; // original data in its first `length` bytes
+        final int length;
+        final byte[] processedData; // `data` itself if it was not compressed
+        final int processedLength;
+        final List<ByteBuffer> encryptedSegments; // null for unencrypted archives, arrays of the buffer pool otherwise
+        final int codec; // codec ID of the processed data
+        final byte[] sha256;
+
+        EncodedBlock(byte[] data, int length, byte[] processedData, int processedLength,
+                     List<ByteBuffer> encryptedSegments, int codec, byte[] sha256) {
+            this.data = data;
+            this.length = length;
+            this.processedData = processedData;
+            this.processedLength = processedLength;
+            this.encryptedSegments = encryptedSegments;
+            this.codec = codec;
+            this.sha256 = sha256;
+        }
+    }
+
+    /**
+     * Compresses (if beneficial), hashes and encrypts a block on the worker pool
+     * @param workers Worker pool
+     * @param data Array holding the original block data (not modified until the block is written, then handed back to
+     *             the buffer pool)
+     * @param length Length of the block data
+     * @param sha256 SHA-256 digest of the data if already known, otherwise null
+     * @param codec Codec compressing the data if beneficial (null to disable compression)
+     * @param detectFormat Skip data starting with the signature of a compressed format (for data at the start of a file)
+     * @param statistics Statistics recording the compression decision (null if compression is disabled)
+     * @param relativePath Path of the entry (for warnings)
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param segmentSize Size of the encrypted segments
+     * @return Future of the encoded block
+     */
+    static Future<EncodedBlock> encodeBlock(WorkerPool workers, byte[] data, int length, byte[] sha256,
+                                            Codec codec, boolean detectFormat, CompressionStatistics statistics,
+                                            String relativePath, CipherKit kit, int segmentSize) {
+        return workers.submit(() -> {
+            byte[] processedData = compressIfBeneficial(codec, data, length, detectFormat, statistics, relativePath);
+            int processedLength = processedData != data ? processedData.length : length;
+            return new EncodedBlock(data, length, processedData, processedLength,
+                kit != null ? encryptSegments(processedData, processedLength, kit, segmentSize) : null,
+                processedData != data ? codec.getId() : StoreCodec.ID,
+                sha256 != null ? sha256 : DataIntegrity.calculateSHA256Digest(ByteBuffer.wrap(data, 0, length)));
+        });
+    }
+
+    /**
+     * Writes an encoded block at the current position and hands its arrays back to the buffer pool
+     * @param bso Archive output stream
+     * @param block Encoded block
+     * @return Chunk table entry of the block
+     */
+    static ArchiveDirectory.Chunk writeBlock(BufferedStream.Output bso, EncodedBlock block) throws Exception {
+        long offset = bso.getPosition();
+        if (block.encryptedSegments != null) {
+            writeSegments(bso, block.encryptedSegments);
+            for (ByteBuffer segment : block.encryptedSegments) {
+                BufferPool.SHARED.release(segment.array());
+            }
+        } else {
+            // Same framing as a LONG segment
+            bso.putLong(block.processedLength);
+            bso.write(block.processedData, 0, block.processedLength);
+        }
+        BufferPool.SHARED.release(block.data);
+        return new ArchiveDirectory.Chunk(offset, bso.getPosition() - offset, block.length, block.codec, block.sha256);
+    }
+
+    /**
+     * Writes framed (and encrypted, if enabled) data
+     * <li>Unencrypted: a single LONG segment</li>
+     * <li>Encrypted: `1` if there is at least one segment (otherwise `0`), then LONG segments each followed by `has next`</li>
+     * @param bso Archive output stream
+     * @param processedData Array holding the data to write
+     * @param dataLength Length of the data
+     * @param kit Cipher kit (null for unencrypted archives)
+     * @param segmentSize Size of the encrypted segments
+     */
+    private static void writeData(BufferedStream.Output bso, byte[] processedData, int dataLength, CipherKit kit,
+                                  int segmentSize) throws Exception {
+        if (kit != null) {
+            // Encrypt each segment into the buffer of this thread, which is written out before the next one
+            bso.putBoolean(dataLength > 0);
+            for (int offset = 0; offset < dataLength; offset += segmentSize) {
+                int length = Math.min(segmentSize, dataLength - offset);
+                ByteBuffer segment = WorkerContext.get().buffer(kit.segmentLength(length));
+                kit.encryptSegment(ByteBuffer.wrap(processedData, offset, length), segment);
+                bso.putLong(segment.position());
+                bso.write(segment.array(), 0, segment.position());
+                bso.putBoolean(offset + length < dataLength);
+            }
+        } else {
+            // Write unencrypted data as a single segment
+            bso.putLong(dataLength);
+            bso.write(processedData, 0, dataLength);
+        }
+    }
+
+    /**
+     * Encrypts data as segments of at most `segmentSize` bytes, each with its own nonce in archives with segment
+     * nonces (safe to run on the worker pool)
+     * @param processedData Array holding the data to encrypt
+     * @param dataLength Length of the data
+     * @param kit Cipher kit
+     * @param segmentSize Size of the segments
+     * @return Encrypted segments in arrays of the buffer pool (none if the data is empty)
+     */
+    private static List<ByteBuffer> encryptSegments(byte[] processedData, int dataLength, CipherKit kit,
+                                                    int segmentSize) throws Exception {
+        List<ByteBuffer> segments = new ArrayList<>();
+        for (int offset = 0; offset < dataLength; offset += segmentSize) {
+            int length = Math.min(segmentSize, dataLength - offset);
+            ByteBuffer segment = ByteBuffer.wrap(BufferPool.SHARED.acquire(kit.segmentLength(length)));
+            kit.encryptSegment(ByteBuffer.wrap(processedData, offset, length), segment);
+            segments.add(segment.flip());
+        }
+        return segments;
+    }
+
+    /**
+     * Writes encrypted segments: `1` if there is at least one segment (otherwise `0`), then LONG segments each
+     * followed by `has next`
+     * @param bso Archive output stream
+     * @param segments Encrypted segments
+     */
+    private static void writeSegments(BufferedStream.Output bso, List<ByteBuffer> segments) throws IOException {
+        bso.putBoolean(!segments.isEmpty());
+        for (int i = 0; i < segments.size(); i++) {
+            ByteBuffer segment = segments.get(i);
+            bso.putLong(segment.remaining());
+            bso.write(segment.array(), segment.position(), segment.remaining());
+            bso.putBoolean(i < segments.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package Utilities;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keys derived from passwords recently, so that listing, verifying and extracting the same encrypted archive over and
+ * over pays for the key derivation once
+ * Keys are looked up by an HMAC-SHA256 of the derivation, the salt (the archive nonce) and the password, under a
+ * random key of the cache that never leaves the process. The cache holds no password, and a lookup key found in a heap
+ * dump cannot be brute-forced faster than the key derivation without the HMAC key. A key is dropped once it has not
+ * been used for the time to live, or as the least recently used key once the cache is full, and its bytes are wiped
+ * when it is dropped. Callers get a copy of the key.
+ */
+public class KeyCache {
+    /**
+     * Keys kept by the shared cache, and how long an unused key is kept
+     */
+    public static final int SHARED_MAX_KEYS = 64;
+    public static final long SHARED_TIME_TO_LIVE_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * Cache shared by all archive operations
+     */
+    public static final KeyCache SHARED = new KeyCache(SHARED_MAX_KEYS, SHARED_TIME_TO_LIVE_MILLIS);
+
+    private static final int LOOKUP_KEY_LENGTH = 32;
+
+    private final int maxKeys;
+    private final long timeToLiveNanos;
+    private final SecretKey lookupKey; // HMAC key of the lookup keys
+    private final LinkedHashMap<ByteBuffer, Entry> keys = new LinkedHashMap<>(16, 0.75f, true); // least recently used first
+    private long hits;
+    private long misses;
+
+    private static class Entry {
+        final byte[] key;
+        long lastUsed;
+
+        Entry(byte[] key, long lastUsed) {
+            this.key = key;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * @param maxKeys Keys kept at most (0 disables the cache)
+     * @param timeToLiveMillis Milliseconds an unused key is kept
+     */
+    public KeyCache(int maxKeys, long timeToLiveMillis) {
+        if (maxKeys < 0 || timeToLiveMillis < 0) {
+            throw new IllegalArgumentException("Cache size and time to live cannot be negative");
+        }
+
+        this.maxKeys = maxKeys;
+        this.timeToLiveNanos = timeToLiveMillis * 1_000_000;
+
+        byte[] lookupKeyBytes = new byte[LOOKUP_KEY_LENGTH];
+        new SecureRandom().nextBytes(lookupKeyBytes);
+        this.lookupKey = new SecretKeySpec(lookupKeyBytes, "HmacSHA256");
+    }
+
+    /**
+     * Returns the key of a password, deriving it if it is not cached
+     * Derivations run outside the lock, so threads opening different archives do not wait for each other.
+     * @param derivation Key derivation
+     * @param password Password
+     * @param salt Salt
+     * @return Secret key
+     */
+    public SecretKey get(KeyDerivation derivation, String password, byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        ByteBuffer id = ByteBuffer.wrap(lookupKey(derivation, password, salt));
+        synchronized (this) {
+            evictExpired(System.nanoTime());
+            Entry entry = keys.get(id);
+            if (entry != null) {
+                entry.lastUsed = System.nanoTime();
+                hits++;
+                return new SecretKeySpec(entry.key, "AES");
+            }
+            misses++;
+        }
+
+        char[] passwordChars = password.toCharArray();
+        byte[] key;
+        try {
+            key = derivation.derive(passwordChars, salt);
+        } finally {
+            Arrays.fill(passwordChars, '\0');
+        }
+        SecretKey secretKey = new SecretKeySpec(key, "AES");
+        put(id, key);
+        return secretKey;
+    }
+
+    /**
+     * Wipes and drops all keys
+     */
+    public synchronized void clear() {
+        for (Entry entry : keys.values()) {
+            Arrays.fill(entry.key, (byte) 0);
+        }
+        keys.clear();
+    }
+
+    /**
+     * Returns the number of keys cached
+     * @return Key count
+     */
+    public synchronized int size() {
+        evictExpired(System.nanoTime());
+        return keys.size();
+    }
+
+    /**
+     * Returns how many lookups found their key in the cache
+     * @return Hit count
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns how many lookups had to derive their key
+     * @return Miss count
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private synchronized void put(ByteBuffer id, byte[] key) {
+        Entry previous = keys.put(id, new Entry(key, System.nanoTime()));
+        if (previous != null && previous.key != key) {
+            Arrays.fill(previous.key, (byte) 0);
+        }
+        Iterator<Entry> iterator = keys.values().iterator();
+        while (keys.size() > maxKeys && iterator.hasNext()) {
+            Arrays.fill(iterator.next().key, (byte) 0);
+            iterator.remove();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<ByteBuffer, Entry>> iterator = keys.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (now - entry.lastUsed > timeToLiveNanos) {
+                Arrays.fill(entry.key, (byte) 0);
+                iterator.remove();
+            }
+        }
+    }
+
+    private byte[] lookupKey(KeyDerivation derivation, String password, byte[] salt) throws NoSuchAlgorithmException {
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        try {
+            hmac.init(lookupKey);
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException("Invalid cache key", e);
+        }
+        hmac.update(ByteBuffer.allocate(8).putInt(derivation.id).putInt(derivation.iterations).flip());
+        hmac.update(ByteBuffer.allocate(4).putInt(salt.length).flip());
+        hmac.update(salt);
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        hmac.update(passwordBytes);
+        Arrays.fill(passwordBytes, (byte) 0);
+        return hmac.doFinal();
+    }
+}
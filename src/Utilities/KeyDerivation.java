@@ -0,0 +1,122 @@
+package Utilities;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+
+/**
+ * Password-based key derivation function and its cost, recorded in the header of enhanced archives
+ * Archives written before record nothing and use {@link #PBKDF2_SHA1} at 65,536 iterations, as legacy archives
+ * always do. PBKDF2-HMAC-SHA256 lets a site pick an iteration count that fits its latency budget.
+ */
+public class KeyDerivation {
+    public static final int PBKDF2_SHA1_ID = 0;
+    public static final int PBKDF2_SHA256_ID = 1;
+
+    /**
+     * Iteration counts accepted, so that a crafted header cannot make opening an archive take forever
+     */
+    public static final int MIN_ITERATIONS = 1000;
+    public static final int MAX_ITERATIONS = 10_000_000;
+
+    /**
+     * Derivation of archives that do not record one
+     */
+    public static final KeyDerivation PBKDF2_SHA1 = new KeyDerivation(PBKDF2_SHA1_ID, 65536);
+
+    private static final int KEY_LENGTH = 128; // AES-128
+
+    public final int id;
+    public final int iterations;
+
+    /**
+     * @param id Function ID ({@link #PBKDF2_SHA1_ID} or {@link #PBKDF2_SHA256_ID})
+     * @param iterations Iteration count ({@link #MIN_ITERATIONS} to {@link #MAX_ITERATIONS})
+     */
+    public KeyDerivation(int id, int iterations) {
+        if (id != PBKDF2_SHA1_ID && id != PBKDF2_SHA256_ID) {
+            throw new IllegalArgumentException("Unknown key derivation function: " + id);
+        }
+        if (iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("Iterations must be between " + MIN_ITERATIONS + " and " + MAX_ITERATIONS);
+        }
+
+        this.id = id;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Returns a derivation by name, such as `pbkdf2-sha256` or `pbkdf2-sha256:600000`
+     * @param name Name, optionally followed by `:` and the iteration count (65,536 if omitted)
+     * @return Derivation
+     * @throws IllegalArgumentException If the name or iteration count is invalid
+     */
+    public static KeyDerivation forName(String name) {
+        String[] parts = name.trim().toLowerCase().split(":", 2);
+        int iterations;
+        try {
+            iterations = parts.length > 1 ? Integer.parseInt(parts[1]) : PBKDF2_SHA1.iterations;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid iteration count: " + parts[1]);
+        }
+        switch (parts[0]) {
+            case "pbkdf2-sha1":
+                return new KeyDerivation(PBKDF2_SHA1_ID, iterations);
+            case "pbkdf2-sha256":
+                return new KeyDerivation(PBKDF2_SHA256_ID, iterations);
+            default:
+                throw new IllegalArgumentException("Unknown key derivation: " + name
+                    + " (expected pbkdf2-sha1 or pbkdf2-sha256[:iterations])");
+        }
+    }
+
+    /**
+     * Returns the name of the function
+     * @return Name
+     */
+    public String getName() {
+        return id == PBKDF2_SHA256_ID ? "pbkdf2-sha256" : "pbkdf2-sha1";
+    }
+
+    /**
+     * Whether this is the derivation of archives that do not record one
+     * @return True for PBKDF2-HMAC-SHA1 at 65,536 iterations
+     */
+    public boolean isDefault() {
+        return id == PBKDF2_SHA1.id && iterations == PBKDF2_SHA1.iterations;
+    }
+
+    /**
+     * Returns the AES key of a password, from the shared {@link KeyCache} if it was derived recently
+     * @param password Password
+     * @param salt Salt (the archive nonce)
+     * @return Secret key
+     */
+    public SecretKey deriveKey(String password, byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        return KeyCache.SHARED.get(this, password, salt);
+    }
+
+    /**
+     * Runs the derivation (without the cache)
+     * @param password Password
+     * @param salt Salt
+     * @return Key bytes, to be wiped by the caller
+     */
+    byte[] derive(char[] password, byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEY_LENGTH);
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(
+                id == PBKDF2_SHA256_ID ? "PBKDF2WithHmacSHA256" : "PBKDF2WithHmacSHA1");
+            return factory.generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getName() + ":" + iterations;
+    }
+}
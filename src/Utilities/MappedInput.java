@@ -0,0 +1,270 @@
+package Utilities;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Archive reader backed by memory-mapped windows of the archive file
+ * Files larger than a single mapping are covered by consecutive windows of (at most) {@link #WINDOW_SIZE} bytes,
+ * which are mapped lazily on first access. Values are decoded straight from the mapping, and
+ * {@link #readSlice(long)} hands out zero-copy views whenever the requested range lies within one window.
+ */
+public class MappedInput implements BufferedStream.ReadableStream, Closeable {
+    public static final int WINDOW_SHIFT = 30;
+    public static final long WINDOW_SIZE = 1L << WINDOW_SHIFT; // 1 GB
+
+    private final int windowShift;
+    private final long windowSize;
+    private final long windowMask;
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer[] windows;
+    private long position;
+
+    /**
+     * Initialises a new MappedInput over the whole channel (the channel stays owned by the caller)
+     * @param channel Channel to map (read-only)
+     */
+    public MappedInput(FileChannel channel) throws IOException {
+        this(channel, WINDOW_SHIFT);
+    }
+
+    /**
+     * Initialises a new MappedInput with windows of `1 << windowShift` bytes
+     * @param channel Channel to map (read-only)
+     * @param windowShift Window size exponent (at most {@link #WINDOW_SHIFT})
+     */
+    MappedInput(FileChannel channel, int windowShift) throws IOException {
+        if (windowShift > WINDOW_SHIFT) {
+            throw new IllegalArgumentException("Window size exceeds " + WINDOW_SIZE + " bytes");
+        }
+
+        this.windowShift = windowShift;
+        this.windowSize = 1L << windowShift;
+        this.windowMask = windowSize - 1;
+        this.channel = channel;
+        this.size = channel.size();
+        this.windows = new MappedByteBuffer[(int) ((size + windowSize - 1) >>> windowShift)];
+    }
+
+    /**
+     * Returns the size of the mapped file
+     * @return Size in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the current read position
+     * @return Position
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Moves the read position
+     * @param position Absolute position
+     * @return The same instance for chaining
+     */
+    public MappedInput seek(long position) {
+        if (position < 0 || position > size) {
+            throw new IllegalArgumentException("Position out of range: " + position);
+        }
+        this.position = position;
+        return this;
+    }
+
+    private MappedByteBuffer window(int index) throws IOException {
+        MappedByteBuffer window = windows[index];
+        if (window == null) {
+            long start = (long) index << windowShift;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+            windows[index] = window;
+        }
+        return window;
+    }
+
+    private void require(long length) throws EOFException {
+        if (length < 0 || position + length > size) {
+            throw new EOFException("Unexpected end of archive");
+        }
+    }
+
+    /**
+     * Returns the window holding `length` bytes at the current position, or null if the range crosses a window boundary
+     */
+    private MappedByteBuffer windowFor(long length) throws IOException {
+        require(length);
+        if ((position & windowMask) + length > windowSize) {
+            return null;
+        }
+        return window((int) (position >>> windowShift));
+    }
+
+    /**
+     * Returns a view of the next `length` bytes and advances the position
+     * The view shares the mapping (zero-copy) unless the range crosses a window boundary, in which case it is copied
+     * @param length Number of bytes
+     * @return Read-only buffer positioned at zero
+     */
+    public ByteBuffer readSlice(long length) throws IOException {
+        MappedByteBuffer window = windowFor(length);
+        if (window == null) {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Slice too large: " + length);
+            }
+            return ByteBuffer.wrap(readNBytes((int) length)).asReadOnlyBuffer();
+        }
+
+        ByteBuffer slice = window.slice((int) (position & windowMask), (int) length).asReadOnlyBuffer();
+        position += length;
+        return slice;
+    }
+
+    /**
+     * Accesses a segment body without copying it (see {@link #readSlice(long)})
+     * @param segmentType Segment type to interpret length bytes size
+     * @return Segment body
+     */
+    public ByteBuffer readSegmentSlice(BufferedStream.JavaStreamSegmentType segmentType) throws IOException {
+        return readSlice(readSegmentSize(segmentType));
+    }
+
+    private long readSegmentSize(BufferedStream.JavaStreamSegmentType segmentType) throws IOException {
+        long segmentSize;
+        if (segmentType == BufferedStream.JavaStreamSegmentType.SHORT) {
+            segmentSize = getShort();
+        } else if (segmentType == BufferedStream.JavaStreamSegmentType.INTEGER) {
+            segmentSize = getInt();
+        } else {
+            segmentSize = getLong();
+        }
+
+        if (segmentSize < 0) {
+            throw new IOException("Segment size was negative");
+        }
+        return segmentSize;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position);
+    }
+
+    @Override
+    public byte[] readNBytes(int length) throws IOException {
+        require(length);
+        byte[] bytes = new byte[length];
+
+        int offset = 0;
+        while (offset < length) {
+            MappedByteBuffer window = window((int) (position >>> windowShift));
+            int windowOffset = (int) (position & windowMask);
+            int count = Math.min(length - offset, window.limit() - windowOffset);
+
+            window.get(windowOffset, bytes, offset, count);
+            offset += count;
+            position += count;
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public void skipNBytes(long length) throws IOException {
+        require(length);
+        position += length;
+    }
+
+    @Override
+    public byte[] readSegment(BufferedStream.JavaStreamSegmentType segmentType) {
+        try {
+            long segmentSize = readSegmentSize(segmentType);
+            if (segmentSize > Integer.MAX_VALUE) {
+                throw new IOException("Segment too large: " + segmentSize);
+            }
+            return readNBytes((int) segmentSize);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void readSegment(BufferedStream.JavaStreamSegmentType segmentType, BufferedStream.JavaStreamReadSegmentCallback callback) {
+        callback.onSegmentRetrieve(readSegment(segmentType), segmentType);
+    }
+
+    @Override
+    public short getShort() {
+        try {
+            MappedByteBuffer window = windowFor(Short.BYTES);
+            if (window == null) {
+                return ByteBuffer.wrap(readNBytes(Short.BYTES)).getShort();
+            }
+
+            short value = window.getShort((int) (position & windowMask));
+            position += Short.BYTES;
+            return value;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getInt() {
+        try {
+            MappedByteBuffer window = windowFor(Integer.BYTES);
+            if (window == null) {
+                return ByteBuffer.wrap(readNBytes(Integer.BYTES)).getInt();
+            }
+
+            int value = window.getInt((int) (position & windowMask));
+            position += Integer.BYTES;
+            return value;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public long getLong() {
+        try {
+            MappedByteBuffer window = windowFor(Long.BYTES);
+            if (window == null) {
+                return ByteBuffer.wrap(readNBytes(Long.BYTES)).getLong();
+            }
+
+            long value = window.getLong((int) (position & windowMask));
+            position += Long.BYTES;
+            return value;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean getBoolean() {
+        try {
+            require(1);
+            boolean value = window((int) (position >>> windowShift)).get((int) (position & windowMask)) == 1;
+            position++;
+            return value;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Drops the references to the mapped windows (the channel is left open)
+     */
+    @Override
+    public void close() {
+        windows = new MappedByteBuffer[0];
+    }
+}
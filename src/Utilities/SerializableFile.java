@@ -10,6 +10,7 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
@@ -63,10 +64,32 @@ public class SerializableFile extends SerializableObject {
      * @return `true` if successful, otherwise `false`
      */
     public boolean createFile(CreateFileCallback callback) throws IOException {
+        return createFile(callback, true);
+    }
+
+    /**
+     * Creates a new file at desired path and adds the necessary attributes
+     * @param callback Callback (to write file binary data)
+     * @param createParents `false` if the parent directory is known to exist (e.g. created once for all of its files)
+     * @return `true` if successful, otherwise `false`
+     */
+    public boolean createFile(CreateFileCallback callback, boolean createParents) throws IOException {
+        return createFile(new File(path.data), callback, createParents);
+    }
+
+    /**
+     * Creates a new file at a destination other than the recorded path, which is left as it is, and adds the necessary
+     * attributes
+     * @param destination File to create
+     * @param callback Callback (to write file binary data)
+     * @param createParents `false` if the parent directory is known to exist (e.g. created once for all of its files)
+     * @return `true` if successful, otherwise `false`
+     */
+    public boolean createFile(File destination, CreateFileCallback callback, boolean createParents) throws IOException {
         {
             // Create path if it does not exist
-            File temp = new File(path.data);
-            if (!temp.exists())
+            File temp = destination;
+            if (createParents && !temp.exists())
                 temp.mkdirs();
 
             // Create file (or overwrite if already exists)
@@ -77,7 +100,7 @@ public class SerializableFile extends SerializableObject {
                 return false;
         }
 
-        File file = new File(path.data);
+        File file = destination;
 
         callback.writeBinaryData(file);
 
@@ -166,6 +189,35 @@ public class SerializableFile extends SerializableObject {
         }
     }
 
+    /**
+     * Deserializes the object from the current position of a buffer (e.g. a mapped archive region) without copying it into a stream
+     * @param buffer Buffer to deserialize, advanced past the object
+     */
+    public void fromByteBuffer(ByteBuffer buffer) {
+        byte[] bytes;
+
+        // Name (2 + x bytes)
+        bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        name.fromByteArray(bytes);
+
+        // Path (2 + x bytes)
+        bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        path.fromByteArray(bytes);
+
+        // Can read, Can execute, Can write (1 byte each)
+        canRead.data = buffer.get() == 1;
+        canExecute.data = buffer.get() == 1;
+        canWrite.data = buffer.get() == 1;
+
+        // Last modified (8 bytes)
+        lastModified.data = buffer.getLong();
+
+        // Size (8 bytes)
+        size.data = buffer.getLong();
+    }
+
     @Override
     public void fromByteArray(byte[] bytes) {
         fromByteArray(new BufferedInputStream(new ByteArrayInputStream(bytes)));
@@ -0,0 +1,79 @@
+package Utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128 variable-length integers: 7 bits per byte, least significant group first, with the high bit set on every byte
+ * but the last. Signed values are zigzag-encoded first so that small negative values stay short.
+ */
+public class VarInt {
+    public static final int MAX_LENGTH = 10;
+
+    /**
+     * Writes an unsigned value
+     * @param out Output stream
+     * @param value Value (treated as unsigned)
+     */
+    public static void write(OutputStream out, long value) throws IOException {
+        byte[] bytes = new byte[MAX_LENGTH];
+        int length = 0;
+        while ((value & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+        out.write(bytes, 0, length);
+    }
+
+    /**
+     * Reads an unsigned value from the current position of `buffer`
+     * @param buffer Buffer to read from
+     * @return Value
+     * @throws IOException If the value is longer than {@link #MAX_LENGTH} bytes
+     */
+    public static long read(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Reads an unsigned value that has to fit into an int
+     * @param buffer Buffer to read from
+     * @return Value
+     * @throws IOException If the value is malformed or too large
+     */
+    public static int readInt(ByteBuffer buffer) throws IOException {
+        long value = read(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Variable-length integer out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Maps signed values to unsigned ones (0, -1, 1, -2, ... to 0, 1, 2, 3, ...)
+     * @param value Signed value
+     * @return Zigzag-encoded value
+     */
+    public static long encodeZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses {@link #encodeZigZag(long)}
+     * @param value Zigzag-encoded value
+     * @return Signed value
+     */
+    public static long decodeZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,286 @@
+package Utilities;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only channel presenting the volumes of a split archive (`name.archivit.001`, `.002`, ...) as one file
+ * Volume sizes are taken from the file system up front, but each volume is only opened when it is first read from,
+ * so reading a few entries touches only the volumes holding them.
+ */
+public class VolumeChannel extends FileChannel {
+    private final Path[] paths;
+    private final long[] starts;
+    private final FileChannel[] volumes;
+    private final long size;
+    private long position;
+
+    private VolumeChannel(List<Path> paths) throws IOException {
+        this.paths = paths.toArray(new Path[0]);
+        this.starts = new long[this.paths.length];
+        this.volumes = new FileChannel[this.paths.length];
+
+        long offset = 0;
+        for (int i = 0; i < this.paths.length; i++) {
+            starts[i] = offset;
+            offset += Files.size(this.paths[i]);
+        }
+        this.size = offset;
+    }
+
+    /**
+     * Returns the path of a volume
+     * @param archivePath Archive path (including the `.archivit` extension)
+     * @param volume Volume number, starting at 1
+     * @return Volume path
+     */
+    public static Path volumePath(String archivePath, int volume) {
+        return Path.of(String.format("%s.%03d", archivePath, volume));
+    }
+
+    /**
+     * Checks whether an archive was written as split volumes
+     * @param archivePath Archive path (including the `.archivit` extension)
+     * @return `true` if the first volume exists
+     */
+    public static boolean isSplit(String archivePath) {
+        return Files.exists(volumePath(archivePath, 1));
+    }
+
+    /**
+     * Opens the volumes of a split archive
+     * @param archivePath Archive path (including the `.archivit` extension)
+     * @return Channel over all volumes
+     * @throws FileNotFoundException If the first volume does not exist
+     */
+    public static VolumeChannel open(String archivePath) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for (int volume = 1; Files.exists(volumePath(archivePath, volume)); volume++) {
+            paths.add(volumePath(archivePath, volume));
+        }
+
+        if (paths.isEmpty()) {
+            throw new FileNotFoundException("Archive not found: " + archivePath);
+        }
+        return new VolumeChannel(paths);
+    }
+
+    /**
+     * Returns the number of volumes
+     * @return Volume count
+     */
+    public int getVolumeCount() {
+        return paths.length;
+    }
+
+    /**
+     * Returns the number of volumes opened so far
+     * @return Opened volume count
+     */
+    public int getOpenedVolumeCount() {
+        int count = 0;
+        for (FileChannel volume : volumes) {
+            if (volume != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int volumeAt(long position) {
+        int low = 0, high = starts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private FileChannel volume(int index) throws IOException {
+        if (volumes[index] == null) {
+            volumes[index] = FileChannel.open(paths[index], StandardOpenOption.READ);
+        }
+        return volumes[index];
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        if (position >= size) {
+            return -1;
+        }
+
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            int index = volumeAt(position);
+            long volumeEnd = index + 1 < starts.length ? starts[index + 1] : size;
+
+            // Limit the read to the current volume
+            int length = (int) Math.min(dst.remaining(), volumeEnd - position);
+            ByteBuffer slice = dst.slice(dst.position(), length);
+            int count = volume(index).read(slice, position - starts[index]);
+            if (count <= 0) {
+                break;
+            }
+
+            dst.position(dst.position() + count);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int count = read(dst, position);
+        if (count > 0) {
+            position += count;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (!dsts[i].hasRemaining()) {
+                continue;
+            }
+            int count = read(dsts[i]);
+            if (count < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += count;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized long position() {
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 65536));
+        long total = 0;
+        while (total < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - total));
+            int read = read(buffer, position + total);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Maps a region of a single volume (regions spanning volumes cannot be mapped)
+     */
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        int index = volumeAt(position);
+        long volumeEnd = index + 1 < starts.length ? starts[index + 1] : this.size;
+        if (position + size > volumeEnd) {
+            throw new UnsupportedOperationException("Region spans volumes");
+        }
+        return volume(index).map(mode, position - starts[index], size);
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public FileChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public void force(boolean metaData) {}
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("Split archives cannot be locked");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("Split archives cannot be locked");
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        IOException error = null;
+        for (int i = 0; i < volumes.length; i++) {
+            if (volumes[i] == null) {
+                continue;
+            }
+            try {
+                volumes[i].close();
+            } catch (IOException e) {
+                error = e;
+            }
+            volumes[i] = null;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package Utilities;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Output stream writing an archive as volumes of a fixed size (see {@link VolumeChannel#volumePath(String, int)})
+ * Data simply continues in the next volume once a volume is full, so entries may span volumes. Full volumes are
+ * synced to disk and closed in the background while the following ones are being written.
+ */
+public class VolumeOutputStream extends OutputStream {
+    private final String archivePath;
+    private final long volumeSize;
+    private final List<Path> volumes = new ArrayList<>();
+    private final List<Future<?>> finishing = new ArrayList<>();
+    private final ExecutorService finisher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "archivit-volume-finisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FileOutputStream current;
+    private long currentSize;
+    private boolean closed;
+
+    /**
+     * @param archivePath Archive path (including the `.archivit` extension)
+     * @param volumeSize Maximum size of each volume in bytes
+     */
+    public VolumeOutputStream(String archivePath, long volumeSize) {
+        if (volumeSize <= 0) {
+            throw new IllegalArgumentException("Volume size must be positive");
+        }
+
+        this.archivePath = archivePath;
+        this.volumeSize = volumeSize;
+    }
+
+    /**
+     * Returns the volumes created so far
+     * @return Volume paths
+     */
+    public List<Path> getVolumes() {
+        return volumes;
+    }
+
+    private void nextVolume() throws IOException {
+        if (current != null) {
+            FileOutputStream full = current;
+            finishing.add(finisher.submit(() -> {
+                finish(full);
+                return null;
+            }));
+        }
+
+        Path path = VolumeChannel.volumePath(archivePath, volumes.size() + 1);
+        volumes.add(path);
+        current = new FileOutputStream(path.toFile());
+        currentSize = 0;
+    }
+
+    private static void finish(FileOutputStream volume) throws IOException {
+        try {
+            volume.getChannel().force(true);
+        } finally {
+            volume.close();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (len > 0) {
+            if (current == null || currentSize == volumeSize) {
+                nextVolume();
+            }
+
+            int count = (int) Math.min(len, volumeSize - currentSize);
+            current.write(b, off, count);
+            currentSize += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Finishes the last volume and waits until all volumes are synced and closed
+     * @throws IOException If any volume could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        IOException error = null;
+        try {
+            if (current == null) {
+                nextVolume(); // an empty archive still has one volume
+            }
+            finish(current);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        for (Future<?> future : finishing) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (error == null) {
+                    error = new IOException("Interrupted while finishing volumes", e);
+                }
+            }
+        }
+        finisher.shutdown();
+
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package Utilities;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflaters, inflater, cipher, digest, checksum and output buffer of one thread, reset and reused for every entry,
+ * block and chunk the thread compresses, encrypts or hashes
+ * Creating and ending a Deflater or Inflater allocates and frees native zlib state, which costs more than compressing
+ * a small file, and looking up a Cipher goes through the security providers every time. Worker threads of a
+ * {@link WorkerPool} and the calling thread each get their own context, so no locking is needed. Buffers returned by a
+ * context are only valid until its next call. Worker threads {@link #release()} their context when they terminate,
+ * which ends its native zlib state, while the context of a calling thread is kept for its next operation.
+ */
+public class WorkerContext {
+    private static final ThreadLocal<WorkerContext> CONTEXT = new ThreadLocal<>();
+    private static final AtomicInteger LIVE_CONTEXTS = new AtomicInteger();
+
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    private final Deflater[] deflaters = new Deflater[Deflater.BEST_COMPRESSION + 1]; // by level, created on demand
+    private final Inflater inflater = new Inflater();
+    private final MessageDigest sha256;
+    private final CRC32 crc = new CRC32();
+    private Cipher cipher; // AES/GCM, created on first use
+    private ByteBuffer buffer = ByteBuffer.allocate(MIN_BUFFER_SIZE);
+
+    private WorkerContext() {
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+        LIVE_CONTEXTS.incrementAndGet();
+    }
+
+    /**
+     * Returns the context of the current thread
+     * @return Context
+     */
+    public static WorkerContext get() {
+        WorkerContext context = CONTEXT.get();
+        if (context == null) {
+            context = new WorkerContext();
+            CONTEXT.set(context);
+        }
+        return context;
+    }
+
+    /**
+     * Ends the deflaters and inflater of the context of the current thread, if it has one, and drops the context
+     */
+    public static void release() {
+        WorkerContext context = CONTEXT.get();
+        if (context == null) {
+            return;
+        }
+        CONTEXT.remove();
+
+        for (Deflater deflater : context.deflaters) {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        context.inflater.end();
+        LIVE_CONTEXTS.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of contexts created and not released yet, one per thread that compressed, encrypted or hashed
+     * @return Context count
+     */
+    public static int getLiveContexts() {
+        return LIVE_CONTEXTS.get();
+    }
+
+    /**
+     * Compresses the remaining bytes of a buffer with DEFLATE (the buffer position is left unchanged)
+     * @param data Data to compress
+     * @param level Compression level (1-9, or {@link Deflater#DEFAULT_COMPRESSION})
+     * @param maxLength Largest compressed length worth keeping, compression stops as soon as it is exceeded
+     * @return Compressed data in the output buffer of this context, or null if it exceeded `maxLength`
+     */
+    public ByteBuffer deflate(ByteBuffer data, int level, int maxLength) {
+        return deflate(data, level, maxLength, null);
+    }
+
+    /**
+     * Compresses the remaining bytes of a buffer with DEFLATE, primed with a preset dictionary (the buffer position is
+     * left unchanged)
+     * @param data Data to compress
+     * @param level Compression level (1-9, or {@link Deflater#DEFAULT_COMPRESSION})
+     * @param maxLength Largest compressed length worth keeping, compression stops as soon as it is exceeded
+     * @param dictionary Preset dictionary (null for none), needed again to decompress
+     * @return Compressed data in the output buffer of this context, or null if it exceeded `maxLength`
+     */
+    public ByteBuffer deflate(ByteBuffer data, int level, int maxLength, byte[] dictionary) {
+        Deflater deflater = deflater(level);
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data.duplicate());
+        deflater.finish();
+
+        ByteBuffer output = buffer((int) Math.min(maxLength, data.remaining() + data.remaining() / 1000L + 64));
+        output.limit(Math.min(output.capacity(), maxLength));
+        try {
+            while (!deflater.finished()) {
+                if (!output.hasRemaining()) {
+                    if (output.position() >= maxLength) {
+                        return null;
+                    }
+                    output = grow(output, maxLength);
+                }
+                deflater.deflate(output);
+            }
+            return output.flip();
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * Returns the DEFLATE-compressed length of the remaining bytes of a buffer (the buffer position is left
+     * unchanged), discarding the compressed data
+     * @param data Data to compress
+     * @param level Compression level
+     * @return Compressed length
+     */
+    public long deflatedLength(ByteBuffer data, int level) {
+        Deflater deflater = deflater(level);
+        deflater.setInput(data.duplicate());
+        deflater.finish();
+
+        ByteBuffer output = buffer(MIN_BUFFER_SIZE);
+        try {
+            while (!deflater.finished()) {
+                output.clear();
+                deflater.deflate(output);
+            }
+            return deflater.getBytesWritten();
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * Decompresses the remaining bytes of a buffer with INFLATE into another buffer (the input position is left
+     * unchanged)
+     * @param compressedData Compressed data
+     * @param output Buffer receiving exactly as many bytes as it has remaining
+     * @throws IOException If the data is malformed, truncated or does not decompress to the remaining length of `output`
+     */
+    public void inflate(ByteBuffer compressedData, ByteBuffer output) throws IOException {
+        inflate(compressedData, output, null);
+    }
+
+    /**
+     * Decompresses the remaining bytes of a buffer with INFLATE into another buffer, with the preset dictionary the
+     * data was compressed with if any (the input position is left unchanged)
+     * @param compressedData Compressed data
+     * @param output Buffer receiving exactly as many bytes as it has remaining
+     * @param dictionary Preset dictionary (null for none, only used if the data needs it)
+     * @throws IOException If the data is malformed, truncated, needs another dictionary or does not decompress to the
+     *                     remaining length of `output`
+     */
+    public void inflate(ByteBuffer compressedData, ByteBuffer output, byte[] dictionary) throws IOException {
+        inflater.setInput(compressedData.duplicate());
+        try {
+            while (!inflater.finished()) {
+                int start = output.position();
+                inflater.inflate(output);
+                if (output.position() == start && !inflater.finished()) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new IOException("Compressed data needs a preset dictionary");
+                        }
+                        try {
+                            inflater.setDictionary(dictionary);
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException("Compressed data needs another preset dictionary", e);
+                        }
+                        dictionary = null; // only needed once
+                        continue;
+                    }
+                    if (inflater.needsInput()) {
+                        throw new IOException("Truncated compressed data");
+                    }
+                    throw new IOException("Data decompresses to more than " + (start + output.remaining()) + " bytes");
+                }
+            }
+            if (output.hasRemaining()) {
+                throw new IOException("Data decompresses to " + output.position() + " bytes, expected " + output.limit());
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Failed to decompress data", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * Calculates the SHA-256 digest of the remaining bytes of a buffer (the buffer position is left unchanged)
+     * @param data Data to hash
+     * @return 32-byte digest
+     */
+    public byte[] sha256(ByteBuffer data) {
+        sha256.update(data.duplicate());
+        return sha256.digest();
+    }
+
+    /**
+     * Calculates the CRC32 checksum of the remaining bytes of a buffer (the buffer position is left unchanged)
+     * @param data Data to checksum
+     * @return CRC32 checksum
+     */
+    public long crc32(ByteBuffer data) {
+        crc.reset();
+        crc.update(data.duplicate());
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the AES/GCM cipher of this context, initialised for a new key and nonce
+     * GCM refuses to encrypt twice with the same key and nonce, so callers reusing a nonce need a cipher of their own
+     * (see {@link CipherKit#buildCipher}).
+     * @param key Secret key
+     * @param nonce Nonce, never used before with this key for encryption
+     * @param mode Process mode
+     * @return Cipher, valid until the next call of this context
+     * @throws GeneralSecurityException If the cipher cannot be initialised
+     */
+    public Cipher cipher(SecretKey key, byte[] nonce, CipherKit.CipherMode mode) throws GeneralSecurityException {
+        if (cipher == null) {
+            cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        }
+        cipher.init(mode == CipherKit.CipherMode.ENCRYPT ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key,
+            new GCMParameterSpec(CipherKit.TAG_LENGTH * 8, nonce));
+        return cipher;
+    }
+
+    /**
+     * Returns the output buffer of this context, cleared and holding at least `capacity` bytes
+     * @param capacity Capacity needed
+     * @return Buffer, valid until the next call of this context
+     */
+    public ByteBuffer buffer(int capacity) {
+        if (buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocate(Math.max(capacity, MIN_BUFFER_SIZE));
+        }
+        return buffer.clear();
+    }
+
+    private Deflater deflater(int level) {
+        if (level == Deflater.DEFAULT_COMPRESSION) {
+            level = 6;
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid DEFLATE level: " + level);
+        }
+
+        if (deflaters[level] == null) {
+            deflaters[level] = new Deflater(level);
+        }
+        return deflaters[level];
+    }
+
+    /**
+     * Replaces a full output buffer with one twice as large (up to `maxLength` bytes), keeping its content
+     */
+    private ByteBuffer grow(ByteBuffer output, int maxLength) {
+        int capacity = (int) Math.min((long) output.capacity() * 2, maxLength);
+        buffer = ByteBuffer.allocate(Math.max(capacity, output.capacity())).put(output.flip());
+        buffer.limit(Math.min(buffer.capacity(), maxLength));
+        return buffer;
+    }
+}
@@ -0,0 +1,105 @@
+package Utilities;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fork-join pool compressing or decompressing independent blocks, whose results are consumed in submission order
+ * Callers keep at most {@link #getMaxPending()} tasks in flight, which bounds the memory held by blocks waiting to be
+ * written. With a single thread no pool is started and tasks run right away on the calling thread. Worker threads
+ * release their {@link WorkerContext} when they terminate, which {@link #close()} waits for.
+ */
+public class WorkerPool implements Closeable {
+    /**
+     * Time {@link #close()} waits for the worker threads to terminate
+     */
+    private static final long TERMINATION_TIMEOUT_SECONDS = 10;
+
+    public final int threads;
+    private final ForkJoinPool pool; // null for a single thread
+
+    /**
+     * @param threads Number of worker threads (0 for one per available processor)
+     */
+    public WorkerPool(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Thread count cannot be negative");
+        }
+
+        this.threads = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        this.pool = this.threads > 1 ? new ForkJoinPool(this.threads, WorkerThread::new, null, false) : null;
+    }
+
+    /**
+     * Worker thread ending the codecs of its context when it terminates, after the pool is closed or when it has been
+     * idle for long
+     */
+    private static class WorkerThread extends ForkJoinWorkerThread {
+        WorkerThread(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            WorkerContext.release();
+            super.onTermination(exception);
+        }
+    }
+
+    /**
+     * Returns the number of tasks to keep in flight so that every thread stays busy while results are consumed
+     * @return Task count
+     */
+    public int getMaxPending() {
+        return pool != null ? threads * 2 : 1;
+    }
+
+    /**
+     * Runs a task on the pool
+     * @param task Task to run
+     * @return Future of the result (already completed for a single thread)
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        if (pool != null) {
+            return pool.submit(task);
+        }
+
+        FutureTask<T> future = new FutureTask<>(task);
+        future.run();
+        return future;
+    }
+
+    /**
+     * Waits for the result of a task, rethrowing whatever the task threw
+     * @param future Future returned by {@link #submit(Callable)}
+     * @return Result
+     */
+    public static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}